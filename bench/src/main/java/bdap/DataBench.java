@@ -0,0 +1,74 @@
+package bdap;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Reading a data set of NB_ROWS examples: parsing every line with the Data classes, and with the
+ * cursors of PrimitiveData. One operation reads the whole file, which stays in the page cache.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Benchmark)
+public class DataBench {
+
+  static final int NB_ROWS = 20000;
+
+  @Param({"10", "100"})
+  int nbFeatures;
+
+  @Param({"2", "8"})
+  int arity;
+
+  private Path intDir;
+  private Path doubleDir;
+
+  @Setup
+  public void setup() throws IOException {
+    Synthetic data = new Synthetic(NB_ROWS, nbFeatures, arity, 1);
+    intDir = data.writeCsv(false);
+    doubleDir = data.writeCsv(true);
+  }
+
+  @TearDown
+  public void tearDown() {
+    Synthetic.delete(intDir);
+    Synthetic.delete(doubleDir);
+  }
+
+  @Benchmark
+  public void intData(Blackhole blackhole) throws IOException {
+    try (Data.ExampleIterator<Integer> iterator =
+        Data.ints(intDir.toString(), ",").iterator()) {
+      while (iterator.hasNext()) blackhole.consume(iterator.next());
+    }
+  }
+
+  @Benchmark
+  public void doubleData(Blackhole blackhole) throws IOException {
+    try (Data.ExampleIterator<Double> iterator =
+        Data.doubles(doubleDir.toString(), ",").iterator()) {
+      while (iterator.hasNext()) blackhole.consume(iterator.next());
+    }
+  }
+
+  @Benchmark
+  public void primitiveIntCursor(Blackhole blackhole) throws IOException {
+    try (RowCursor cursor = new PrimitiveData(intDir.toString(), ",").intCursor()) {
+      while (cursor.next()) blackhole.consume(cursor.intRow());
+    }
+  }
+
+  @Benchmark
+  public void primitiveDoubleCursor(Blackhole blackhole) throws IOException {
+    try (RowCursor cursor = new PrimitiveData(doubleDir.toString(), ",").doubleCursor()) {
+      while (cursor.next()) blackhole.consume(cursor.doubleRow());
+    }
+  }
+}
@@ -0,0 +1,84 @@
+package bdap;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Writing and reading a trained model in the text format of writeModel, the binary format of
+ * writeBinaryModel and its gzip variant. One operation writes or reads the whole model.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Benchmark)
+public class ModelIoBench {
+
+  @Param({"text", "binary", "gzip"})
+  String format;
+
+  @Param({"20", "100"})
+  int nbFeatures;
+
+  private Synthetic data;
+  private Vfdt vfdt;
+  private Perceptron perceptron;
+  private File vfdtFile;
+  private File perceptronFile;
+
+  @Setup
+  public void setup() throws IOException {
+    data = new Synthetic(100000, nbFeatures, 5, 5);
+    vfdt = new Vfdt(data.nbFeatureValues, 1e-7, 0.05, 200);
+    perceptron = new Perceptron(nbFeatures, 0.01);
+    for (int r = 0; r < data.rows.length; r++) {
+      vfdt.update(data.rows[r], data.classValues[r]);
+      perceptron.update(data.doubleRows[r], data.classValues[r]);
+    }
+    vfdtFile = File.createTempFile("bdap-bench", ".vfdt");
+    perceptronFile = File.createTempFile("bdap-bench", ".perceptron");
+    write(vfdt, vfdtFile);
+    write(perceptron, perceptronFile);
+  }
+
+  @TearDown
+  public void tearDown() {
+    vfdtFile.delete();
+    perceptronFile.delete();
+  }
+
+  private void write(IncrementalLearner<?> learner, File file) throws IOException {
+    if (format.equals("text")) {
+      learner.writeModel(file.getPath());
+    } else {
+      learner.writeBinaryModel(file.getPath(), format.equals("gzip"));
+    }
+  }
+
+  @Benchmark
+  public void writeVfdt() throws IOException {
+    write(vfdt, vfdtFile);
+  }
+
+  @Benchmark
+  public Vfdt readVfdt() throws IOException {
+    Vfdt read = new Vfdt(data.nbFeatureValues, 1e-7, 0.05, 200);
+    read.readModel(vfdtFile.getPath(), vfdt.nbExamplesProcessed);
+    return read;
+  }
+
+  @Benchmark
+  public void writePerceptron() throws IOException {
+    write(perceptron, perceptronFile);
+  }
+
+  @Benchmark
+  public Perceptron readPerceptron() throws IOException {
+    Perceptron read = new Perceptron(nbFeatures, 0.01);
+    read.readModel(perceptronFile.getPath(), perceptron.nbExamplesProcessed);
+    return read;
+  }
+}
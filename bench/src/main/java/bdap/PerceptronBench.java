@@ -0,0 +1,58 @@
+package bdap;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * One Perceptron update or prediction per operation, cycling through NB_ROWS in-memory examples.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Thread)
+public class PerceptronBench {
+
+  static final int NB_ROWS = 4096;
+
+  @Param({"10", "100", "1000"})
+  int nbFeatures;
+
+  private Synthetic data;
+  private Double[][] boxedRows;
+  private Perceptron perceptron;
+  private int next = 0;
+
+  @Setup
+  public void setup() {
+    data = new Synthetic(NB_ROWS, nbFeatures, 4, 2);
+    boxedRows = new Double[NB_ROWS][nbFeatures];
+    for (int r = 0; r < NB_ROWS; r++) {
+      for (int i = 0; i < nbFeatures; i++) boxedRows[r][i] = data.doubleRows[r][i];
+    }
+    perceptron = new Perceptron(nbFeatures, 0.01);
+    for (int r = 0; r < NB_ROWS; r++) perceptron.update(data.doubleRows[r], data.classValues[r]);
+  }
+
+  private int nextRow() {
+    next = (next + 1) & (NB_ROWS - 1);
+    return next;
+  }
+
+  @Benchmark
+  public void update() {
+    int r = nextRow();
+    perceptron.update(data.doubleRows[r], data.classValues[r]);
+  }
+
+  @Benchmark
+  public double makePrediction() {
+    return perceptron.makePrediction(data.doubleRows[nextRow()]);
+  }
+
+  @Benchmark
+  public double makePredictionBoxed() {
+    return perceptron.makePrediction(boxedRows[nextRow()]);
+  }
+}
@@ -0,0 +1,95 @@
+package bdap;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Reproducible synthetic data for the benchmarks. Every feature has the same number of values
+ * (the arity). The class is 1 when the sum of the first three features is at least their mean sum,
+ * flipped with 10% noise, so the VFDT has something to split on. All data depends only on the
+ * seed.
+ */
+final class Synthetic {
+
+  final int[] nbFeatureValues;
+  final int[][] rows;
+  final double[][] doubleRows;
+  final int[] classValues;
+
+  /**
+   * @param nbRows the number of examples
+   * @param nbFeatures the number of features
+   * @param arity the number of values of every feature
+   * @param seed the seed of the random generator
+   */
+  Synthetic(int nbRows, int nbFeatures, int arity, long seed) {
+    nbFeatureValues = new int[nbFeatures];
+    Arrays.fill(nbFeatureValues, arity);
+    rows = new int[nbRows][nbFeatures];
+    doubleRows = new double[nbRows][nbFeatures];
+    classValues = new int[nbRows];
+    Random random = new Random(seed);
+    int relevant = Math.min(3, nbFeatures);
+    for (int r = 0; r < nbRows; r++) {
+      int sum = 0;
+      for (int i = 0; i < nbFeatures; i++) {
+        rows[r][i] = random.nextInt(arity);
+        doubleRows[r][i] = rows[r][i] + random.nextDouble();
+        if (i < relevant) sum += rows[r][i];
+      }
+      boolean positive = 2 * sum >= relevant * (arity - 1);
+      classValues[r] = positive != (random.nextInt(10) == 0) ? 1 : 0;
+    }
+  }
+
+  /** @return the examples boxed, as the Data classes return them */
+  Integer[][] boxedRows() {
+    Integer[][] boxed = new Integer[rows.length][];
+    for (int r = 0; r < rows.length; r++) {
+      boxed[r] = Arrays.stream(rows[r]).boxed().toArray(Integer[]::new);
+    }
+    return boxed;
+  }
+
+  /**
+   * Writes the examples as one csv file in a new temporary directory.
+   *
+   * @param doubles whether to write the double rows instead of the int rows
+   * @return the directory
+   */
+  Path writeCsv(boolean doubles) throws IOException {
+    Path dir = Files.createTempDirectory("bdap-bench");
+    try (BufferedWriter writer =
+        Files.newBufferedWriter(dir.resolve("data.csv"), StandardCharsets.US_ASCII)) {
+      StringBuilder line = new StringBuilder();
+      for (int r = 0; r < rows.length; r++) {
+        line.setLength(0);
+        for (int i = 0; i < rows[r].length; i++) {
+          if (doubles) {
+            line.append(doubleRows[r][i]);
+          } else {
+            line.append(rows[r][i]);
+          }
+          line.append(',');
+        }
+        writer.write(line.append(classValues[r]).append('\n').toString());
+      }
+    }
+    return dir;
+  }
+
+  /** Deletes a directory made by writeCsv. */
+  static void delete(Path dir) {
+    File[] files = dir.toFile().listFiles();
+    if (files != null) {
+      for (File file : files) file.delete();
+    }
+    dir.toFile().delete();
+  }
+}
@@ -0,0 +1,132 @@
+package bdap;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * One Vfdt update, split evaluation or sort per operation:
+ *
+ * <ul>
+ *   <li>update: training a tree that is restarted every iteration, cycling through NB_ROWS
+ *       examples;
+ *   <li>informationGain and splitEval: the gain of one feature of a leaf that saw NB_ROWS
+ *       examples;
+ *   <li>sortExample: sorting an example down a complete binary tree of the given depth, compared
+ *       with the FrozenVfdt of the same tree.
+ * </ul>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class VfdtBench {
+
+  static final int NB_ROWS = 1 << 16;
+
+  @State(Scope.Thread)
+  public static class Training {
+
+    @Param({"10", "50"})
+    int nbFeatures;
+
+    @Param({"2", "5"})
+    int arity;
+
+    Synthetic data;
+    Vfdt vfdt;
+    VfdtNode leaf;
+    int next = 0;
+
+    @Setup(Level.Trial)
+    public void data() {
+      data = new Synthetic(NB_ROWS, nbFeatures, arity, 3);
+      int[] features = new int[nbFeatures];
+      for (int i = 0; i < nbFeatures; i++) features[i] = i;
+      leaf = new VfdtNode(data.nbFeatureValues, features);
+      for (int r = 0; r < NB_ROWS; r++) leaf.addExample(data.rows[r], data.classValues[r]);
+    }
+
+    @Setup(Level.Iteration)
+    public void tree() {
+      vfdt = new Vfdt(data.nbFeatureValues, 1e-7, 0.05, 200);
+    }
+
+    int nextRow() {
+      next = (next + 1) & (NB_ROWS - 1);
+      return next;
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class Tree {
+
+    static final int NB_FEATURES = 16;
+
+    @Param({"4", "8", "12"})
+    int depth;
+
+    VfdtNode root;
+    FrozenVfdt frozen;
+    int[][] rows;
+    Integer[][] boxedRows;
+    int next = 0;
+
+    @Setup
+    public void build() {
+      Synthetic data = new Synthetic(4096, NB_FEATURES, 2, 4);
+      rows = data.rows;
+      boxedRows = data.boxedRows();
+      root = build(data.nbFeatureValues, 0);
+      frozen = new FrozenVfdt.Compiler(data.nbFeatureValues).compile(root);
+    }
+
+    /* A complete tree that splits on feature level at every level. */
+    private VfdtNode build(int[] nbFeatureValues, int level) {
+      VfdtNode node = new VfdtNode(nbFeatureValues, new int[0]);
+      if (level < depth) {
+        VfdtNode[] children = new VfdtNode[nbFeatureValues[level]];
+        for (int v = 0; v < children.length; v++) children[v] = build(nbFeatureValues, level + 1);
+        node.addChildren(level, children);
+      }
+      return node;
+    }
+
+    int nextRow() {
+      next = (next + 1) & (rows.length - 1);
+      return next;
+    }
+  }
+
+  @Benchmark
+  public void update(Training state) {
+    int r = state.nextRow();
+    state.vfdt.update(state.data.rows[r], state.data.classValues[r]);
+  }
+
+  @Benchmark
+  public double informationGain(Training state) {
+    int feature = state.nextRow() % state.nbFeatures;
+    return VfdtNode.informationGain(feature, state.leaf.getNijk(), state.leaf.getNijkOffsets());
+  }
+
+  @Benchmark
+  public double splitEval(Training state) {
+    return state.leaf.splitEval(state.nextRow() % state.nbFeatures);
+  }
+
+  @Benchmark
+  public VfdtNode sortExample(Tree state) {
+    return state.root.sortExample(state.rows[state.nextRow()]);
+  }
+
+  @Benchmark
+  public VfdtNode sortExampleBoxed(Tree state) {
+    return state.root.sortExample(state.boxedRows[state.nextRow()]);
+  }
+
+  @Benchmark
+  public double frozenPrediction(Tree state) {
+    return state.frozen.makePrediction(state.rows[state.nextRow()]);
+  }
+}
@@ -0,0 +1,74 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Compares per-example training of the Perceptron with the batch API, in standard and in
+ * mini-batch mode. The data is loaded in memory first, so that only the training is measured.
+ *
+ * <p>Run with --add-modules jdk.incubator.vector to use the vector kernels; the kernel that is
+ * used is printed first.
+ */
+public class BatchBenchmark {
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1) {
+      System.err.println("Usage: java BatchBenchmark <data set> [batchSize] [repetitions]");
+      throw new Error("Expected 1 to 3 arguments, got " + args.length + ".");
+    }
+    int batchSize = args.length > 1 ? Integer.parseInt(args[1]) : 256;
+    int repetitions = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+    PrimitiveData data = new PrimitiveData(args[0], ",");
+    int n = data.getNbFeatures();
+    double[] rows = new double[1024 * n];
+    int[] classValues = new int[1024];
+    int nbRows = 0;
+    try (RowCursor cursor = data.doubleCursor()) {
+      while (cursor.next()) {
+        if (nbRows == classValues.length) {
+          rows = Arrays.copyOf(rows, 2 * rows.length);
+          classValues = Arrays.copyOf(classValues, 2 * classValues.length);
+        }
+        System.arraycopy(cursor.doubleRow(), 0, rows, nbRows * n, n);
+        classValues[nbRows++] = cursor.classValue();
+      }
+    }
+    System.out.println(
+        nbRows + " examples, " + n + " features, kernel " + DenseKernel.get().name());
+
+    double[] row = new double[n];
+    double[] batch = new double[batchSize * n];
+    int[] batchClasses = new int[batchSize];
+    for (int r = 0; r < repetitions; r++) {
+      System.out.println("repetition " + r);
+      Perceptron perceptron = new Perceptron(n, 1e-9);
+      long start = System.nanoTime();
+      for (int i = 0; i < nbRows; i++) {
+        System.arraycopy(rows, i * n, row, 0, n);
+        perceptron.update(row, classValues[i]);
+      }
+      report("per example", perceptron, nbRows, start);
+
+      for (boolean miniBatch : new boolean[] {false, true}) {
+        perceptron = new Perceptron(n, 1e-9);
+        perceptron.setMiniBatch(miniBatch);
+        start = System.nanoTime();
+        for (int i = 0; i < nbRows; i += batchSize) {
+          int size = Math.min(batchSize, nbRows - i);
+          System.arraycopy(rows, i * n, batch, 0, size * n);
+          System.arraycopy(classValues, i, batchClasses, 0, size);
+          perceptron.update(batch, batchClasses, size);
+        }
+        report(miniBatch ? "mini-batch" : "batch (standard)", perceptron, nbRows, start);
+      }
+    }
+  }
+
+  private static void report(String name, Perceptron perceptron, int nbRows, long start) {
+    double seconds = (System.nanoTime() - start) / 1e9;
+    double[] zero = new double[perceptron.getNbFeatures()];
+    System.out.printf(
+        "  %-20s %8.3f s %12.0f examples/s  (bias %s)%n",
+        name, seconds, nbRows / seconds, perceptron.makePrediction(zero));
+  }
+}
@@ -0,0 +1,279 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.NoSuchElementException;
+
+/**
+ * This class reads data from a binary cache file, written once from the csv files by convert().
+ *
+ * <p>Reading the cache skips all text parsing. The cache has a header followed by fixed-width
+ * rows:
+ *
+ * <pre>
+ * int   magic ("BDAC")
+ * short version
+ * int   nbFeatures
+ * long  nbRows
+ * byte  width of every feature (1, 2 or 4 for an unsigned categorical feature, 8 for a double)
+ * rows  the packed features followed by the class value as one byte
+ * </pre>
+ *
+ * <p>A categorical feature with k values takes the smallest width that can hold k-1, based on
+ * nbFeatureValues.csv. Without nbFeatureValues, all features are stored as 8 byte doubles.
+ */
+public abstract class BinaryData<T> extends Data<T> {
+
+  static final int MAGIC = 0x42444143;
+  static final short VERSION = 1;
+  private static final int BUFFER_SIZE = 1 << 20;
+
+  private final File cacheFile;
+  private final int nbFeatures;
+  private final long nbRows;
+  private final byte[] widths;
+  private final int rowSize;
+  private final int headerSize;
+
+  protected BinaryData(String cacheFile) throws IOException {
+    super(new File[] {new File(cacheFile)}, null);
+    this.cacheFile = new File(cacheFile);
+    try (FileChannel channel =
+        FileChannel.open(this.cacheFile.toPath(), StandardOpenOption.READ)) {
+      ByteBuffer header = ByteBuffer.allocate(18);
+      readFully(channel, header);
+      header.flip();
+      if (header.getInt() != MAGIC) {
+        throw new IOException(cacheFile + " is not a binary data cache");
+      }
+      short version = header.getShort();
+      if (version != VERSION) throw new IOException("Unsupported cache version " + version);
+      nbFeatures = header.getInt();
+      nbRows = header.getLong();
+      ByteBuffer widthBuffer = ByteBuffer.allocate(nbFeatures);
+      readFully(channel, widthBuffer);
+      widths = widthBuffer.array();
+    }
+    int size = 1;
+    for (byte width : widths) size += width;
+    rowSize = size;
+    headerSize = 18 + nbFeatures;
+  }
+
+  /** @return the cached data with integer features */
+  public static Data<Integer> ints(String cacheFile) throws IOException {
+    return new BinaryData<Integer>(cacheFile) {
+      @Override
+      protected Integer parseAttribute(String attrString) {
+        return Integer.parseInt(attrString);
+      }
+
+      @Override
+      protected Integer[] emptyAttributes(int i) {
+        return new Integer[i];
+      }
+
+      @Override
+      protected Integer readAttribute(ByteBuffer buffer, int width) {
+        return width == 8 ? (int) buffer.getDouble() : readUnsigned(buffer, width);
+      }
+    };
+  }
+
+  /** @return the cached data with double features */
+  public static Data<Double> doubles(String cacheFile) throws IOException {
+    return new BinaryData<Double>(cacheFile) {
+      @Override
+      protected Double parseAttribute(String attrString) {
+        return Double.parseDouble(attrString);
+      }
+
+      @Override
+      protected Double[] emptyAttributes(int i) {
+        return new Double[i];
+      }
+
+      @Override
+      protected Double readAttribute(ByteBuffer buffer, int width) {
+        return width == 8 ? buffer.getDouble() : (double) readUnsigned(buffer, width);
+      }
+    };
+  }
+
+  /** Reads the next feature value of the given width from the buffer. */
+  protected abstract T readAttribute(ByteBuffer buffer, int width);
+
+  private static int readUnsigned(ByteBuffer buffer, int width) {
+    switch (width) {
+      case 1:
+        return buffer.get() & 0xFF;
+      case 2:
+        return buffer.getShort() & 0xFFFF;
+      default:
+        return buffer.getInt();
+    }
+  }
+
+  /** @return the number of features, read from the header */
+  @Override
+  public int getNbFeatures() {
+    return nbFeatures;
+  }
+
+  /** @return the number of rows in the cache */
+  public long getNbRows() {
+    return nbRows;
+  }
+
+  /**
+   * Returns an iterator over all examples
+   *
+   * @return iterator over all examples
+   */
+  @Override
+  public ExampleIterator<T> iterator() {
+    ExampleIterator<T> examples = new ExampleIterator<T>() {
+
+      private FileChannel channel = null;
+      private final ByteBuffer buffer =
+          ByteBuffer.allocate(Math.max(1, BUFFER_SIZE / rowSize) * rowSize);
+      private long rowsRead = 0;
+
+      @Override
+      public boolean hasNext() {
+        if (rowsRead < nbRows) return true;
+        close();
+        return false;
+      }
+
+      @Override
+      public Example<T> next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        try {
+          if (channel == null) {
+            channel = FileChannel.open(cacheFile.toPath(), StandardOpenOption.READ);
+            channel.position(headerSize);
+            buffer.limit(0);
+          }
+          if (!buffer.hasRemaining()) {
+            buffer.clear();
+            long rowsLeft = nbRows - rowsRead;
+            if (rowsLeft < buffer.capacity() / rowSize) buffer.limit((int) rowsLeft * rowSize);
+            readFully(channel, buffer);
+            buffer.flip();
+          }
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+        T[] attributes = emptyAttributes(nbFeatures);
+        for (int i = 0; i < nbFeatures; i++) attributes[i] = readAttribute(buffer, widths[i]);
+        int classValue = buffer.get();
+        rowsRead++;
+        return new Example<T>(attributes, classValue);
+      }
+
+      /** Closes the opened cache file (if any). */
+      @Override
+      public void close() {
+        if (channel != null) {
+          try {
+            channel.close();
+          } catch (IOException e) {
+            // nothing to do, the file was only read
+          }
+          channel = null;
+        }
+      }
+    };
+    return stepLikeCsv(examples);
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer) < 0) throw new IOException("Unexpected end of the cache file");
+    }
+  }
+
+  /**
+   * Converts the csv files of a directory to a binary cache file.
+   *
+   * @param dataDir the directory with the csv files
+   * @param nbFeatureValues the nb of values of every feature, or null to store doubles
+   * @param cacheFile the file to write
+   * @return the number of rows written
+   */
+  public static long convert(String dataDir, int[] nbFeatureValues, String cacheFile)
+      throws IOException {
+    PrimitiveData data = new PrimitiveData(dataDir, ",");
+    int nbFeatures = data.getNbFeatures();
+    if (nbFeatureValues != null && nbFeatureValues.length != nbFeatures) {
+      throw new IllegalArgumentException(
+          "nbFeatureValues has " + nbFeatureValues.length + " features, the data " + nbFeatures);
+    }
+    byte[] widths = new byte[nbFeatures];
+    for (int i = 0; i < nbFeatures; i++) {
+      if (nbFeatureValues == null) widths[i] = 8;
+      else if (nbFeatureValues[i] <= 1 << 8) widths[i] = 1;
+      else if (nbFeatureValues[i] <= 1 << 16) widths[i] = 2;
+      else widths[i] = 4;
+    }
+
+    long nbRows = 0;
+    try (FileChannel out =
+            FileChannel.open(
+                new File(cacheFile).toPath(),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+        RowCursor cursor = nbFeatureValues == null ? data.doubleCursor() : data.intCursor()) {
+      ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+      buffer.putInt(MAGIC).putShort(VERSION).putInt(nbFeatures).putLong(0).put(widths);
+      while (cursor.next()) {
+        if (buffer.remaining() < 8 * nbFeatures + 1) writeFully(out, buffer);
+        if (nbFeatureValues == null) {
+          for (double v : cursor.doubleRow()) buffer.putDouble(v);
+        } else {
+          int[] row = cursor.intRow();
+          for (int i = 0; i < nbFeatures; i++) {
+            if (row[i] < 0 || row[i] >= nbFeatureValues[i]) {
+              throw new IllegalArgumentException(
+                  "Row " + nbRows + ": value " + row[i] + " of feature " + i + " out of range");
+            }
+            if (widths[i] == 1) buffer.put((byte) row[i]);
+            else if (widths[i] == 2) buffer.putShort((short) row[i]);
+            else buffer.putInt(row[i]);
+          }
+        }
+        buffer.put((byte) cursor.classValue());
+        nbRows++;
+      }
+      writeFully(out, buffer);
+      // the number of rows is only known at the end
+      buffer.putLong(nbRows);
+      buffer.flip();
+      out.write(buffer, 10);
+    }
+    return nbRows;
+  }
+
+  private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) out.write(buffer);
+    buffer.clear();
+  }
+
+  /** Converts a directory of csv files to a binary cache file. */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 3) {
+      System.err.println(
+          "Usage: java BinaryData <data set> <nbFeatureValues|-> <cache file>"
+              + " (use - to store double features)");
+      throw new Error("Expected 3 arguments, got " + args.length + ".");
+    }
+    int[] nbFeatureValues = args[1].equals("-") ? null : NbFeatureValues.parse(args[1]);
+    long nbRows = convert(args[0], nbFeatureValues, args[2]);
+    System.out.println("Wrote " + nbRows + " rows to " + args[2]);
+  }
+}
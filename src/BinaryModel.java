@@ -0,0 +1,148 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The framing of the binary model files written by IncrementalLearner.writeBinaryModel.
+ *
+ * <p>A file starts with an uncompressed header: the magic number, the format version, the simple
+ * class name of the learner, a compression flag (0 for none, 1 for gzip) and the number of
+ * processed examples. The model itself follows, written by the learner, gzip compressed if the
+ * flag is set. All numbers are big-endian, as written by DataOutputStream.
+ */
+final class BinaryModel {
+
+  static final int MAGIC = 0x4244414d; /* "BDAM" */
+  static final int VERSION = 3;
+
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  private BinaryModel() {}
+
+  /** A model, or a copy of it, that can be written after the header. */
+  interface Snapshot {
+    /**
+     * @param out the stream to write the model to
+     * @throws IOException
+     */
+    void writeBinary(DataOutputStream out) throws IOException;
+  }
+
+  /**
+   * Creates (or truncates) a model file and writes the header.
+   *
+   * @param path the path to the file
+   * @param learner the simple class name of the learner
+   * @param compress whether to compress the model
+   * @param nbExamplesProcessed the number of examples the model was trained with
+   * @return the stream for the model, to be closed by the caller
+   */
+  static DataOutputStream create(
+      String path, String learner, boolean compress, int nbExamplesProcessed) throws IOException {
+    FileChannel channel =
+        FileChannel.open(
+            Paths.get(path),
+            StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.WRITE);
+    OutputStream file = new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE);
+    try {
+      DataOutputStream header = new DataOutputStream(file);
+      header.writeInt(MAGIC);
+      header.writeInt(VERSION);
+      header.writeUTF(learner);
+      header.writeByte(compress ? 1 : 0);
+      header.writeInt(nbExamplesProcessed);
+      if (!compress) return header;
+      return new DataOutputStream(
+          new BufferedOutputStream(new GZIPOutputStream(file, BUFFER_SIZE), BUFFER_SIZE));
+    } catch (IOException | RuntimeException e) {
+      file.close();
+      throw e;
+    }
+  }
+
+  /** An opened model file of which the header was read. */
+  static final class Reader implements Closeable {
+
+    /** The stream of the model, after the header */
+    final DataInputStream in;
+
+    /** The number of processed examples in the header */
+    final int nbExamplesProcessed;
+
+    private Reader(DataInputStream in, int nbExamplesProcessed) {
+      this.in = in;
+      this.nbExamplesProcessed = nbExamplesProcessed;
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+
+  /**
+   * Opens a model file and checks its header.
+   *
+   * @param path the path to the file
+   * @param learner the simple class name of the learner that will read the model
+   * @return the opened file
+   * @throws IOException if the file is not a binary model of this learner and version
+   */
+  static Reader open(String path, String learner) throws IOException {
+    InputStream file =
+        new BufferedInputStream(Channels.newInputStream(FileChannel.open(Paths.get(path))));
+    try {
+      DataInputStream header = new DataInputStream(file);
+      if (header.readInt() != MAGIC) throw new IOException(path + " is not a binary model");
+      int version = header.readInt();
+      if (version != VERSION) {
+        throw new IOException(path + " has version " + version + ", expected " + VERSION);
+      }
+      String written = header.readUTF();
+      if (!written.equals(learner)) {
+        throw new IOException(path + " is a " + written + " model, not a " + learner + " model");
+      }
+      boolean compressed = header.readByte() != 0;
+      int nbExamplesProcessed = header.readInt();
+      DataInputStream in =
+          compressed
+              ? new DataInputStream(
+                  new BufferedInputStream(new GZIPInputStream(file, BUFFER_SIZE), BUFFER_SIZE))
+              : header;
+      return new Reader(in, nbExamplesProcessed);
+    } catch (IOException | RuntimeException e) {
+      file.close();
+      throw e;
+    }
+  }
+
+  /**
+   * @param path the path to a model file
+   * @return whether the file starts with the magic number of a binary model
+   */
+  static boolean isBinary(String path) throws IOException {
+    Path file = Paths.get(path);
+    try (FileChannel channel = FileChannel.open(file)) {
+      ByteBuffer start = ByteBuffer.allocate(4);
+      while (start.hasRemaining() && channel.read(start) >= 0) {
+        // read until 4 bytes or the end of the file
+      }
+      return !start.hasRemaining() && start.getInt(0) == MAGIC;
+    }
+  }
+}
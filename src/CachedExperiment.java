@@ -0,0 +1,57 @@
+import java.io.IOException;
+
+/**
+ * Runs the same experiments as the main methods of Vfdt and Perceptron, but reads the data from a
+ * binary cache written by BinaryData instead of from the csv files.
+ */
+public class CachedExperiment {
+
+  public static void main(String[] args) throws IOException {
+    if (args.length > 0 && args[0].equals("vfdt") && args.length >= 8) {
+      double delta = Double.parseDouble(args[1]);
+      double tau = Double.parseDouble(args[2]);
+      int nmin = Integer.parseInt(args[3]);
+      Data<Integer> data = BinaryData.ints(args[4]);
+      int[] nbFeatureValues = NbFeatureValues.parse(args[5]);
+      String out = args[6];
+      int reportingPeriod = Integer.parseInt(args[7]);
+      boolean writeOutAllPredictions = false;
+      String leafFile = null;
+      boolean adaptiveGracePeriod = false;
+      for (int i = 8; i < args.length; i++) {
+        if (args[i].contains("writeOutAllPredictions")) writeOutAllPredictions = true;
+        else if (args[i].startsWith("-leafStore=")) leafFile = args[i].substring(11);
+        else if (args[i].equals("-adaptiveGracePeriod")) adaptiveGracePeriod = true;
+      }
+
+      Vfdt vfdt = new Vfdt(nbFeatureValues, delta, tau, nmin);
+      vfdt.setAdaptiveGracePeriod(adaptiveGracePeriod);
+      if (leafFile != null) {
+        // "-leafStore=" keeps the leaves in direct memory, up to -XX:MaxDirectMemorySize,
+        // "-leafStore=file" in a memory-mapped file
+        int size = vfdt.getLeafStatisticsSize();
+        vfdt.setLeafStore(
+            leafFile.isEmpty() ? LeafStore.offHeap(size) : LeafStore.mapped(size, leafFile));
+      }
+      vfdt.makeLearningCurve(data, 0.5, out + ".vfdt", reportingPeriod, writeOutAllPredictions);
+    } else if (args.length > 0 && args[0].equals("pc") && args.length >= 5) {
+      double learningRate = Double.parseDouble(args[1]);
+      Data<Double> data = BinaryData.doubles(args[2]);
+      String out = args[3];
+      int reportingPeriod = Integer.parseInt(args[4]);
+      boolean writeOutAllPredictions =
+          args.length > 5 && args[5].contains("writeOutAllPredictions");
+
+      Perceptron perceptron = new Perceptron(data.getNbFeatures(), learningRate);
+      perceptron.makeLearningCurve(data, 0, out + ".pc", reportingPeriod, writeOutAllPredictions);
+    } else {
+      System.err.println(
+          "Usage: java CachedExperiment vfdt <delta> <tau> <nmin> <cache file> <nbFeatureValues>"
+              + " <output file> <reportingPeriod> [-writeOutAllPredictions]"
+              + " [-leafStore=[file]] [-adaptiveGracePeriod]\n"
+              + "       java CachedExperiment pc <learningRate> <cache file> <output file>"
+              + " <reportingPeriod> [-writeOutAllPredictions]");
+      throw new Error("Unexpected arguments.");
+    }
+  }
+}
@@ -0,0 +1,205 @@
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class writes periodic checkpoints of a learner while it trains.
+ *
+ * <p>A checkpoint is due every everyNbExamples examples and/or every intervalMillis milliseconds.
+ * The training thread takes a snapshot of the model at the start of the next update, so the
+ * snapshot always contains whole examples and matches its nbExamplesProcessed. Taking a snapshot
+ * copies the model in memory (see IncrementalLearner.snapshot); writing it happens on a background
+ * thread, in the binary format of writeBinaryModel. The copy is not kept after it is written, so
+ * between checkpoints the learner uses no more memory than without a Checkpointer. The file is
+ * written next to the checkpoint and then moved over it, so the checkpoint file is always
+ * complete, also after a crash.
+ *
+ * <p>When a checkpoint is due while the previous one is still being written, it waits until the
+ * write is done. To resume after a crash, call restore before training. The learner given to
+ * restore must be configured like the checkpointed one, including a memory budget or an adaptive
+ * grace period of a Vfdt: the checkpoint holds the state of the model (for a Vfdt also which
+ * leaves are inactive and when every leaf is evaluated next), not these settings. Statistics such
+ * as Vfdt.getNbSplitEvaluations start over.
+ *
+ * <p>The learner must be trained by one thread, so a Vfdt with concurrent updates cannot be
+ * checkpointed.
+ */
+public class Checkpointer implements Closeable {
+
+  private final IncrementalLearner<?> learner;
+  private final String path;
+  private final int everyNbExamples;
+  private final boolean compress;
+
+  private final ScheduledThreadPoolExecutor executor;
+  private volatile boolean timeDue = false;
+  private volatile boolean writing = false;
+  private volatile IOException failure = null;
+  private int lastNbExamples;
+  private int nbCheckpoints = 0;
+
+  private static final Metrics.Histogram WRITE = Metrics.timer("checkpoint.write");
+  private static final Metrics.Histogram SIZE = Metrics.histogram("checkpoint.bytes", "bytes");
+
+  /**
+   * Starts checkpointing the learner.
+   *
+   * @param learner the learner to checkpoint
+   * @param path the path of the checkpoint file
+   * @param everyNbExamples the number of examples between checkpoints, or 0
+   * @param intervalMillis the number of milliseconds between checkpoints, or 0
+   * @param compress whether to gzip the checkpoints
+   */
+  public Checkpointer(
+      IncrementalLearner<?> learner,
+      String path,
+      int everyNbExamples,
+      long intervalMillis,
+      boolean compress) {
+    if (everyNbExamples < 0 || intervalMillis < 0 || everyNbExamples + intervalMillis == 0) {
+      throw new IllegalArgumentException("Give a positive number of examples or interval");
+    }
+    this.learner = learner;
+    this.path = path;
+    this.everyNbExamples = everyNbExamples;
+    this.compress = compress;
+    lastNbExamples = learner.nbExamplesProcessed;
+    executor =
+        new ScheduledThreadPoolExecutor(
+            1,
+            r -> {
+              Thread thread = new Thread(r, "checkpointer");
+              thread.setDaemon(true);
+              return thread;
+            });
+    if (intervalMillis > 0) {
+      executor.scheduleAtFixedRate(
+          () -> timeDue = true, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+    learner.setCheckpointer(this);
+  }
+
+  /**
+   * Reads in the checkpoint, if there is one.
+   *
+   * @param learner the learner to restore, with the same parameters as the checkpointed one
+   * @param path the path of the checkpoint file
+   * @return whether there was a checkpoint
+   * @throws IOException
+   */
+  public static boolean restore(IncrementalLearner<?> learner, String path) throws IOException {
+    if (!new File(path).exists()) return false;
+    learner.readBinaryModel(path);
+    return true;
+  }
+
+  /* Called by the training thread before every example, see IncrementalLearner.countExample. */
+  void beforeExample(int nbExamplesProcessed) {
+    boolean countDue =
+        everyNbExamples > 0 && nbExamplesProcessed - lastNbExamples >= everyNbExamples;
+    if ((countDue || timeDue) && nbExamplesProcessed != lastNbExamples) {
+      checkpoint(nbExamplesProcessed);
+    }
+  }
+
+  /* Snapshots the model and hands it to the background thread. */
+  private void checkpoint(int nbExamplesProcessed) {
+    awaitWrite();
+    BinaryModel.Snapshot snapshot = learner.snapshot();
+    String learnerName = learner.getClass().getSimpleName();
+    timeDue = false;
+    lastNbExamples = nbExamplesProcessed;
+    writing = true;
+    executor.execute(
+        () -> {
+          long start = Metrics.ENABLED ? System.nanoTime() : 0;
+          Metrics.CheckpointEvent event = new Metrics.CheckpointEvent();
+          event.begin();
+          try {
+            String tmp = path + ".tmp";
+            try (DataOutputStream out =
+                BinaryModel.create(tmp, learnerName, compress, nbExamplesProcessed)) {
+              snapshot.writeBinary(out);
+            }
+            Files.move(
+                Paths.get(tmp),
+                Paths.get(path),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+            synchronized (this) {
+              nbCheckpoints++;
+            }
+            if (Metrics.ENABLED || event.shouldCommit()) {
+              long bytes = new File(path).length();
+              if (Metrics.ENABLED) {
+                WRITE.recordSince(start);
+                SIZE.record(bytes);
+              }
+              event.path = path;
+              event.nbExamples = nbExamplesProcessed;
+              event.bytes = bytes;
+              event.compressed = compress;
+              event.commit();
+            }
+          } catch (IOException e) {
+            failure = e;
+          } finally {
+            synchronized (this) {
+              writing = false;
+              notifyAll();
+            }
+          }
+        });
+  }
+
+  /* Waits until the background thread wrote the last snapshot. */
+  private synchronized void awaitWrite() {
+    boolean interrupted = false;
+    while (writing) {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) Thread.currentThread().interrupt();
+  }
+
+  /**
+   * Waits until the checkpoints that were taken so far are written.
+   *
+   * @throws IOException if writing a checkpoint failed
+   */
+  public void flush() throws IOException {
+    awaitWrite();
+    if (failure != null) throw failure;
+  }
+
+  /** @return the number of checkpoints that were written */
+  public synchronized int getNbCheckpoints() {
+    return nbCheckpoints;
+  }
+
+  /**
+   * Writes a last checkpoint of the current model and stops checkpointing. Must be called by the
+   * training thread.
+   *
+   * @throws IOException if writing a checkpoint failed
+   */
+  @Override
+  public void close() throws IOException {
+    if (learner.nbExamplesProcessed != lastNbExamples) checkpoint(learner.nbExamplesProcessed);
+    try {
+      flush();
+    } finally {
+      learner.setCheckpointer(null);
+      executor.shutdownNow();
+    }
+  }
+}
@@ -0,0 +1,92 @@
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Measures how the training throughput of one Vfdt with concurrent updates scales from 1 to N
+ * threads. The examples are loaded in memory first (from a data set, or generated randomly), and
+ * every thread trains on its own share of them.
+ */
+public class ConcurrentVfdtBenchmark {
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    if (args.length != 2 && args.length < 4) {
+      System.err.println(
+          "Usage: java ConcurrentVfdtBenchmark <maxThreads> <nmin> [<data set> <nbFeatureValues>]");
+      throw new Error("Expected 2 or 4 arguments, got " + args.length + ".");
+    }
+    int maxThreads = Integer.parseInt(args[0]);
+    int nmin = Integer.parseInt(args[1]);
+
+    int[] nbFeatureValues;
+    int[][] rows;
+    int[] classValues;
+    if (args.length >= 4) {
+      nbFeatureValues = NbFeatureValues.parse(args[3]);
+      rows = new int[1024][];
+      classValues = new int[1024];
+      int nbRows = 0;
+      try (RowCursor cursor = new PrimitiveData(args[2], ",").intCursor()) {
+        while (cursor.next()) {
+          if (nbRows == rows.length) {
+            rows = Arrays.copyOf(rows, 2 * nbRows);
+            classValues = Arrays.copyOf(classValues, 2 * nbRows);
+          }
+          rows[nbRows] = cursor.intRow().clone();
+          classValues[nbRows++] = cursor.classValue();
+        }
+      }
+      rows = Arrays.copyOf(rows, nbRows);
+      classValues = Arrays.copyOf(classValues, nbRows);
+    } else {
+      nbFeatureValues = new int[50];
+      Arrays.fill(nbFeatureValues, 5);
+      Random random = new Random(8);
+      rows = new int[1000000][nbFeatureValues.length];
+      classValues = new int[rows.length];
+      for (int r = 0; r < rows.length; r++) {
+        for (int i = 0; i < nbFeatureValues.length; i++) rows[r][i] = random.nextInt(5);
+        classValues[r] = (rows[r][0] + rows[r][1] > 4) != (random.nextInt(10) == 0) ? 1 : 0;
+      }
+    }
+    System.out.println(rows.length + " examples, " + nbFeatureValues.length + " features");
+
+    double single = 0;
+    for (int round = 0; round < 2; round++) {
+      // the first round is warm-up
+      for (int threads = 1; threads <= maxThreads; threads *= 2) {
+        Vfdt vfdt = new Vfdt(nbFeatureValues, 1e-7, 0.05, nmin);
+        vfdt.setConcurrentUpdates(true);
+        long start = System.nanoTime();
+        train(vfdt, rows, classValues, threads);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        double rate = rows.length / seconds;
+        if (threads == 1) single = rate;
+        if (round == 0) continue;
+        int nbLeaves = vfdt.getVisualization().split("Leaf", -1).length - 1;
+        System.out.printf(
+            "  %3d threads %8.3f s %12.0f examples/s  speedup %5.2f  %6d leaves%n",
+            threads, seconds, rate, rate / single, nbLeaves);
+      }
+    }
+  }
+
+  private static void train(Vfdt vfdt, int[][] rows, int[] classValues, int nbThreads)
+      throws InterruptedException {
+    Thread[] threads = new Thread[nbThreads];
+    for (int t = 0; t < nbThreads; t++) {
+      final int id = t;
+      threads[t] =
+          new Thread(
+              () -> {
+                // interleaved shares, so that all threads see the whole concept
+                for (int r = id; r < rows.length; r += nbThreads) {
+                  vfdt.update(rows[r], classValues[r]);
+                }
+              });
+      threads[t].start();
+    }
+    for (Thread thread : threads) thread.join();
+    vfdt.flushUpdates();
+  }
+}
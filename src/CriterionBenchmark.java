@@ -0,0 +1,93 @@
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Compares the split criteria of the VFDT: the cost of one round of split evaluation of a leaf
+ * (one checkpoint), and optionally the accuracy, number of leaves and training time of a tree
+ * trained on a data set. The accuracy is the prequential accuracy: every example is first
+ * predicted and then used for training.
+ */
+public class CriterionBenchmark {
+
+  private static final SplitCriterion[] CRITERIA = {
+    SplitCriterion.ENTROPY, SplitCriterion.GINI, SplitCriterion.MISCLASSIFICATION
+  };
+
+  public static void main(String[] args) throws IOException {
+    if (args.length != 2 && args.length < 5) {
+      System.err.println(
+          "Usage: java CriterionBenchmark <nbFeatures> <nbValues>"
+              + " [<data set> <nbFeatureValues> <nmin> [delta] [tau]]");
+      throw new Error("Expected 2 or 5 to 7 arguments, got " + args.length + ".");
+    }
+    int nbFeatures = Integer.parseInt(args[0]);
+    int nbValues = Integer.parseInt(args[1]);
+
+    System.out.printf("Checkpoint cost, %d features with %d values%n", nbFeatures, nbValues);
+    VfdtNode node = randomLeaf(nbFeatures, nbValues);
+    for (int r = 0; r < 3; r++) {
+      for (SplitCriterion criterion : CRITERIA) {
+        System.out.printf("  %-18s %10.2f us%n", criterion, checkpointMicros(node, criterion));
+      }
+    }
+
+    if (args.length >= 5) {
+      String dataDir = args[2];
+      int[] nbFeatureValues = NbFeatureValues.parse(args[3]);
+      int nmin = Integer.parseInt(args[4]);
+      double delta = args.length > 5 ? Double.parseDouble(args[5]) : 1e-7;
+      double tau = args.length > 6 ? Double.parseDouble(args[6]) : 0.05;
+      PrimitiveData data = new PrimitiveData(dataDir, ",");
+      System.out.printf("Training on %s, nmin %d, delta %s, tau %s%n", dataDir, nmin, delta, tau);
+      for (SplitCriterion criterion : CRITERIA) {
+        Vfdt vfdt = new Vfdt(nbFeatureValues, delta, tau, nmin, criterion);
+        long correct = 0;
+        long start = System.nanoTime();
+        try (RowCursor cursor = data.intCursor()) {
+          while (cursor.next()) {
+            int prediction = vfdt.makePrediction(cursor.intRow()) > 0.5 ? 1 : 0;
+            if (prediction == cursor.classValue()) correct++;
+            vfdt.update(cursor.intRow(), cursor.classValue());
+          }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        int nbLeaves = vfdt.getVisualization().split("Leaf", -1).length - 1;
+        System.out.printf(
+            "  %-18s accuracy %.4f  %6d leaves  %8.3f s%n",
+            criterion, (double) correct / vfdt.nbExamplesProcessed, nbLeaves, seconds);
+      }
+    }
+  }
+
+  private static VfdtNode randomLeaf(int nbFeatures, int nbValues) {
+    int[] nbFeatureValues = new int[nbFeatures];
+    int[] possibleFeatures = new int[nbFeatures];
+    for (int i = 0; i < nbFeatures; i++) {
+      nbFeatureValues[i] = nbValues;
+      possibleFeatures[i] = i;
+    }
+    VfdtNode node = new VfdtNode(nbFeatureValues, possibleFeatures);
+    Random random = new Random(nbFeatures);
+    int[] x = new int[nbFeatures];
+    // enough examples to leave the n log n table of the entropy
+    for (int n = 0; n < 20000; n++) {
+      for (int i = 0; i < nbFeatures; i++) x[i] = random.nextInt(nbValues);
+      node.addExample(x, random.nextInt(2));
+    }
+    return node;
+  }
+
+  /* @return the average time of one round of split evaluation in microseconds */
+  private static double checkpointMicros(VfdtNode node, SplitCriterion criterion) {
+    double checksum = 0;
+    long start = 0;
+    // the first half of the rounds is warm-up
+    for (int r = 0; r < 4000; r++) {
+      if (r == 2000) start = System.nanoTime();
+      checksum += SplitEvaluator.sequential(node, criterion).best;
+    }
+    double micros = (System.nanoTime() - start) / 1e3 / 2000;
+    if (checksum < 0) System.out.println(checksum);
+    return micros;
+  }
+}
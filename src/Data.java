@@ -5,6 +5,7 @@
 import java.io.*;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 /**
  * This class read data from disk.
@@ -19,8 +20,70 @@ public abstract class Data<T> implements Iterable<Example<T>> {
 
   public Data(String dataDir, String sep) throws FileNotFoundException {
     this.sep = sep;
+    dataFiles = listDataFiles(dataDir);
+  }
+
+  /**
+   * Creates data that reads the given files instead of the csv files of a directory.
+   *
+   * @param dataFiles the files to read, in order
+   * @param sep the separator
+   */
+  protected Data(File[] dataFiles, String sep) {
+    this.sep = sep;
+    this.dataFiles = dataFiles;
+  }
+
+  /**
+   * Reads the csv files of a directory with integer features, like IntData.
+   *
+   * @param dataDir the directory with the data
+   * @param sep the separator
+   * @return the data
+   */
+  public static Data<Integer> ints(String dataDir, String sep) throws FileNotFoundException {
+    return new Data<Integer>(dataDir, sep) {
+      @Override
+      protected Integer parseAttribute(String attrString) {
+        return Integer.parseInt(attrString);
+      }
+
+      @Override
+      protected Integer[] emptyAttributes(int i) {
+        return new Integer[i];
+      }
+    };
+  }
 
-    dataFiles =
+  /**
+   * Reads the csv files of a directory with double features, like DoubleData.
+   *
+   * @param dataDir the directory with the data
+   * @param sep the separator
+   * @return the data
+   */
+  public static Data<Double> doubles(String dataDir, String sep) throws FileNotFoundException {
+    return new Data<Double>(dataDir, sep) {
+      @Override
+      protected Double parseAttribute(String attrString) {
+        return Double.parseDouble(attrString);
+      }
+
+      @Override
+      protected Double[] emptyAttributes(int i) {
+        return new Double[i];
+      }
+    };
+  }
+
+  /**
+   * Lists the csv files in a directory in alphabetical order.
+   *
+   * @param dataDir the directory with the data
+   * @return the csv files in dataDir
+   */
+  static File[] listDataFiles(String dataDir) {
+    File[] dataFiles =
         new File(dataDir)
             .listFiles(
                 new FilenameFilter() {
@@ -31,6 +94,7 @@ public abstract class Data<T> implements Iterable<Example<T>> {
                 });
 
     Arrays.sort(dataFiles);
+    return dataFiles;
   }
 
   /**
@@ -48,14 +112,22 @@ public abstract class Data<T> implements Iterable<Example<T>> {
   private String sep;
   private File[] dataFiles;
 
+  private static final Metrics.Counter FILES = Metrics.counter("data.files");
+  private static final Metrics.Histogram PARSE = Metrics.timer("data.parseLine");
+
+  /** @return the csv files, in the order in which they are read */
+  protected File[] getDataFiles() {
+    return dataFiles;
+  }
+
   /**
    * Returns an iterator over all examples
    *
    * @return iterator over all examples
    */
   @Override
-  public Iterator<Example<T>> iterator() {
-    return new Iterator<Example<T>>() {
+  public ExampleIterator<T> iterator() {
+    return new ExampleIterator<T>() {
 
       private int currentFileIndex = -1;
       private BufferedReader currentFile = null;
@@ -73,6 +145,7 @@ public abstract class Data<T> implements Iterable<Example<T>> {
             currentFileIndex++;
             try {
               currentFile = new BufferedReader(new FileReader(dataFiles[currentFileIndex]));
+              if (Metrics.ENABLED) FILES.increment();
             } catch (IOException e) {
               System.err.println(e.toString());
             }
@@ -103,7 +176,10 @@ public abstract class Data<T> implements Iterable<Example<T>> {
        */
       @Override
       public Example<T> next() {
-        return parseLine(nextLine);
+        long start = Metrics.ENABLED ? System.nanoTime() : 0;
+        Example<T> example = parseLine(nextLine);
+        if (Metrics.ENABLED) PARSE.recordSince(start);
+        return example;
       }
 
       @Override
@@ -112,6 +188,7 @@ public abstract class Data<T> implements Iterable<Example<T>> {
       }
 
       /** Closes the opened data file (if any). */
+      @Override
       public void close() {
         if (currentFile != null) {
           try {
@@ -125,6 +202,49 @@ public abstract class Data<T> implements Iterable<Example<T>> {
     };
   }
 
+  /**
+   * Makes an iterator step through the examples like the iterator of the csv files: every call of
+   * hasNext moves to the next example, and next returns the example it moved to. makeLearningCurve
+   * calls hasNext twice after it filled its first buffer, which skips the 11th example of the csv
+   * files. Data that is read in another way returns this, so that it gives the same learning curve.
+   *
+   * @param examples an iterator whose hasNext can be called repeatedly
+   * @return an iterator over the same examples that moves on every call of hasNext
+   */
+  protected static <T> ExampleIterator<T> stepLikeCsv(ExampleIterator<T> examples) {
+    return new ExampleIterator<T>() {
+
+      private Example<T> current = null;
+
+      @Override
+      public boolean hasNext() {
+        current = examples.hasNext() ? examples.next() : null;
+        return current != null;
+      }
+
+      @Override
+      public Example<T> next() {
+        if (current == null) throw new NoSuchElementException();
+        return current;
+      }
+
+      @Override
+      public void close() {
+        examples.close();
+      }
+    };
+  }
+
+  /**
+   * An iterator over examples that may hold an open data file. Closing it releases the file when
+   * the iteration is stopped before the end; at the end of the data this happens automatically.
+   */
+  public interface ExampleIterator<T> extends Iterator<Example<T>>, Closeable {
+    /** Closes the opened data file (if any). */
+    @Override
+    void close();
+  }
+
   /**
    * Parses a line from a csv file to an example
    *
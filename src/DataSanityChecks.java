@@ -0,0 +1,267 @@
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.*;
+
+public class DataSanityChecks {
+
+  private Path dir;
+
+  @Before
+  public void before() throws Exception {
+    dir = Files.createTempDirectory("dataSanity");
+    // the second file has no trailing newline and windows line endings
+    Files.write(
+        dir.resolve("a.csv"),
+        "1,0,2,1\n0,2,1,0\n2,2,0,1\n".getBytes(StandardCharsets.US_ASCII));
+    Files.write(
+        dir.resolve("b.csv"), "0,0,0,0\r\n1,1,1,1".getBytes(StandardCharsets.US_ASCII));
+    Files.write(
+        dir.resolve("c.txt"), "this,is,not,data\n".getBytes(StandardCharsets.US_ASCII));
+  }
+
+  private void writeDoubles(String name, String content) throws IOException {
+    Files.write(dir.resolve(name), content.getBytes(StandardCharsets.US_ASCII));
+  }
+
+  @Test
+  public void primitiveIntRowsMatchIntData() throws Exception {
+    Data<Integer> data = Data.ints(dir.toString(), ",");
+    Iterator<Example<Integer>> it = data.iterator();
+    try (RowCursor cursor = new PrimitiveData(dir.toString(), ",").intCursor()) {
+      int n = 0;
+      while (cursor.next()) {
+        assertTrue("PrimitiveData returned more examples than IntData", it.hasNext());
+        Example<Integer> example = it.next();
+        assertEquals("The class value differs", (int) example.classValue, cursor.classValue());
+        assertEquals("The number of features differs", 3, cursor.intRow().length);
+        for (int i = 0; i < 3; i++) {
+          assertEquals(
+              "Feature " + i + " differs", (int) example.attributeValues[i], cursor.intRow()[i]);
+        }
+        n++;
+      }
+      assertFalse("PrimitiveData returned less examples than IntData", it.hasNext());
+      assertEquals("Both csv files should be read", 5, n);
+    }
+  }
+
+  @Test
+  public void primitiveDoublesAreParsedExactly() throws Exception {
+    for (File f : dir.toFile().listFiles()) f.delete();
+    String[] values = {
+      "0", "-0.0", "1.5", "0.1", "-3.14159", "1e-7", "2.5E3", "123456789012345678",
+      "0.30000000000000004", "4.9e-324", "1.7976931348623157e308", "+7", ".5", "NaN", "-Infinity"
+    };
+    writeDoubles("a.csv", String.join(",", values) + ",1\n");
+    try (RowCursor cursor = new PrimitiveData(dir.toString(), ",").doubleCursor()) {
+      assertTrue(cursor.next());
+      for (int i = 0; i < values.length; i++) {
+        assertEquals(
+            "Value " + values[i] + " was not parsed like Double.parseDouble",
+            Double.doubleToLongBits(Double.parseDouble(values[i])),
+            Double.doubleToLongBits(cursor.doubleRow()[i]));
+      }
+      assertEquals(1, cursor.classValue());
+      assertFalse(cursor.next());
+    }
+  }
+
+  @Test
+  public void primitiveUpdateMatchesBoxedUpdate() throws Exception {
+    int[] nbFeatureValues = {3, 3, 3};
+    Vfdt boxed = new Vfdt(nbFeatureValues, 0.05, 0.05, 1);
+    Vfdt primitive = new Vfdt(nbFeatureValues, 0.05, 0.05, 1);
+    for (int r = 0; r < 20; r++) {
+      for (Example<Integer> example : Data.ints(dir.toString(), ",")) boxed.update(example);
+      try (RowCursor cursor = new PrimitiveData(dir.toString(), ",").intCursor()) {
+        while (cursor.next()) primitive.update(cursor.intRow(), cursor.classValue());
+      }
+    }
+    assertEquals(boxed.nbExamplesProcessed, primitive.nbExamplesProcessed);
+    assertEquals(boxed.getVisualization(), primitive.getVisualization());
+    Integer[] boxedExample = {2, 1, 0};
+    assertEquals(
+        "Both models should make the same prediction",
+        boxed.makePrediction(boxedExample),
+        primitive.makePrediction(new int[] {2, 1, 0}),
+        0.0);
+  }
+
+  @Test
+  public void mappedDataMatchesIntData() throws Exception {
+    // tiny windows force lines to straddle mapped windows
+    for (long windowSize : new long[] {1, 3, 7, MappedData.DEFAULT_WINDOW_SIZE}) {
+      Iterator<Example<Integer>> expected = Data.ints(dir.toString(), ",").iterator();
+      Iterator<Example<Integer>> actual =
+          MappedData.ints(dir.toString(), ",", windowSize).iterator();
+      while (expected.hasNext()) {
+        assertTrue("MappedData returned less examples than IntData", actual.hasNext());
+        Example<Integer> e = expected.next();
+        Example<Integer> a = actual.next();
+        assertEquals("The class value differs", e.classValue, a.classValue);
+        for (int i = 0; i < e.attributeValues.length; i++) {
+          assertEquals("Feature " + i + " differs", e.attributeValues[i], a.attributeValues[i]);
+        }
+      }
+      assertFalse("MappedData returned more examples than IntData", actual.hasNext());
+    }
+  }
+
+  @Test
+  public void binaryCacheMatchesIntData() throws Exception {
+    String cacheFile = dir.resolve("cache.bin").toString();
+    // the third feature is stored in two bytes
+    long nbRows = BinaryData.convert(dir.toString(), new int[] {3, 3, 300}, cacheFile);
+    assertEquals("Every row should be written", 5, nbRows);
+
+    Data<Integer> cache = BinaryData.ints(cacheFile);
+    assertEquals(3, cache.getNbFeatures());
+    Iterator<Example<Integer>> actual = cache.iterator();
+    for (Example<Integer> e : Data.ints(dir.toString(), ",")) {
+      assertTrue("The cache returned less examples than IntData", actual.hasNext());
+      Example<Integer> a = actual.next();
+      assertEquals("The class value differs", e.classValue, a.classValue);
+      for (int i = 0; i < e.attributeValues.length; i++) {
+        assertEquals("Feature " + i + " differs", e.attributeValues[i], a.attributeValues[i]);
+      }
+    }
+    assertFalse("The cache returned more examples than IntData", actual.hasNext());
+  }
+
+  @Test
+  public void readersStepLikeCsv() throws Exception {
+    String cacheFile = dir.resolve("cache.bin").toString();
+    BinaryData.convert(dir.toString(), new int[] {3, 3, 3}, cacheFile);
+    List<Iterator<Example<Integer>>> readers =
+        Arrays.asList(
+            BinaryData.ints(cacheFile).iterator(),
+            MappedData.ints(dir.toString(), ",").iterator(),
+            new PrefetchingData<Integer>(Data.ints(dir.toString(), ","), 2, 1).iterator());
+    // makeLearningCurve calls hasNext twice in a row once, which skips a row of the csv files
+    Iterator<Example<Integer>> csv = Data.ints(dir.toString(), ",").iterator();
+    csv.hasNext();
+    for (Iterator<Example<Integer>> reader : readers) reader.hasNext();
+    while (csv.hasNext()) {
+      Example<Integer> e = csv.next();
+      for (Iterator<Example<Integer>> reader : readers) {
+        assertTrue("A reader returned less examples than IntData", reader.hasNext());
+        Example<Integer> a = reader.next();
+        assertEquals("The class value differs", e.classValue, a.classValue);
+        assertEquals(
+            "The features differ",
+            Arrays.asList(e.attributeValues), Arrays.asList(a.attributeValues));
+      }
+    }
+    for (Iterator<Example<Integer>> reader : readers) {
+      assertFalse("A reader returned more examples than IntData", reader.hasNext());
+    }
+  }
+
+  @Test
+  public void prefetchingDataMatchesIntData() throws Exception {
+    for (int batchSize : new int[] {1, 2, 100}) {
+      Data<Integer> prefetched =
+          new PrefetchingData<Integer>(Data.ints(dir.toString(), ","), batchSize, 1);
+      Iterator<Example<Integer>> actual = prefetched.iterator();
+      for (Example<Integer> e : Data.ints(dir.toString(), ",")) {
+        assertTrue("PrefetchingData returned less examples than IntData", actual.hasNext());
+        Example<Integer> a = actual.next();
+        assertEquals("The class value differs", e.classValue, a.classValue);
+        for (int i = 0; i < e.attributeValues.length; i++) {
+          assertEquals("Feature " + i + " differs", e.attributeValues[i], a.attributeValues[i]);
+        }
+      }
+      assertFalse("PrefetchingData returned more examples than IntData", actual.hasNext());
+    }
+  }
+
+  @Test
+  public void prefetchingDataStopsWhenClosedEarly() throws Exception {
+    Data<Integer> prefetched =
+        new PrefetchingData<Integer>(Data.ints(dir.toString(), ","), 1, 1);
+    Data.ExampleIterator<Integer> iterator = prefetched.iterator();
+    assertTrue(iterator.hasNext());
+    iterator.next();
+    // the reader is now blocked on the full ring buffer
+    iterator.close();
+    assertFalse("A closed iterator has no examples left", iterator.hasNext());
+    for (Thread thread : Thread.getAllStackTraces().keySet()) {
+      assertFalse(
+          "The reader thread should be stopped", thread.getName().equals("data-prefetcher"));
+    }
+  }
+
+  @Test
+  public void sparseDataMatchesDoubleData() throws Exception {
+    for (File f : dir.toFile().listFiles()) f.delete();
+    writeDoubles("a.csv", "0,0.5,0,1\n0,0,0,0\n-1.5,0,2,1\n");
+    // the same examples in libsvm format, with an explicit zero and a -1 label
+    writeDoubles("b.svm", "1 2:0.5\n-1\n+1 1:-1.5 2:0 3:2\n");
+    double[][] dense = {{0, 0.5, 0}, {0, 0, 0}, {-1.5, 0, 2}};
+    int[] classValues = {1, 0, 1};
+    Perceptron densePerceptron = new Perceptron(3, 0.1);
+    Perceptron sparsePerceptron = new Perceptron(3, 0.1);
+    int n = 0;
+    for (SparseExample example : new SparseData(dir.toString(), ",")) {
+      double[] expected = dense[n % 3];
+      double[] actual = new double[3];
+      for (int k = 0; k < example.getNbNonZeros(); k++) {
+        assertTrue("Only non-zeros should be stored", example.values[k] != 0);
+        actual[example.indices[k]] = example.values[k];
+      }
+      assertArrayEquals("Row " + n + " was not read correctly", expected, actual, 0);
+      assertEquals("Row " + n + " has the wrong class", classValues[n % 3], example.classValue);
+      densePerceptron.update(expected, classValues[n % 3]);
+      sparsePerceptron.update(example);
+      assertEquals(
+          "The sparse perceptron should be the same as the dense one",
+          densePerceptron.makePrediction(expected), sparsePerceptron.makePrediction(example), 0);
+      n++;
+    }
+    assertEquals("SparseData should read both files", 6, n);
+  }
+
+  @Test
+  public void sparseDataRefusesInvalidLines() throws Exception {
+    String[] lines = {"1 0:0.5", "1 2:0.5 1:1", "1 2", "1 x:0.5", "1 2:y"};
+    for (String line : lines) {
+      try {
+        SparseData.parseLine(line, ",", true);
+        fail("\"" + line + "\" should be refused");
+      } catch (IllegalArgumentException e) {
+        assertTrue("The message should give the line", e.getMessage().contains(line));
+      }
+    }
+
+    Perceptron perceptron = new Perceptron(3, 0.1);
+    SparseExample tooLarge = SparseData.parseLine("1 1:0.5 4:1", ",", true);
+    try {
+      perceptron.update(tooLarge);
+      fail("A feature beyond the perceptron should be refused");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    assertEquals("A refused example should not be counted", 0, perceptron.nbExamplesProcessed);
+    try {
+      perceptron.makePrediction(tooLarge);
+      fail("A feature beyond the perceptron should be refused");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    try {
+      new SparseExample(new int[] {-1}, new double[] {1}, 0);
+      fail("A negative index should be refused");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+}
@@ -0,0 +1,71 @@
+
+/**
+ * This class holds the dense vector operations of the batch training path of the Perceptron.
+ *
+ * <p>get() returns the VectorKernel, which uses the jdk.incubator.vector API, when the JVM was
+ * started with --add-modules jdk.incubator.vector, and a scalar implementation otherwise. The
+ * property -Dperceptron.scalar=true forces the scalar implementation.
+ */
+abstract class DenseKernel {
+
+  private static final DenseKernel INSTANCE = load();
+
+  /** @return the fastest kernel that is available */
+  static DenseKernel get() {
+    return INSTANCE;
+  }
+
+  private static DenseKernel load() {
+    if (!Boolean.getBoolean("perceptron.scalar")) {
+      try {
+        // loaded by name, so that this class does not need the incubator module
+        String pkg = DenseKernel.class.getPackageName();
+        String name = pkg.isEmpty() ? "VectorKernel" : pkg + ".VectorKernel";
+        return (DenseKernel) Class.forName(name).getDeclaredConstructor().newInstance();
+      } catch (ReflectiveOperationException | LinkageError e) {
+        // the module is not available
+      }
+    }
+    return new ScalarKernel();
+  }
+
+  /**
+   * Computes sum_i x[xOffset + i] * y[yOffset + i], in any order.
+   *
+   * @param n the number of elements
+   */
+  abstract double dot(double[] x, int xOffset, double[] y, int yOffset, int n);
+
+  /**
+   * Computes y[yOffset + i] -= a * x[xOffset + i] * b for all i. Every element is rounded exactly
+   * as in the scalar expression, so the result does not depend on the kernel.
+   *
+   * @param n the number of elements
+   */
+  abstract void subtractScaled(
+      double[] y, int yOffset, double[] x, int xOffset, int n, double a, double b);
+
+  /** @return a short description of the kernel */
+  abstract String name();
+}
+
+/** The scalar fallback of DenseKernel. */
+class ScalarKernel extends DenseKernel {
+
+  @Override
+  double dot(double[] x, int xOffset, double[] y, int yOffset, int n) {
+    double sum = 0;
+    for (int i = 0; i < n; i++) sum += x[xOffset + i] * y[yOffset + i];
+    return sum;
+  }
+
+  @Override
+  void subtractScaled(double[] y, int yOffset, double[] x, int xOffset, int n, double a, double b) {
+    for (int i = 0; i < n; i++) y[yOffset + i] -= a * x[xOffset + i] * b;
+  }
+
+  @Override
+  String name() {
+    return "scalar";
+  }
+}
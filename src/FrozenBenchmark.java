@@ -0,0 +1,75 @@
+import java.util.Random;
+
+/**
+ * Compares predictions with the live Vfdt to predictions with a FrozenVfdt, and measures how long
+ * a full and an incremental freeze take. The tree is trained on random in-memory data with a
+ * concept that needs a deep tree.
+ */
+public class FrozenBenchmark {
+
+  public static void main(String[] args) {
+    int nbFeatures = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+    int nbRows = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+    int repetitions = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+    Random random = new Random(13);
+    int[] nbFeatureValues = new int[nbFeatures];
+    for (int i = 0; i < nbFeatures; i++) nbFeatureValues[i] = 3;
+    int[][] rows = new int[nbRows][nbFeatures];
+    int[] flat = new int[nbRows * nbFeatures];
+    int[] classValues = new int[nbRows];
+    for (int r = 0; r < nbRows; r++) {
+      int sum = 0;
+      for (int i = 0; i < nbFeatures; i++) {
+        rows[r][i] = random.nextInt(3);
+        flat[r * nbFeatures + i] = rows[r][i];
+        if (i < 8) sum += rows[r][i];
+      }
+      classValues[r] = sum % 2 == 0 ? 1 : 0;
+    }
+
+    Vfdt vfdt = new Vfdt(nbFeatureValues, 1e-7, 0.05, 200);
+    for (int r = 0; r < nbRows - nbRows / 100; r++) vfdt.update(rows[r], classValues[r]);
+    long start = System.nanoTime();
+    FrozenVfdt frozen = vfdt.freeze();
+    double fullMs = (System.nanoTime() - start) / 1e6;
+    for (int r = nbRows - nbRows / 100; r < nbRows; r++) vfdt.update(rows[r], classValues[r]);
+    int before = frozen.getNbNodes();
+    start = System.nanoTime();
+    frozen = vfdt.freeze();
+    double incrementalMs = (System.nanoTime() - start) / 1e6;
+    System.out.printf(
+        "%d nodes, full freeze %.2f ms, incremental freeze (%d new nodes) %.2f ms%n",
+        frozen.getNbNodes(), fullMs, frozen.getNbNodes() - before, incrementalMs);
+
+    double[] predictions = new double[nbRows];
+    double live = 0;
+    double compiled = 0;
+    double batch = 0;
+    for (int rep = 0; rep < repetitions; rep++) {
+      start = System.nanoTime();
+      for (int r = 0; r < nbRows; r++) predictions[r] = vfdt.makePrediction(rows[r]);
+      live = rate(nbRows, start);
+
+      start = System.nanoTime();
+      for (int r = 0; r < nbRows; r++) predictions[r] = frozen.makePrediction(rows[r]);
+      compiled = rate(nbRows, start);
+
+      start = System.nanoTime();
+      frozen.predictBatch(flat, nbRows, predictions);
+      batch = rate(nbRows, start);
+    }
+    for (int r = 0; r < nbRows; r++) {
+      if (predictions[r] != vfdt.makePrediction(rows[r])) {
+        throw new AssertionError("The frozen tree predicts differently");
+      }
+    }
+    System.out.printf(
+        "%14s %14s %14s%n%14.0f %14.0f %14.0f ex/s%n",
+        "live", "frozen", "frozen batch", live, compiled, batch);
+  }
+
+  private static double rate(int nbRows, long start) {
+    return nbRows / ((System.nanoTime() - start) / 1e9);
+  }
+}
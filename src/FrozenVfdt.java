@@ -0,0 +1,240 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A read-only copy of a Vfdt for fast predictions, made by Vfdt.freeze().
+ *
+ * <p>The tree is stored as a structure of arrays, indexed by node: the split feature (-1 for a
+ * leaf), the index of the first child (the children of a node are stored next to each other) and
+ * the probability of class "1" of a leaf. The root has index 0. A prediction is a loop over these
+ * primitive arrays instead of a walk over VfdtNode objects.
+ *
+ * <p>The leaf probabilities are those at the time of the freeze. Later updates of the Vfdt are only
+ * seen by a new freeze. That freeze reuses the previous one: nodes keep their index, and only the
+ * leaves that were split since are compiled again, their children are appended at the end. The
+ * live nodes that this needs are kept by the Compiler of the Vfdt, so a FrozenVfdt does not keep
+ * the tree it was made from in memory.
+ */
+public final class FrozenVfdt {
+
+  private final int[] nbFeatureValues;
+  private final int nbNodes;
+  private final int[] splitFeatures;
+  private final int[] firstChildren;
+  private final double[] probabilities;
+
+  private FrozenVfdt(
+      int[] nbFeatureValues,
+      int nbNodes,
+      int[] splitFeatures,
+      int[] firstChildren,
+      double[] probabilities) {
+    this.nbFeatureValues = nbFeatureValues;
+    this.nbNodes = nbNodes;
+    this.splitFeatures = splitFeatures;
+    this.firstChildren = firstChildren;
+    this.probabilities = probabilities;
+  }
+
+  /** Compiles the freezes of one tree, each one extending the previous one. */
+  static final class Compiler {
+
+    private final int[] nbFeatureValues;
+    private FrozenVfdt previous; /* the last compilation, or null */
+    private VfdtNode[] nodes; /* the live node of every index of previous */
+
+    /** @param nbFeatureValues are the nb of values of each feature */
+    Compiler(int[] nbFeatureValues) {
+      this.nbFeatureValues = nbFeatureValues.clone();
+    }
+
+    /**
+     * Compiles the tree with the given root, extending the previous compilation.
+     *
+     * @param root the root of the live tree
+     * @return the compiled tree
+     */
+    FrozenVfdt compile(VfdtNode root) {
+      // a tree that was replaced by readModel has to be compiled from scratch
+      if (previous != null && nodes[0] != root) previous = null;
+
+      int size;
+      int[] pending; /* the indices that still have to be compiled, in breadth-first order */
+      int nbPending;
+      VfdtNode[] nodes;
+      int[] splitFeatures;
+      int[] firstChildren;
+      double[] probabilities;
+      if (previous == null) {
+        size = 1;
+        nodes = new VfdtNode[16];
+        splitFeatures = new int[16];
+        firstChildren = new int[16];
+        probabilities = new double[16];
+        nodes[0] = root;
+        pending = new int[16];
+        nbPending = 1;
+      } else {
+        size = previous.nbNodes;
+        nodes = this.nodes;
+        splitFeatures = previous.splitFeatures.clone();
+        firstChildren = previous.firstChildren.clone();
+        probabilities = previous.probabilities.clone();
+        // only the leaves can have changed
+        pending = new int[16];
+        nbPending = 0;
+        for (int i = 0; i < size; i++) {
+          if (splitFeatures[i] < 0) {
+            if (nbPending == pending.length) pending = Arrays.copyOf(pending, 2 * nbPending);
+            pending[nbPending++] = i;
+          }
+        }
+      }
+
+      for (int head = 0; head < nbPending; head++) {
+        int i = pending[head];
+        VfdtNode node = nodes[i];
+        // children before splitFeature, as in VfdtNode.sortExample
+        VfdtNode[] children = node.getChildren();
+        if (children == null) {
+          splitFeatures[i] = -1;
+          firstChildren[i] = -1;
+          probabilities[i] = Vfdt.leafProbability(node);
+          continue;
+        }
+        splitFeatures[i] = node.getSplitFeature();
+        firstChildren[i] = size;
+        probabilities[i] = Double.NaN;
+        if (size + children.length > nodes.length) {
+          int capacity = Math.max(2 * nodes.length, size + children.length);
+          nodes = Arrays.copyOf(nodes, capacity);
+          splitFeatures = Arrays.copyOf(splitFeatures, capacity);
+          firstChildren = Arrays.copyOf(firstChildren, capacity);
+          probabilities = Arrays.copyOf(probabilities, capacity);
+        }
+        if (nbPending + children.length > pending.length) {
+          int capacity = Math.max(2 * pending.length, nbPending + children.length);
+          pending = Arrays.copyOf(pending, capacity);
+        }
+        for (VfdtNode child : children) {
+          nodes[size] = child;
+          pending[nbPending++] = size++;
+        }
+      }
+      this.nodes = nodes;
+      previous = new FrozenVfdt(nbFeatureValues, size, splitFeatures, firstChildren, probabilities);
+      return previous;
+    }
+  }
+
+  /**
+   * @param example is the test instance to classify
+   * @return the probability that the example belongs to class "1", as Vfdt.makePrediction gave at
+   *     the time of the freeze
+   */
+  public double makePrediction(int[] example) {
+    int i = 0;
+    for (int f = splitFeatures[0]; f >= 0; f = splitFeatures[i]) {
+      i = child(i, f, example[f]);
+    }
+    return probabilities[i];
+  }
+
+  /**
+   * Same as makePrediction(int[]), for a boxed example.
+   *
+   * @param example is the test instance to classify
+   * @return the probability that the example belongs to class "1"
+   */
+  public double makePrediction(Integer[] example) {
+    int i = 0;
+    for (int f = splitFeatures[0]; f >= 0; f = splitFeatures[i]) {
+      i = child(i, f, example[f]);
+    }
+    return probabilities[i];
+  }
+
+  /*
+   * The index of the child of internal node i for the given value of its split feature f. A value
+   * out of range would give a node of another subtree, so it is refused.
+   */
+  private int child(int i, int f, int value) {
+    if (value < 0 || value >= nbFeatureValues[f]) {
+      throw new IllegalArgumentException(
+          "Feature " + f + " has " + nbFeatureValues[f] + " values, got " + value);
+    }
+    return firstChildren[i] + value;
+  }
+
+  /**
+   * Predicts a batch of examples given as a row-major block of getNbFeatures() columns.
+   *
+   * @param rows the feature values of nbRows examples, row after row
+   * @param nbRows the number of examples
+   * @param predictions receives the prediction of every example
+   */
+  public void predictBatch(int[] rows, int nbRows, double[] predictions) {
+    int nbFeatures = nbFeatureValues.length;
+    if (nbRows < 0 || rows.length < (long) nbRows * nbFeatures || predictions.length < nbRows) {
+      throw new IllegalArgumentException("The batch has less than " + nbRows + " rows");
+    }
+    for (int r = 0; r < nbRows; r++) {
+      int offset = r * nbFeatures;
+      int i = 0;
+      for (int f = splitFeatures[0]; f >= 0; f = splitFeatures[i]) {
+        i = child(i, f, rows[offset + f]);
+      }
+      predictions[r] = probabilities[i];
+    }
+  }
+
+  /**
+   * Writes the tree to a prediction model file that MappedVfdtModel can map.
+   *
+   * @param path the path to the file
+   * @throws IOException
+   */
+  public void writePredictionModel(String path) throws IOException {
+    try (FileChannel channel =
+        FileChannel.open(
+            Paths.get(path),
+            StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.WRITE)) {
+      ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+      buffer.putInt(MappedVfdtModel.MAGIC).putInt(MappedVfdtModel.VERSION);
+      buffer.putInt(nbFeatureValues.length).putInt(nbNodes);
+      for (int nbValues : nbFeatureValues) {
+        if (buffer.remaining() < 4) write(channel, buffer);
+        buffer.putInt(nbValues);
+      }
+      for (int i = 0; i < nbNodes; i++) {
+        if (buffer.remaining() < MappedVfdtModel.NODE_BYTES) write(channel, buffer);
+        // internal nodes have no probability, a leaf no first child
+        buffer.putInt(splitFeatures[i]).putInt(firstChildren[i]).putDouble(probabilities[i]);
+      }
+      write(channel, buffer);
+    }
+  }
+
+  private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) channel.write(buffer);
+    buffer.clear();
+  }
+
+  /** @return the number of features of an example */
+  public int getNbFeatures() {
+    return nbFeatureValues.length;
+  }
+
+  /** @return the number of nodes, leaves included */
+  public int getNbNodes() {
+    return nbNodes;
+  }
+}
@@ -0,0 +1,51 @@
+import java.io.IOException;
+
+/**
+ * Compares the fixed grace period of the VFDT, which evaluates a leaf every nmin examples, with
+ * the adaptive one of setAdaptiveGracePeriod: the number of split evaluations and the evaluations
+ * that were skipped, and the accuracy, number of leaves and training time of the trees. The
+ * accuracy is the prequential accuracy: every example is first predicted and then used for
+ * training.
+ */
+public class GraceBenchmark {
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 3 || args.length > 5) {
+      System.err.println(
+          "Usage: java GraceBenchmark <data set> <nbFeatureValues> <nmin> [delta] [tau]");
+      throw new Error("Expected 3 to 5 arguments, got " + args.length + ".");
+    }
+    String dataDir = args[0];
+    int[] nbFeatureValues = NbFeatureValues.parse(args[1]);
+    int nmin = Integer.parseInt(args[2]);
+    double delta = args.length > 3 ? Double.parseDouble(args[3]) : 1e-7;
+    double tau = args.length > 4 ? Double.parseDouble(args[4]) : 0.05;
+    PrimitiveData data = new PrimitiveData(dataDir, ",");
+    System.out.printf("Training on %s, nmin %d, delta %s, tau %s%n", dataDir, nmin, delta, tau);
+    for (int r = 0; r < 2; r++) {
+      for (boolean adaptive : new boolean[] {false, true}) {
+        Vfdt vfdt = new Vfdt(nbFeatureValues, delta, tau, nmin);
+        vfdt.setAdaptiveGracePeriod(adaptive);
+        long correct = 0;
+        long start = System.nanoTime();
+        try (RowCursor cursor = data.intCursor()) {
+          while (cursor.next()) {
+            int prediction = vfdt.makePrediction(cursor.intRow()) > 0.5 ? 1 : 0;
+            if (prediction == cursor.classValue()) correct++;
+            vfdt.update(cursor.intRow(), cursor.classValue());
+          }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        int nbLeaves = vfdt.getVisualization().split("Leaf", -1).length - 1;
+        System.out.printf(
+            "  %-8s accuracy %.4f  %6d leaves  %8d evaluations  %8d skipped  %8.3f s%n",
+            adaptive ? "adaptive" : "fixed",
+            (double) correct / vfdt.nbExamplesProcessed,
+            nbLeaves,
+            vfdt.getNbSplitEvaluations(),
+            vfdt.getNbSkippedSplitEvaluations(),
+            seconds);
+      }
+    }
+  }
+}
@@ -2,23 +2,60 @@
  * Copyright (c) DTAI - KU Leuven – All rights reserved. Proprietary, do not copy or distribute
  * without permission. Written by Pieter Robberechts, 2021
  */
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.Locale;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
 
 public abstract class IncrementalLearner<T> {
 
   protected int nbExamplesProcessed;
 
+  Checkpointer checkpointer; /* takes snapshots in countExample, if not null */
+
+  /* e.g. vfdt.examples, see Metrics */
+  private final Metrics.Counter examplesCounter =
+      Metrics.counter(getClass().getSimpleName().toLowerCase(Locale.ROOT) + ".examples");
+
+  private static final Metrics.Histogram WRITE_BINARY = Metrics.timer("model.writeBinary");
+  private static final Metrics.Histogram READ_BINARY = Metrics.timer("model.readBinary");
+
   /**
    * This method will update the parameters of you model using the given example.
    *
    * @param example is a training example
    */
   public void update(Example<T> example) {
+    countExample();
+  }
+
+  /**
+   * Counts one processed training example. The primitive update overloads of the learners call
+   * this instead of update(Example).
+   */
+  protected void countExample() {
+    // before the count, so that a checkpoint contains exactly nbExamplesProcessed examples
+    if (checkpointer != null) checkpointer.beforeExample(nbExamplesProcessed);
     nbExamplesProcessed++;
+    if (Metrics.ENABLED) examplesCounter.increment();
+  }
+
+  /**
+   * Sets the Checkpointer that snapshots this learner, or null. Called by Checkpointer.
+   *
+   * @param checkpointer the checkpointer
+   */
+  void setCheckpointer(Checkpointer checkpointer) {
+    if (checkpointer != null && this.checkpointer != null) {
+      throw new IllegalStateException("The learner already has a Checkpointer");
+    }
+    this.checkpointer = checkpointer;
   }
 
   /**
@@ -30,6 +67,78 @@ public abstract class IncrementalLearner<T> {
    */
   abstract double makePrediction(T[] example);
 
+  /** The number of rows that predictBatch handles at once, and per thread in parallel mode. */
+  static final int BATCH_CHUNK = 4096;
+
+  /**
+   * Same as predictBatch(rows, nbRows, predictions, false).
+   *
+   * @param rows the feature values of nbRows examples, row after row
+   * @param nbRows the number of examples
+   * @param predictions receives the prediction of every example
+   */
+  public void predictBatch(double[] rows, int nbRows, double[] predictions) {
+    predictBatch(rows, nbRows, predictions, false);
+  }
+
+  /**
+   * Predicts a batch of examples given as a row-major block of getNbFeatures() columns, without
+   * boxing the feature values. predictions[r] is set to what makePrediction returns for row r.
+   *
+   * <p>The rows are handled in chunks of BATCH_CHUNK rows. In parallel mode the chunks are spread
+   * over the threads of the common ForkJoinPool, which only pays off for large batches. The model
+   * must not be updated while a parallel batch is predicted.
+   *
+   * @param rows the feature values of nbRows examples, row after row
+   * @param nbRows the number of examples
+   * @param predictions receives the prediction of every example
+   * @param parallel whether to predict the chunks in parallel
+   */
+  public void predictBatch(double[] rows, int nbRows, double[] predictions, boolean parallel) {
+    checkBatch(rows.length, nbRows, predictions);
+    forEachChunk(
+        nbRows,
+        parallel,
+        from -> predictRows(rows, from, Math.min(nbRows, from + BATCH_CHUNK), predictions));
+  }
+
+  /**
+   * @return the number of features of an example
+   */
+  public abstract int getNbFeatures();
+
+  /**
+   * @return an estimate of the memory of the model in bytes
+   */
+  public abstract long getMemoryUsage();
+
+  /**
+   * Computes the predictions of rows from (inclusive) to to (exclusive) of a batch.
+   *
+   * @param rows the feature values of the batch, row after row
+   * @param from the first row
+   * @param to the row after the last row
+   * @param predictions receives the prediction of every row, at the index of the row
+   */
+  abstract void predictRows(double[] rows, int from, int to, double[] predictions);
+
+  /* Throws if a batch of nbRows rows does not fit in the given arrays. */
+  void checkBatch(int length, int nbRows, double[] predictions) {
+    if (nbRows < 0 || length < (long) nbRows * getNbFeatures() || predictions.length < nbRows) {
+      throw new IllegalArgumentException("The batch has less than " + nbRows + " rows");
+    }
+  }
+
+  /* Calls chunk with the first row of every chunk of BATCH_CHUNK rows. */
+  static void forEachChunk(int nbRows, boolean parallel, IntConsumer chunk) {
+    int nbChunks = (nbRows + BATCH_CHUNK - 1) / BATCH_CHUNK;
+    if (parallel && nbChunks > 1) {
+      IntStream.range(0, nbChunks).parallel().forEach(c -> chunk.accept(c * BATCH_CHUNK));
+    } else {
+      for (int c = 0; c < nbChunks; c++) chunk.accept(c * BATCH_CHUNK);
+    }
+  }
+
   /**
    * Writes the current model to a file.
    *
@@ -53,6 +162,65 @@ public abstract class IncrementalLearner<T> {
     this.nbExamplesProcessed = nbExamplesProcessed;
   }
 
+  /**
+   * Writes the current model to a file in the binary format of BinaryModel. The model is streamed
+   * to the file, it is never built in memory as a whole. readModel and readBinaryModel can read the
+   * file. writeModel still writes the text format.
+   *
+   * @param path the path to the file
+   * @param compress whether to gzip the model
+   * @throws IOException
+   */
+  public void writeBinaryModel(String path, boolean compress) throws IOException {
+    long start = Metrics.ENABLED ? System.nanoTime() : 0;
+    String learner = getClass().getSimpleName();
+    try (DataOutputStream out = BinaryModel.create(path, learner, compress, nbExamplesProcessed)) {
+      writeBinary(out);
+    }
+    if (Metrics.ENABLED) WRITE_BINARY.recordSince(start);
+  }
+
+  /**
+   * Reads in a model written by writeBinaryModel and sets it as the current model. The number of
+   * examples processed is taken from the file.
+   *
+   * @param path the path to the model file
+   * @throws IOException
+   */
+  public void readBinaryModel(String path) throws IOException {
+    long start = Metrics.ENABLED ? System.nanoTime() : 0;
+    try (BinaryModel.Reader reader = BinaryModel.open(path, getClass().getSimpleName())) {
+      readBinary(reader.in);
+      nbExamplesProcessed = reader.nbExamplesProcessed;
+    }
+    if (Metrics.ENABLED) READ_BINARY.recordSince(start);
+  }
+
+  /**
+   * Writes the model itself, after the header of BinaryModel.
+   *
+   * @param out the stream to write to
+   * @throws IOException
+   */
+  abstract void writeBinary(DataOutputStream out) throws IOException;
+
+  /**
+   * Reads the model written by writeBinary and sets it as the current model.
+   *
+   * @param in the stream to read from
+   * @throws IOException
+   */
+  abstract void readBinary(DataInputStream in) throws IOException;
+
+  /**
+   * Takes a snapshot of the current model for a checkpoint. The snapshot is written later by
+   * another thread, while this learner is trained further, so it must not share mutable state with
+   * the model. It writes the same bytes as writeBinary would have written now.
+   *
+   * @return the snapshot
+   */
+  abstract BinaryModel.Snapshot snapshot();
+
   /**
    * This method produces a file with the accuracy of the model after seeing different numbers of
    * examples. The file can be used to plot the learning curve.
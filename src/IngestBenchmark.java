@@ -0,0 +1,160 @@
+import java.io.IOException;
+
+/**
+ * Compares the throughput of the boxed Data path (IntData/DoubleData) with the primitive
+ * PrimitiveData path, the memory-mapped readers and the prefetching reader, both for plain parsing
+ * and for training a learner.
+ *
+ * <p>Every measurement is repeated a number of times, so that the later repetitions show the
+ * performance after JIT warm-up.
+ */
+public class IngestBenchmark {
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.err.println(
+          "Usage: java IngestBenchmark <data set> <int|double> [repetitions] [nbFeatureValues]");
+      throw new Error("Expected 2 to 4 arguments, got " + args.length + ".");
+    }
+    String dataDir = args[0];
+    boolean ints = args[1].equals("int");
+    int repetitions = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+    int[] nbFeatureValues = args.length > 3 ? NbFeatureValues.parse(args[3]) : null;
+
+    PrimitiveData primitiveData = new PrimitiveData(dataDir, ",");
+    PrimitiveData mappedData = new PrimitiveData(dataDir, ",", true);
+    for (int r = 0; r < repetitions; r++) {
+      System.out.println("repetition " + r);
+      if (ints) {
+        Data<Integer> data = Data.ints(dataDir, ",");
+        long start = System.nanoTime();
+        long n = 0, checksum = 0;
+        for (Example<Integer> example : data) {
+          for (Integer v : example.attributeValues) checksum += v;
+          n++;
+        }
+        report("parse IntData", n, checksum, start);
+
+        start = System.nanoTime();
+        n = 0;
+        checksum = 0;
+        try (RowCursor cursor = primitiveData.intCursor()) {
+          while (cursor.next()) {
+            for (int v : cursor.intRow()) checksum += v;
+            n++;
+          }
+        }
+        report("parse PrimitiveData", n, checksum, start);
+
+        start = System.nanoTime();
+        n = 0;
+        checksum = 0;
+        try (RowCursor cursor = mappedData.intCursor()) {
+          while (cursor.next()) {
+            for (int v : cursor.intRow()) checksum += v;
+            n++;
+          }
+        }
+        report("parse PrimitiveData (mapped)", n, checksum, start);
+
+        start = System.nanoTime();
+        n = 0;
+        checksum = 0;
+        for (Example<Integer> example : MappedData.ints(dataDir, ",")) {
+          for (Integer v : example.attributeValues) checksum += v;
+          n++;
+        }
+        report("parse MappedData", n, checksum, start);
+
+        if (nbFeatureValues != null) {
+          Vfdt vfdt = new Vfdt(nbFeatureValues, 1e-7, 0.05, 200);
+          start = System.nanoTime();
+          for (Example<Integer> example : data) vfdt.update(example);
+          report("train Vfdt on IntData", vfdt.nbExamplesProcessed, 0, start);
+
+          vfdt = new Vfdt(nbFeatureValues, 1e-7, 0.05, 200);
+          start = System.nanoTime();
+          for (Example<Integer> example : new PrefetchingData<Integer>(data, 1024, 16)) {
+            vfdt.update(example);
+          }
+          report("train Vfdt on prefetched IntData", vfdt.nbExamplesProcessed, 0, start);
+
+          vfdt = new Vfdt(nbFeatureValues, 1e-7, 0.05, 200);
+          start = System.nanoTime();
+          try (RowCursor cursor = primitiveData.intCursor()) {
+            while (cursor.next()) vfdt.update(cursor.intRow(), cursor.classValue());
+          }
+          report("train Vfdt on PrimitiveData", vfdt.nbExamplesProcessed, 0, start);
+        }
+      } else {
+        Data<Double> data = Data.doubles(dataDir, ",");
+        long start = System.nanoTime();
+        long n = 0;
+        double checksum = 0;
+        for (Example<Double> example : data) {
+          for (Double v : example.attributeValues) checksum += v;
+          n++;
+        }
+        report("parse DoubleData", n, checksum, start);
+
+        start = System.nanoTime();
+        n = 0;
+        checksum = 0;
+        try (RowCursor cursor = primitiveData.doubleCursor()) {
+          while (cursor.next()) {
+            for (double v : cursor.doubleRow()) checksum += v;
+            n++;
+          }
+        }
+        report("parse PrimitiveData", n, checksum, start);
+
+        start = System.nanoTime();
+        n = 0;
+        checksum = 0;
+        try (RowCursor cursor = mappedData.doubleCursor()) {
+          while (cursor.next()) {
+            for (double v : cursor.doubleRow()) checksum += v;
+            n++;
+          }
+        }
+        report("parse PrimitiveData (mapped)", n, checksum, start);
+
+        start = System.nanoTime();
+        n = 0;
+        checksum = 0;
+        for (Example<Double> example : MappedData.doubles(dataDir, ",")) {
+          for (Double v : example.attributeValues) checksum += v;
+          n++;
+        }
+        report("parse MappedData", n, checksum, start);
+
+        int nbFeatures = primitiveData.getNbFeatures();
+        Perceptron perceptron = new Perceptron(nbFeatures, 1e-9);
+        start = System.nanoTime();
+        for (Example<Double> example : data) perceptron.update(example);
+        report("train Perceptron on DoubleData", perceptron.nbExamplesProcessed, 0, start);
+
+        perceptron = new Perceptron(nbFeatures, 1e-9);
+        start = System.nanoTime();
+        for (Example<Double> example : new PrefetchingData<Double>(data, 1024, 16)) {
+          perceptron.update(example);
+        }
+        report("train Perceptron on prefetched data", perceptron.nbExamplesProcessed, 0, start);
+
+        perceptron = new Perceptron(nbFeatures, 1e-9);
+        start = System.nanoTime();
+        try (RowCursor cursor = primitiveData.doubleCursor()) {
+          while (cursor.next()) perceptron.update(cursor.doubleRow(), cursor.classValue());
+        }
+        report("train Perceptron on PrimitiveData", perceptron.nbExamplesProcessed, 0, start);
+      }
+    }
+  }
+
+  private static void report(String name, long nbExamples, double checksum, long start) {
+    double seconds = (System.nanoTime() - start) / 1e9;
+    System.out.printf(
+        "  %-36s %10d examples %8.3f s %12.0f examples/s  (checksum %s)%n",
+        name, nbExamples, seconds, nbExamples / seconds, checksum);
+  }
+}
@@ -0,0 +1,199 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * This class stores the nijk counts of VFDT leaves outside the Java heap.
+ *
+ * <p>Every leaf gets a slot of slotSize ints, addressed by its slot id. Slots are carved out of
+ * large chunks, which are either direct buffers (offHeap) or mapped regions of a file (mapped).
+ * With a mapped store the size of the tree is limited by the disk instead of by -Xmx. Slots of
+ * leaves that were split are reused.
+ *
+ * <p>Direct buffers are limited by -XX:MaxDirectMemorySize, which defaults to -Xmx. An off-heap
+ * store only grows beyond the heap limit when that option is set higher.
+ *
+ * <p>A store is used by one Vfdt, see Vfdt.setLeafStore.
+ */
+public abstract class LeafStore implements Closeable {
+
+  private static final long CHUNK_BYTES = 1L << 26;
+
+  private final int slotSize;
+  private final int slotsPerChunk;
+  private final ArrayList<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+  private int nbSlots = 0;
+  private int[] freeSlots = new int[16];
+  private int nbFreeSlots = 0;
+
+  /** @param slotSize the number of counts per leaf */
+  protected LeafStore(int slotSize) {
+    if (slotSize < 1) throw new IllegalArgumentException("slotSize must be positive");
+    if (4L * slotSize > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("A slot of " + slotSize + " counts exceeds 2 GB");
+    }
+    this.slotSize = slotSize;
+    slotsPerChunk = (int) Math.max(1, CHUNK_BYTES / (4L * slotSize));
+  }
+
+  /**
+   * @return a store that keeps the counts in direct (off-heap) memory, up to
+   *     -XX:MaxDirectMemorySize
+   */
+  public static LeafStore offHeap(int slotSize) {
+    return new DirectLeafStore(slotSize);
+  }
+
+  /** @return a store that keeps the counts in a memory-mapped file */
+  public static LeafStore mapped(int slotSize, String path) throws IOException {
+    return new MappedLeafStore(slotSize, path);
+  }
+
+  /**
+   * Creates a new chunk of memory, filled with zeros.
+   *
+   * @param chunkIndex the index of the chunk
+   * @param bytes the size of the chunk
+   */
+  protected abstract ByteBuffer newChunk(int chunkIndex, long bytes) throws IOException;
+
+  /** @return the number of counts per leaf */
+  public int getSlotSize() {
+    return slotSize;
+  }
+
+  /** @return a new slot with all counts set to zero */
+  public int allocate() {
+    int slot;
+    if (nbFreeSlots > 0) {
+      slot = freeSlots[--nbFreeSlots];
+    } else {
+      if (nbSlots == Integer.MAX_VALUE) throw new IllegalStateException("The leaf store is full");
+      if (nbSlots == chunks.size() * slotsPerChunk) {
+        try {
+          ByteBuffer chunk = newChunk(chunks.size(), 4L * slotSize * slotsPerChunk);
+          chunks.add(chunk.order(ByteOrder.nativeOrder()));
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }
+      slot = nbSlots++;
+    }
+    // the slot may have been used before
+    ByteBuffer chunk = chunk(slot);
+    int base = base(slot);
+    for (int i = 0; i < slotSize; i++) chunk.putInt(base + 4 * i, 0);
+    return slot;
+  }
+
+  /** Gives a slot back, so that it can be reused by allocate(). */
+  public void release(int slot) {
+    if (nbFreeSlots == freeSlots.length) freeSlots = Arrays.copyOf(freeSlots, 2 * nbFreeSlots);
+    freeSlots[nbFreeSlots++] = slot;
+  }
+
+  private ByteBuffer chunk(int slot) {
+    return chunks.get(slot / slotsPerChunk);
+  }
+
+  private int base(int slot) {
+    return (slot % slotsPerChunk) * slotSize * 4;
+  }
+
+  /** @return count index of a slot */
+  public int get(int slot, int index) {
+    return chunk(slot).getInt(base(slot) + 4 * index);
+  }
+
+  /** Sets count index of a slot. */
+  public void set(int slot, int index, int value) {
+    chunk(slot).putInt(base(slot) + 4 * index, value);
+  }
+
+  /** Adds one to count index of a slot. */
+  public void increment(int slot, int index) {
+    ByteBuffer chunk = chunk(slot);
+    int position = base(slot) + 4 * index;
+    chunk.putInt(position, chunk.getInt(position) + 1);
+  }
+
+  /** Copies the counts [from, to) of a slot to the same positions in counts. */
+  public void copy(int slot, int from, int to, int[] counts) {
+    ByteBuffer chunk = chunk(slot);
+    int base = base(slot);
+    for (int i = from; i < to; i++) counts[i] = chunk.getInt(base + 4 * i);
+  }
+
+  /** @return the number of slots in use */
+  public int getNbSlotsInUse() {
+    return nbSlots - nbFreeSlots;
+  }
+
+  /** @return the number of bytes reserved outside the heap */
+  public long getReservedBytes() {
+    return 4L * slotSize * slotsPerChunk * chunks.size();
+  }
+
+  /** Releases all slots at once, for example when a new model is read. */
+  public void clear() {
+    nbSlots = 0;
+    nbFreeSlots = 0;
+  }
+
+  /** Releases all memory. The store cannot be used afterwards. */
+  @Override
+  public void close() throws IOException {
+    chunks.clear();
+    nbSlots = 0;
+    nbFreeSlots = 0;
+  }
+}
+
+/** A LeafStore that allocates its chunks with ByteBuffer.allocateDirect. */
+class DirectLeafStore extends LeafStore {
+
+  DirectLeafStore(int slotSize) {
+    super(slotSize);
+  }
+
+  @Override
+  protected ByteBuffer newChunk(int chunkIndex, long bytes) {
+    return ByteBuffer.allocateDirect(Math.toIntExact(bytes));
+  }
+}
+
+/** A LeafStore that maps consecutive regions of a file as its chunks. */
+class MappedLeafStore extends LeafStore {
+
+  private final FileChannel channel;
+
+  MappedLeafStore(int slotSize, String path) throws IOException {
+    super(slotSize);
+    channel =
+        FileChannel.open(
+            new File(path).toPath(),
+            StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+  }
+
+  @Override
+  protected ByteBuffer newChunk(int chunkIndex, long bytes) throws IOException {
+    // mapping beyond the end of the file grows the file with zeros
+    return channel.map(FileChannel.MapMode.READ_WRITE, chunkIndex * bytes, bytes);
+  }
+
+  @Override
+  public void close() throws IOException {
+    super.close();
+    channel.close();
+  }
+}
@@ -0,0 +1,149 @@
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.NoSuchElementException;
+
+/**
+ * This class reads the same data as Data, but memory-maps the csv files instead of reading them
+ * through a FileReader.
+ *
+ * <p>The ASCII bytes are tokenised in place, so there is no charset decoding, no String per line
+ * and no regular expression. Files larger than the mapping window (and thus also files larger than
+ * 2 GB) are read by walking consecutive windowed mappings. The files are still read in
+ * alphabetical order.
+ *
+ * <p>Use ints() for VFDT data and doubles() for Perceptron data.
+ */
+public abstract class MappedData<T> extends Data<T> {
+
+  /** The default size of a mapped window of a file. */
+  public static final long DEFAULT_WINDOW_SIZE = 1L << 28;
+
+  private final byte sep;
+  private final long windowSize;
+
+  protected MappedData(String dataDir, String sep, long windowSize)
+      throws FileNotFoundException {
+    super(dataDir, sep);
+    if (sep.length() != 1 || sep.charAt(0) > 127) {
+      throw new IllegalArgumentException("The separator must be a single ASCII character");
+    }
+    if (windowSize <= 0 || windowSize > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("The window size must be in [1, 2^31-1]");
+    }
+    this.sep = (byte) sep.charAt(0);
+    this.windowSize = windowSize;
+  }
+
+  /** @return memory-mapped data with integer features */
+  public static Data<Integer> ints(String dataDir, String sep) throws FileNotFoundException {
+    return ints(dataDir, sep, DEFAULT_WINDOW_SIZE);
+  }
+
+  /** @return memory-mapped data with integer features, mapped in windows of windowSize bytes */
+  public static Data<Integer> ints(String dataDir, String sep, long windowSize)
+      throws FileNotFoundException {
+    return new MappedData<Integer>(dataDir, sep, windowSize) {
+      @Override
+      protected Integer parseAttribute(String attrString) {
+        return Integer.parseInt(attrString);
+      }
+
+      @Override
+      protected Integer[] emptyAttributes(int i) {
+        return new Integer[i];
+      }
+
+      @Override
+      protected Integer[] toAttributes(RowCursor cursor) {
+        int[] row = cursor.intRow();
+        Integer[] attributes = new Integer[row.length];
+        for (int i = 0; i < row.length; i++) attributes[i] = row[i];
+        return attributes;
+      }
+    };
+  }
+
+  /** @return memory-mapped data with double features */
+  public static Data<Double> doubles(String dataDir, String sep) throws FileNotFoundException {
+    return doubles(dataDir, sep, DEFAULT_WINDOW_SIZE);
+  }
+
+  /** @return memory-mapped data with double features, mapped in windows of windowSize bytes */
+  public static Data<Double> doubles(String dataDir, String sep, long windowSize)
+      throws FileNotFoundException {
+    return new MappedData<Double>(dataDir, sep, windowSize) {
+      @Override
+      protected Double parseAttribute(String attrString) {
+        return Double.parseDouble(attrString);
+      }
+
+      @Override
+      protected Double[] emptyAttributes(int i) {
+        return new Double[i];
+      }
+
+      @Override
+      protected boolean parsesDoubles() {
+        return true;
+      }
+
+      @Override
+      protected Double[] toAttributes(RowCursor cursor) {
+        double[] row = cursor.doubleRow();
+        Double[] attributes = new Double[row.length];
+        for (int i = 0; i < row.length; i++) attributes[i] = row[i];
+        return attributes;
+      }
+    };
+  }
+
+  /** @return true if the features should be parsed as doubles, false for integers */
+  protected boolean parsesDoubles() {
+    return false;
+  }
+
+  /** Boxes the current row of the cursor. */
+  protected abstract T[] toAttributes(RowCursor cursor);
+
+  /**
+   * Returns an iterator over all examples
+   *
+   * @return iterator over all examples
+   */
+  @Override
+  public ExampleIterator<T> iterator() {
+    RowCursor cursor = new MappedRowCursor(getDataFiles(), sep, parsesDoubles(), windowSize);
+    ExampleIterator<T> examples = new ExampleIterator<T>() {
+
+      private boolean advanced = false;
+      private boolean hasNext;
+
+      @Override
+      public boolean hasNext() {
+        if (!advanced) {
+          hasNext = cursor.next();
+          advanced = true;
+        }
+        return hasNext;
+      }
+
+      @Override
+      public Example<T> next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        advanced = false;
+        return new Example<T>(toAttributes(cursor), cursor.classValue());
+      }
+
+      /** Closes the opened data file (if any). */
+      @Override
+      public void close() {
+        try {
+          cursor.close();
+        } catch (IOException e) {
+          // nothing to do, the file was only read
+        }
+      }
+    };
+    return stepLikeCsv(examples);
+  }
+}
@@ -0,0 +1,63 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A RowCursor that memory-maps the files in windows of at most windowSize bytes. When a window
+ * ends in the middle of a line, the next window starts at the beginning of that line.
+ */
+class MappedRowCursor extends RowCursor {
+
+  private final File[] dataFiles;
+  private final long windowSize;
+  private int currentFileIndex = -1;
+  private FileChannel currentFile = null;
+  private long fileSize;
+  private long windowStart;
+
+  MappedRowCursor(File[] dataFiles, byte sep, boolean parseDoubles, long windowSize) {
+    super(sep, parseDoubles);
+    this.dataFiles = dataFiles;
+    this.windowSize = windowSize;
+  }
+
+  @Override
+  protected boolean openNextFile() throws IOException {
+    close();
+    if (currentFileIndex + 1 >= dataFiles.length) return false;
+    currentFileIndex++;
+    currentFile = FileChannel.open(dataFiles[currentFileIndex].toPath(), StandardOpenOption.READ);
+    fileSize = currentFile.size();
+    map(0, windowSize);
+    return true;
+  }
+
+  @Override
+  protected boolean refill() throws IOException {
+    long windowEnd = windowStart + buffer.limit();
+    if (windowEnd >= fileSize) return false;
+    long size = windowSize;
+    if (buffer.position() == 0) {
+      // a single line fills the whole window, so it needs a larger window
+      size = Math.min(2L * buffer.limit(), Integer.MAX_VALUE);
+    }
+    map(windowStart + buffer.position(), size);
+    return true;
+  }
+
+  private void map(long start, long size) throws IOException {
+    windowStart = start;
+    size = Math.min(size, fileSize - start);
+    buffer = currentFile.map(FileChannel.MapMode.READ_ONLY, start, size);
+  }
+
+  /** Closes the opened data file (if any). The mapping stays valid until it is collected. */
+  @Override
+  public void close() throws IOException {
+    if (currentFile != null) {
+      currentFile.close();
+      currentFile = null;
+    }
+  }
+}
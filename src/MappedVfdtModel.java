@@ -0,0 +1,174 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+
+/**
+ * A read-only Vfdt for predictions that answers directly from a memory-mapped prediction model
+ * file, as written by FrozenVfdt.writePredictionModel or Vfdt.writePredictionModel.
+ *
+ * <p>Opening a model maps the file, reads the header and checks every node record once, so that a
+ * damaged file cannot send a prediction outside the file or around in circles. Nothing else is
+ * parsed or copied to the heap. A prediction reads one node record per level of the tree. The
+ * pages of the file are shared by all processes that map it.
+ *
+ * <p>The file is a header of HEADER_BYTES bytes (the magic number, the version, the number of
+ * features and the number of nodes), the number of values of every feature, and one record of
+ * NODE_BYTES bytes per node, in the order of FrozenVfdt: the split feature (-1 for a leaf), the
+ * index of the first child and the probability of class "1" of a leaf. The children of a node come
+ * after it. All numbers are little-endian.
+ *
+ * <p>The mapping stays valid until the model is garbage collected, so there is no close. A model
+ * can be used by any number of threads.
+ */
+public final class MappedVfdtModel {
+
+  static final int MAGIC = 0x50414442; /* "BDAP" */
+  static final int VERSION = 2;
+  static final int HEADER_BYTES = 16;
+  static final int NODE_BYTES = 16;
+
+  private final ByteBuffer model;
+  private final int[] nbFeatureValues;
+  private final int nodes; /* the offset of the first node record */
+  private final int nbNodes;
+
+  private MappedVfdtModel(ByteBuffer model, int[] nbFeatureValues, int nbNodes) {
+    this.model = model;
+    this.nbFeatureValues = nbFeatureValues;
+    this.nodes = HEADER_BYTES + 4 * nbFeatureValues.length;
+    this.nbNodes = nbNodes;
+  }
+
+  /**
+   * Maps a prediction model file.
+   *
+   * @param path the path to the file
+   * @return the mapped model
+   * @throws IOException if the file is not a valid prediction model of this version
+   */
+  public static MappedVfdtModel open(String path) throws IOException {
+    ByteBuffer model;
+    try (FileChannel channel = FileChannel.open(Paths.get(path))) {
+      long size = channel.size();
+      if (size < HEADER_BYTES || size > Integer.MAX_VALUE) {
+        throw new IOException(path + " is not a prediction model");
+      }
+      // the mapping outlives the channel
+      model = channel.map(FileChannel.MapMode.READ_ONLY, 0, size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+    if (model.getInt(0) != MAGIC) throw new IOException(path + " is not a prediction model");
+    if (model.getInt(4) != VERSION) {
+      throw new IOException(path + " has version " + model.getInt(4) + ", expected " + VERSION);
+    }
+    int nbFeatures = model.getInt(8);
+    int nbNodes = model.getInt(12);
+    if (nbFeatures < 0
+        || nbNodes < 1
+        || model.capacity() != HEADER_BYTES + 4L * nbFeatures + (long) nbNodes * NODE_BYTES) {
+      throw new IOException(path + " is truncated");
+    }
+    int[] nbFeatureValues = new int[nbFeatures];
+    for (int i = 0; i < nbFeatures; i++) {
+      nbFeatureValues[i] = model.getInt(HEADER_BYTES + 4 * i);
+      if (nbFeatureValues[i] < 1) {
+        throw new IOException(path + " gives feature " + i + " no values");
+      }
+    }
+    MappedVfdtModel mapped = new MappedVfdtModel(model, nbFeatureValues, nbNodes);
+    mapped.checkNodes(path);
+    return mapped;
+  }
+
+  /*
+   * Checks that every internal node splits on a feature and that its children come after it and
+   * are in the file, so that every prediction ends in a leaf.
+   */
+  private void checkNodes(String path) throws IOException {
+    for (int i = 0; i < nbNodes; i++) {
+      int f = model.getInt(record(i));
+      if (f < 0) continue;
+      long firstChild = model.getInt(record(i) + 4);
+      if (f >= nbFeatureValues.length
+          || firstChild <= i
+          || firstChild + nbFeatureValues[f] > nbNodes) {
+        throw new IOException(path + " has an invalid node " + i);
+      }
+    }
+  }
+
+  private int record(int i) {
+    return nodes + i * NODE_BYTES;
+  }
+
+  /*
+   * The index of the child of internal node i for the given value of its split feature f. A value
+   * out of range would give a node of another subtree, so it is refused.
+   */
+  private int child(int i, int f, int value) {
+    if (value < 0 || value >= nbFeatureValues[f]) {
+      throw new IllegalArgumentException(
+          "Feature " + f + " has " + nbFeatureValues[f] + " values, got " + value);
+    }
+    return model.getInt(record(i) + 4) + value;
+  }
+
+  /**
+   * @param example is the test instance to classify
+   * @return the probability that the example belongs to class "1"
+   */
+  public double makePrediction(int[] example) {
+    int i = 0;
+    for (int f = model.getInt(record(0)); f >= 0; f = model.getInt(record(i))) {
+      i = child(i, f, example[f]);
+    }
+    return model.getDouble(record(i) + 8);
+  }
+
+  /**
+   * Same as makePrediction(int[]), for a boxed example.
+   *
+   * @param example is the test instance to classify
+   * @return the probability that the example belongs to class "1"
+   */
+  public double makePrediction(Integer[] example) {
+    int i = 0;
+    for (int f = model.getInt(record(0)); f >= 0; f = model.getInt(record(i))) {
+      i = child(i, f, example[f]);
+    }
+    return model.getDouble(record(i) + 8);
+  }
+
+  /**
+   * Predicts a batch of examples given as a row-major block of getNbFeatures() columns.
+   *
+   * @param rows the feature values of nbRows examples, row after row
+   * @param nbRows the number of examples
+   * @param predictions receives the prediction of every example
+   */
+  public void predictBatch(int[] rows, int nbRows, double[] predictions) {
+    int nbFeatures = nbFeatureValues.length;
+    if (nbRows < 0 || rows.length < (long) nbRows * nbFeatures || predictions.length < nbRows) {
+      throw new IllegalArgumentException("The batch has less than " + nbRows + " rows");
+    }
+    for (int r = 0; r < nbRows; r++) {
+      int offset = r * nbFeatures;
+      int i = 0;
+      for (int f = model.getInt(record(0)); f >= 0; f = model.getInt(record(i))) {
+        i = child(i, f, rows[offset + f]);
+      }
+      predictions[r] = model.getDouble(record(i) + 8);
+    }
+  }
+
+  /** @return the number of features of an example */
+  public int getNbFeatures() {
+    return nbFeatureValues.length;
+  }
+
+  /** @return the number of nodes, leaves included */
+  public int getNbNodes() {
+    return nbNodes;
+  }
+}
@@ -0,0 +1,304 @@
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * This class keeps the counters and histograms of the learners and the data readers.
+ *
+ * <p>Metrics are only collected when the JVM is started with -Dbdap.metrics=true. ENABLED is a
+ * constant, so every instrumented line is guarded by "if (Metrics.ENABLED)" and the JIT removes
+ * it when metrics are off. Timers are histograms of nanoseconds:
+ *
+ * <pre>
+ * long start = Metrics.ENABLED ? System.nanoTime() : 0;
+ * ...
+ * if (Metrics.ENABLED) TIMER.recordSince(start);
+ * </pre>
+ *
+ * <p>When enabled, every metric is registered as an MBean named bdap:type=Counter,name=... or
+ * bdap:type=Histogram,name=..., so it can be watched with jconsole or any JMX client, and all
+ * metrics are printed to stderr when the JVM exits. The splits
+ * of a Vfdt and the checkpoints of a Checkpointer are also Flight Recorder events (bdap.Split and
+ * bdap.Checkpoint), which JFR records independently of ENABLED. A split event is only created
+ * when SPLIT_EVENTS is enabled by a recording:
+ *
+ * <pre>
+ * Metrics.SplitEvent event = Metrics.SPLIT_EVENTS.isEnabled() ? new Metrics.SplitEvent() : null;
+ * </pre>
+ */
+public final class Metrics {
+
+  /** Whether metrics are collected, set with -Dbdap.metrics=true. */
+  public static final boolean ENABLED = Boolean.getBoolean("bdap.metrics");
+
+  private static final Map<String, Object> METRICS = new TreeMap<String, Object>();
+
+  static {
+    if (ENABLED) Runtime.getRuntime().addShutdownHook(new Thread(() -> print(System.err)));
+  }
+
+  private Metrics() {}
+
+  /**
+   * @param name the name of the counter, e.g. vfdt.splits
+   * @return the counter with the given name, which is created the first time
+   */
+  public static synchronized Counter counter(String name) {
+    Object metric = METRICS.get(name);
+    if (metric == null) {
+      metric = new Counter();
+      METRICS.put(name, metric);
+      if (ENABLED) register(ManagementFactory.getPlatformMBeanServer(), name, metric);
+    }
+    return (Counter) metric;
+  }
+
+  /**
+   * @param name the name of the histogram, e.g. vfdt.update
+   * @param unit the unit of the values, e.g. ns for a timer
+   * @return the histogram with the given name, which is created the first time
+   */
+  public static synchronized Histogram histogram(String name, String unit) {
+    Object metric = METRICS.get(name);
+    if (metric == null) {
+      metric = new Histogram(unit);
+      METRICS.put(name, metric);
+      if (ENABLED) register(ManagementFactory.getPlatformMBeanServer(), name, metric);
+    }
+    return (Histogram) metric;
+  }
+
+  /** Same as histogram(name, "ns"). */
+  public static Histogram timer(String name) {
+    return histogram(name, "ns");
+  }
+
+  /* Registers the metric as an MBean. Metrics stay usable when that fails. */
+  static void register(MBeanServer server, String name, Object metric) {
+    try {
+      if (metric instanceof Counter) {
+        server.registerMBean(
+            new StandardMBean((Counter) metric, CounterMBean.class),
+            new ObjectName("bdap:type=Counter,name=" + ObjectName.quote(name)));
+      } else {
+        server.registerMBean(
+            new StandardMBean((Histogram) metric, HistogramMBean.class),
+            new ObjectName("bdap:type=Histogram,name=" + ObjectName.quote(name)));
+      }
+    } catch (JMException e) {
+      System.err.println("Could not register metric " + name + ": " + e);
+    }
+  }
+
+  /**
+   * Prints all metrics that were used, one per line.
+   *
+   * @param out the stream to print to
+   */
+  public static synchronized void print(PrintStream out) {
+    for (Map.Entry<String, Object> entry : METRICS.entrySet()) {
+      out.println(entry.getKey() + "\t" + entry.getValue());
+    }
+  }
+
+  /** The JMX view of a Counter. */
+  public interface CounterMBean {
+    long getCount();
+  }
+
+  /** A counter that many threads can increment without contention. */
+  public static final class Counter implements CounterMBean {
+
+    private final LongAdder count = new LongAdder();
+
+    Counter() {}
+
+    public void increment() {
+      count.increment();
+    }
+
+    public void add(long n) {
+      count.add(n);
+    }
+
+    @Override
+    public long getCount() {
+      return count.sum();
+    }
+
+    @Override
+    public String toString() {
+      return Long.toString(getCount());
+    }
+  }
+
+  /** The JMX view of a Histogram. */
+  public interface HistogramMBean {
+    String getUnit();
+
+    long getCount();
+
+    long getSum();
+
+    double getMean();
+
+    long getMax();
+
+    long getPercentile50();
+
+    long getPercentile99();
+  }
+
+  /**
+   * A histogram of non-negative values in power-of-two buckets: bucket b counts the values with b
+   * significant bits. Recording is lock-free; percentiles are the upper bound of their bucket, so
+   * they are off by at most a factor two.
+   */
+  public static final class Histogram implements HistogramMBean {
+
+    private final String unit;
+    private final AtomicLongArray buckets = new AtomicLongArray(64);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    Histogram(String unit) {
+      this.unit = unit;
+    }
+
+    /** @param value the value to record, negative values count as 0 */
+    public void record(long value) {
+      value = Math.max(0, value);
+      buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(value));
+      count.increment();
+      sum.add(value);
+      max.accumulate(value);
+    }
+
+    /** Records the nanoseconds since start, a value of System.nanoTime(). */
+    public void recordSince(long start) {
+      record(System.nanoTime() - start);
+    }
+
+    @Override
+    public String getUnit() {
+      return unit;
+    }
+
+    @Override
+    public long getCount() {
+      return count.sum();
+    }
+
+    @Override
+    public long getSum() {
+      return sum.sum();
+    }
+
+    @Override
+    public double getMean() {
+      long n = getCount();
+      return n == 0 ? 0 : (double) getSum() / n;
+    }
+
+    @Override
+    public long getMax() {
+      return max.get();
+    }
+
+    @Override
+    public long getPercentile50() {
+      return getPercentile(0.5);
+    }
+
+    @Override
+    public long getPercentile99() {
+      return getPercentile(0.99);
+    }
+
+    /**
+     * @param p a fraction in [0, 1]
+     * @return the upper bound of the bucket of the value at that fraction of the recorded values
+     */
+    public long getPercentile(double p) {
+      long n = 0;
+      for (int b = 0; b < 64; b++) n += buckets.get(b);
+      long rank = (long) Math.ceil(p * n);
+      long seen = 0;
+      for (int b = 0; b < 64; b++) {
+        seen += buckets.get(b);
+        if (seen >= rank && seen > 0) {
+          return b == 0 ? 0 : Math.min(getMax(), b == 63 ? Long.MAX_VALUE : (1L << b) - 1);
+        }
+      }
+      return 0;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "count %d\tmean %.1f %s\tp50 %d\tp99 %d\tmax %d",
+          getCount(), getMean(), unit, getPercentile50(), getPercentile99(), getMax());
+    }
+  }
+
+  /** A split of a Vfdt leaf, from the start of its evaluation to the new children. */
+  @Name("bdap.Split")
+  @Label("VFDT Split")
+  @Category("BDAP")
+  static final class SplitEvent extends Event {
+    @Label("Feature")
+    int feature;
+
+    @Label("Examples in Leaf")
+    int nbExamples;
+
+    @Label("Best Gain")
+    double gain;
+
+    @Label("Gain Difference")
+    double deltaGain;
+
+    @Label("Epsilon")
+    double epsilon;
+
+    @Label("Tie Broken by Tau")
+    boolean tie;
+  }
+
+  /** The type of SplitEvent, enabled while a Flight Recording records bdap.Split. */
+  static final EventType SPLIT_EVENTS = EventType.getEventType(SplitEvent.class);
+
+  /** The write of a checkpoint on the background thread of a Checkpointer. */
+  @Name("bdap.Checkpoint")
+  @Label("Checkpoint")
+  @Category("BDAP")
+  static final class CheckpointEvent extends Event {
+    @Label("Path")
+    String path;
+
+    @Label("Examples Processed")
+    int nbExamples;
+
+    @Label("Size")
+    @DataAmount
+    long bytes;
+
+    @Label("Compressed")
+    boolean compressed;
+  }
+}
@@ -0,0 +1,91 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Compares saving and loading a model in the text format of writeModel to the binary format of
+ * writeBinaryModel, with and without compression, and for the Vfdt to mapping a prediction model
+ * with MappedVfdtModel. The Vfdt is trained on random in-memory data with many features, so that
+ * its leaves have many non-zero counts.
+ */
+public class ModelIoBenchmark {
+
+  public static void main(String[] args) throws IOException {
+    int nbFeatures = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+    int nbRows = args.length > 1 ? Integer.parseInt(args[1]) : 300000;
+    int repetitions = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+    String dir = args.length > 3 ? args[3] : System.getProperty("java.io.tmpdir");
+
+    Random random = new Random(16);
+    int[] nbFeatureValues = new int[nbFeatures];
+    for (int i = 0; i < nbFeatures; i++) nbFeatureValues[i] = 8;
+    Vfdt vfdt = new Vfdt(nbFeatureValues, 1e-7, 0.05, 200);
+    Perceptron perceptron = new Perceptron(100 * nbFeatures, 0.01);
+    int[] example = new int[nbFeatures];
+    for (int r = 0; r < nbRows; r++) {
+      for (int i = 0; i < nbFeatures; i++) example[i] = random.nextInt(8);
+      vfdt.update(example, (example[0] + example[1] > 7) != (random.nextInt(10) == 0) ? 1 : 0);
+    }
+    double[] weights = perceptron.getWeights();
+    for (int i = 0; i < weights.length; i++) weights[i] = random.nextGaussian();
+
+    System.out.printf(
+        "%-12s %-8s %12s %12s %12s%n", "learner", "format", "bytes", "save ms", "load ms");
+    run("vfdt", vfdt, new Vfdt(nbFeatureValues, 1e-7, 0.05, 200), dir, repetitions);
+    runMapped(vfdt, example, dir, repetitions);
+    run("perceptron", perceptron, new Perceptron(100 * nbFeatures, 0.01), dir, repetitions);
+  }
+
+  /* Loading a prediction model is mapping it, the first prediction pages in the nodes it needs. */
+  private static void runMapped(Vfdt vfdt, int[] example, String dir, int repetitions)
+      throws IOException {
+    String path = new File(dir, "modelIoBenchmark.predict").getPath();
+    double save = Double.MAX_VALUE;
+    double load = Double.MAX_VALUE;
+    for (int rep = 0; rep < repetitions; rep++) {
+      long start = System.nanoTime();
+      vfdt.writePredictionModel(path);
+      save = Math.min(save, (System.nanoTime() - start) / 1e6);
+
+      start = System.nanoTime();
+      MappedVfdtModel model = MappedVfdtModel.open(path);
+      if (model.makePrediction(example) != vfdt.makePrediction(example)) {
+        throw new AssertionError("The mapped model predicts differently");
+      }
+      load = Math.min(load, (System.nanoTime() - start) / 1e6);
+    }
+    System.out.printf(
+        "%-12s %-8s %12d %12.1f %12.1f%n", "vfdt", "mapped", new File(path).length(), save, load);
+    new File(path).delete();
+  }
+
+  private static <T> void run(
+      String name,
+      IncrementalLearner<T> learner,
+      IncrementalLearner<T> target,
+      String dir,
+      int repetitions)
+      throws IOException {
+    String path = new File(dir, "modelIoBenchmark.model").getPath();
+    for (String format : new String[] {"text", "binary", "gzip"}) {
+      double save = Double.MAX_VALUE;
+      double load = Double.MAX_VALUE;
+      for (int rep = 0; rep < repetitions; rep++) {
+        long start = System.nanoTime();
+        if (format.equals("text")) {
+          learner.writeModel(path);
+        } else {
+          learner.writeBinaryModel(path, format.equals("gzip"));
+        }
+        save = Math.min(save, (System.nanoTime() - start) / 1e6);
+
+        start = System.nanoTime();
+        target.readModel(path, learner.nbExamplesProcessed);
+        load = Math.min(load, (System.nanoTime() - start) / 1e6);
+      }
+      System.out.printf(
+          "%-12s %-8s %12d %12.1f %12.1f%n", name, format, new File(path).length(), save, load);
+    }
+    new File(path).delete();
+  }
+}
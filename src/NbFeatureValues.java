@@ -0,0 +1,30 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+
+/**
+ * This class reads the file that specifies the number of possible values of every feature, e.g.
+ * nbFeatureValues.csv: a header line followed by one line with a comma-separated count per
+ * feature. It reads the file the same way as Vfdt.main.
+ */
+public final class NbFeatureValues {
+
+  private NbFeatureValues() {}
+
+  /**
+   * @param path the file with the number of values of every feature
+   * @return the number of values of every feature
+   * @throws IOException
+   */
+  public static int[] parse(String path) throws IOException {
+    try (BufferedReader reader = new BufferedReader(new FileReader(path))) {
+      reader.readLine(); // skip header
+      String[] splitLine = reader.readLine().split(",");
+      int[] nbFeatureValues = new int[splitLine.length];
+      for (int i = 0; i < nbFeatureValues.length; i++) {
+        nbFeatureValues[i] = Integer.parseInt(splitLine[i]);
+      }
+      return nbFeatureValues;
+    }
+  }
+}
@@ -0,0 +1,72 @@
+import java.io.IOException;
+
+/**
+ * Compares sequential Perceptron training with ParallelPerceptron for a growing number of threads,
+ * in Hogwild mode and with local copies. For every run it reports the throughput, the speedup and
+ * the accuracy of the final model on the training data, which shows whether the parallel modes
+ * converge as well as the sequential update.
+ */
+public class ParallelBenchmark {
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.err.println(
+          "Usage: java ParallelBenchmark <data set> <learningRate> [maxThreads] [mergeInterval]");
+      throw new Error("Expected 2 to 4 arguments, got " + args.length + ".");
+    }
+    PrimitiveData data = new PrimitiveData(args[0], ",");
+    double learningRate = Double.parseDouble(args[1]);
+    int maxThreads =
+        args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+    int mergeInterval = args.length > 3 ? Integer.parseInt(args[3]) : 1000;
+    int n = data.getNbFeatures();
+
+    // warm-up
+    train(data, learningRate, null);
+    Perceptron perceptron = new Perceptron(n, learningRate);
+    long start = System.nanoTime();
+    train(data, learningRate, perceptron);
+    double sequential = report("sequential", perceptron, data, start, 0);
+
+    for (int threads = 1; threads <= maxThreads; threads *= 2) {
+      for (int interval : new int[] {0, mergeInterval}) {
+        perceptron = new Perceptron(n, learningRate);
+        start = System.nanoTime();
+        new ParallelPerceptron(threads, interval).train(perceptron, data);
+        String name = (interval == 0 ? "hogwild " : "merge/" + interval + " ") + threads + "t";
+        report(name, perceptron, data, start, sequential);
+      }
+    }
+  }
+
+  private static void train(PrimitiveData data, double learningRate, Perceptron perceptron)
+      throws IOException {
+    if (perceptron == null) perceptron = new Perceptron(data.getNbFeatures(), learningRate);
+    try (RowCursor cursor = data.doubleCursor()) {
+      while (cursor.next()) perceptron.update(cursor.doubleRow(), cursor.classValue());
+    }
+  }
+
+  /* Prints one line and returns the throughput. */
+  private static double report(
+      String name, Perceptron perceptron, PrimitiveData data, long start, double sequential)
+      throws IOException {
+    double seconds = (System.nanoTime() - start) / 1e9;
+    double rate = perceptron.nbExamplesProcessed / seconds;
+    long correct = 0;
+    try (RowCursor cursor = data.doubleCursor()) {
+      while (cursor.next()) {
+        int prediction = perceptron.makePrediction(cursor.doubleRow()) > 0 ? 1 : 0;
+        if (prediction == cursor.classValue()) correct++;
+      }
+    }
+    System.out.printf(
+        "  %-18s %8.3f s %12.0f examples/s  speedup %5.2f  accuracy %.4f%n",
+        name,
+        seconds,
+        rate,
+        sequential > 0 ? rate / sequential : 1,
+        (double) correct / perceptron.nbExamplesProcessed);
+    return rate;
+  }
+}
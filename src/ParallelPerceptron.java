@@ -0,0 +1,227 @@
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class trains a Perceptron with several threads.
+ *
+ * <p>The calling thread reads the data and hands batches of rows to nbThreads workers. There are
+ * two modes:
+ *
+ * <ul>
+ *   <li>Hogwild (mergeInterval 0): all workers update the weights of the Perceptron directly,
+ *       without any locking. Updates of different workers can overwrite each other, which the
+ *       algorithm tolerates because every update only changes the weights a little.
+ *   <li>Local copies (mergeInterval > 0): every worker trains its own copy of the weights. After
+ *       mergeInterval examples it adds the change of its copy to the shared weights, under a lock,
+ *       and continues from the merged weights.
+ * </ul>
+ *
+ * <p>The workers update the weights with the same code as update(double[], int), and count the
+ * examples with countExample, one worker at a time: in Hogwild mode after every batch, with local
+ * copies when they merge. A checkpoint of the Perceptron is taken while a worker counts; with local
+ * copies it holds the merged weights of the counted examples, in Hogwild mode other workers can be
+ * changing the weights while it is taken.
+ *
+ * <p>With one thread, Hogwild gives exactly the same model as update(double[], int). With more
+ * threads the order of the updates is not defined, so the model differs from run to run.
+ */
+public class ParallelPerceptron {
+
+  private static final int BATCH_SIZE = 256;
+
+  private final int nbThreads;
+  private final int mergeInterval;
+
+  /**
+   * @param nbThreads the number of worker threads
+   * @param mergeInterval 0 for Hogwild, otherwise the number of examples between merges
+   */
+  public ParallelPerceptron(int nbThreads, int mergeInterval) {
+    if (nbThreads < 1) throw new IllegalArgumentException("nbThreads must be positive");
+    if (mergeInterval < 0) throw new IllegalArgumentException("mergeInterval must be >= 0");
+    this.nbThreads = nbThreads;
+    this.mergeInterval = mergeInterval;
+  }
+
+  /* A batch of rows, row-major. */
+  private static final class Batch {
+    final double[] rows;
+    final int[] classValues;
+    int size = 0;
+
+    Batch(int nbFeatures) {
+      rows = new double[BATCH_SIZE * nbFeatures];
+      classValues = new int[BATCH_SIZE];
+    }
+  }
+
+  /* Tells a worker that there are no more batches. */
+  private static final Batch END = new Batch(0);
+
+  /**
+   * Trains the perceptron with all examples of the data.
+   *
+   * @param perceptron the perceptron to train
+   * @param data the training data
+   */
+  public void train(Perceptron perceptron, PrimitiveData data) throws IOException {
+    int n = perceptron.getNbFeatures();
+    Pipeline pipeline = new Pipeline(perceptron);
+    try (RowCursor cursor = data.doubleCursor()) {
+      Batch batch = new Batch(n);
+      while (cursor.next()) {
+        System.arraycopy(cursor.doubleRow(), 0, batch.rows, batch.size * n, n);
+        batch.classValues[batch.size++] = cursor.classValue();
+        if (batch.size == BATCH_SIZE) {
+          pipeline.put(batch);
+          batch = new Batch(n);
+        }
+      }
+      if (batch.size > 0) pipeline.put(batch);
+    } finally {
+      pipeline.finish();
+    }
+  }
+
+  /**
+   * Trains the perceptron with all examples of the data.
+   *
+   * @param perceptron the perceptron to train
+   * @param data the training data
+   */
+  public void train(Perceptron perceptron, Data<Double> data) {
+    int n = perceptron.getNbFeatures();
+    Pipeline pipeline = new Pipeline(perceptron);
+    try (Data.ExampleIterator<Double> iterator = data.iterator()) {
+      Batch batch = new Batch(n);
+      while (iterator.hasNext()) {
+        Example<Double> example = iterator.next();
+        for (int i = 0; i < n; i++) batch.rows[batch.size * n + i] = example.attributeValues[i];
+        batch.classValues[batch.size++] = example.classValue;
+        if (batch.size == BATCH_SIZE) {
+          pipeline.put(batch);
+          batch = new Batch(n);
+        }
+      }
+      if (batch.size > 0) pipeline.put(batch);
+    } finally {
+      pipeline.finish();
+    }
+  }
+
+  /* The workers and the queue that feeds them. */
+  private class Pipeline {
+
+    private final Perceptron perceptron;
+    private final BlockingQueue<Batch> queue = new ArrayBlockingQueue<Batch>(4 * nbThreads);
+    private final Thread[] workers = new Thread[nbThreads];
+    private volatile RuntimeException failure = null;
+
+    Pipeline(Perceptron perceptron) {
+      this.perceptron = perceptron;
+      for (int t = 0; t < nbThreads; t++) {
+        workers[t] = new Thread(this::work, "perceptron-worker-" + t);
+        workers[t].setDaemon(true);
+        workers[t].start();
+      }
+    }
+
+    void put(Batch batch) {
+      try {
+        // a failed worker does not take batches anymore
+        while (!queue.offer(batch, 10, TimeUnit.MILLISECONDS)) {
+          if (failure != null) throw failure;
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while training", e);
+      }
+    }
+
+    /* Stops the workers after the last batch and waits for them. */
+    void finish() {
+      boolean interrupted = false;
+      if (failure != null) {
+        for (Thread worker : workers) worker.interrupt();
+      } else {
+        for (int t = 0; t < nbThreads; t++) {
+          try {
+            put(END);
+          } catch (RuntimeException e) {
+            for (Thread worker : workers) worker.interrupt();
+            break;
+          }
+        }
+      }
+      for (Thread worker : workers) {
+        while (true) {
+          try {
+            worker.join();
+            break;
+          } catch (InterruptedException e) {
+            interrupted = true;
+          }
+        }
+      }
+      if (interrupted) Thread.currentThread().interrupt();
+      if (failure != null) throw failure;
+    }
+
+    private void work() {
+      double[] shared = perceptron.getWeights();
+      double learningRate = perceptron.getLearningRate();
+      int n = shared.length - 1;
+      // in Hogwild mode the worker trains the shared weights
+      double[] weights = mergeInterval == 0 ? shared : shared.clone();
+      double[] base = mergeInterval == 0 ? null : weights.clone();
+      int sinceMerge = 0;
+      try {
+        while (true) {
+          Batch batch = queue.take();
+          if (batch == END) break;
+          for (int r = 0; r < batch.size; r++) {
+            Perceptron.updateWeights(
+                weights, learningRate, batch.rows, r * n, batch.classValues[r]);
+            if (mergeInterval > 0 && ++sinceMerge == mergeInterval) {
+              merge(shared, weights, base, sinceMerge);
+              sinceMerge = 0;
+            }
+          }
+          if (mergeInterval == 0) {
+            synchronized (shared) {
+              count(batch.size);
+            }
+          }
+        }
+        if (mergeInterval > 0) merge(shared, weights, base, sinceMerge);
+      } catch (InterruptedException e) {
+        // stopped
+      } catch (RuntimeException e) {
+        failure = e;
+      }
+    }
+
+    /*
+     * Adds weights - base to shared, counts the nbExamples examples that were merged, and
+     * continues from the merged weights.
+     */
+    private void merge(double[] shared, double[] weights, double[] base, int nbExamples) {
+      synchronized (shared) {
+        for (int i = 0; i < shared.length; i++) shared[i] += weights[i] - base[i];
+        System.arraycopy(shared, 0, weights, 0, shared.length);
+        count(nbExamples);
+      }
+      System.arraycopy(weights, 0, base, 0, weights.length);
+    }
+
+    /*
+     * Counts examples that are in the shared weights, which takes checkpoints and updates the
+     * metrics. Called under the lock of the shared weights, one worker at a time.
+     */
+    private void count(int nbExamples) {
+      for (int i = 0; i < nbExamples; i++) perceptron.countExample();
+    }
+  }
+}
@@ -3,6 +3,8 @@
  * without permission. Written by Pieter Robberechts, 2021
  */
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileWriter;
@@ -22,6 +24,12 @@ public class Perceptron extends IncrementalLearner<Double> {
   private double learningRate;
   private double[] weights;
 
+  private boolean miniBatch = false; /* see setMiniBatch */
+  private double[] batchErrors = new double[0];
+
+  private static final Metrics.Counter MISTAKES = Metrics.counter("perceptron.mistakes");
+  private static final Metrics.Histogram WRITE_MODEL = Metrics.timer("perceptron.writeModel");
+
 
   /**
    * Perceptron constructor.
@@ -49,6 +57,7 @@ public class Perceptron extends IncrementalLearner<Double> {
     super.update(example);
     double prediction = (makePrediction(example.attributeValues) > 0) ? 1:0;
     double error = prediction - example.classValue;
+    if (Metrics.ENABLED && error != 0) MISTAKES.increment();
     weights[0] -= learningRate*error;
     for (int i = 1; i < weights.length; i++) {
        double xi = example.attributeValues[i-1];
@@ -57,6 +66,214 @@ public class Perceptron extends IncrementalLearner<Double> {
     }
   }
 
+  /**
+   * Updates the model with an example in primitive form, without any boxing. This gives the same
+   * model as update(Example).
+   *
+   * @param attributeValues are the feature values of the training example
+   * @param classValue is the class of the training example
+   */
+  public void update(double[] attributeValues, int classValue) {
+    countExample();
+    updateWeights(weights, learningRate, attributeValues, 0, classValue);
+  }
+
+  /**
+   * The update of update(double[], int) on the given weights, for the row of rows that starts at
+   * offset. It does not count the example. ParallelPerceptron calls it with the shared weights or
+   * with a copy of them.
+   *
+   * @param weights the weights to update, the bias first
+   * @param learningRate the learning rate
+   * @param rows the feature values of the example at offset
+   * @param offset the index of the first feature of the example
+   * @param classValue the class of the example
+   */
+  static void updateWeights(
+      double[] weights, double learningRate, double[] rows, int offset, int classValue) {
+    double pr = weights[0];
+    for (int i = 1; i < weights.length; i++){
+      pr += rows[offset + i - 1]*weights[i];
+    }
+    double prediction = (pr > 0) ? 1:0;
+    double error = prediction - classValue;
+    if (Metrics.ENABLED && error != 0) MISTAKES.increment();
+    weights[0] -= learningRate*error;
+    for (int i = 1; i < weights.length; i++) {
+      weights[i] -= error * rows[offset + i - 1] * learningRate;
+    }
+  }
+
+  /**
+   * Updates the model with a batch of examples, given as rows of a row-major block of
+   * getNbFeatures() columns.
+   *
+   * <p>By default this gives exactly the same model as calling update(double[], int) for every row
+   * in order. With setMiniBatch(true) the predictions of the whole batch are computed with the
+   * weights from before the batch, and the updates of all rows are applied afterwards.
+   *
+   * @param rows the feature values of nbRows examples, row after row
+   * @param classValues the classes of the examples
+   * @param nbRows the number of examples in the batch
+   */
+  public void update(double[] rows, int[] classValues, int nbRows) {
+    int n = weights.length - 1;
+    if (rows.length < nbRows * n || classValues.length < nbRows) {
+      throw new IllegalArgumentException("The batch has less than " + nbRows + " rows");
+    }
+    if (!miniBatch) {
+      for (int r = 0; r < nbRows; r++) {
+        countExample();
+        double prediction = (makePrediction(rows, r * n) > 0) ? 1:0;
+        applyError(prediction - classValues[r], rows, r * n);
+      }
+    } else {
+      DenseKernel kernel = DenseKernel.get();
+      if (batchErrors.length < nbRows) batchErrors = new double[nbRows];
+      for (int r = 0; r < nbRows; r++) {
+        double prediction = (weights[0] + kernel.dot(weights, 1, rows, r * n, n) > 0) ? 1:0;
+        batchErrors[r] = prediction - classValues[r];
+      }
+      for (int r = 0; r < nbRows; r++) {
+        countExample();
+        applyError(batchErrors[r], rows, r * n);
+      }
+    }
+  }
+
+  /**
+   * Same as update(double[], int[], int), for a batch given as an array of rows.
+   *
+   * @param rows the feature values of the examples
+   * @param classValues the classes of the examples
+   */
+  public void update(double[][] rows, int[] classValues) {
+    int n = weights.length - 1;
+    if (!miniBatch) {
+      for (int r = 0; r < rows.length; r++) {
+        countExample();
+        double prediction = (makePrediction(rows[r], 0) > 0) ? 1:0;
+        applyError(prediction - classValues[r], rows[r], 0);
+      }
+    } else {
+      DenseKernel kernel = DenseKernel.get();
+      if (batchErrors.length < rows.length) batchErrors = new double[rows.length];
+      for (int r = 0; r < rows.length; r++) {
+        double prediction = (weights[0] + kernel.dot(weights, 1, rows[r], 0, n) > 0) ? 1:0;
+        batchErrors[r] = prediction - classValues[r];
+      }
+      for (int r = 0; r < rows.length; r++) {
+        countExample();
+        applyError(batchErrors[r], rows[r], 0);
+      }
+    }
+  }
+
+  /**
+   * Updates the model with a sparse example, in O(number of non-zeros). This gives the same model
+   * as update(double[], int) with the dense example, because skipped zero features neither change
+   * the prediction nor their weight.
+   *
+   * @param example is a training example
+   * @throws IllegalArgumentException if the example has a feature beyond getNbFeatures()
+   */
+  public void update(SparseExample example) {
+    checkIndices(example);
+    countExample();
+    double prediction = (makePrediction(example) > 0) ? 1:0;
+    double error = prediction - example.classValue;
+    if (Metrics.ENABLED && error != 0) MISTAKES.increment();
+    weights[0] -= learningRate*error;
+    int[] indices = example.indices;
+    double[] values = example.values;
+    for (int k = 0; k < indices.length; k++) {
+      weights[indices[k] + 1] -= error * values[k] * learningRate;
+    }
+  }
+
+  /**
+   * Same as makePrediction(double[]), for a sparse example, in O(number of non-zeros). The sum is
+   * taken in the same order as the dense one.
+   *
+   * @param example is a test example
+   * @return the likelihood that the example belongs to class "1"
+   * @throws IllegalArgumentException if the example has a feature beyond getNbFeatures()
+   */
+  public double makePrediction(SparseExample example) {
+    checkIndices(example);
+    double pr = weights[0];
+    int[] indices = example.indices;
+    double[] values = example.values;
+    for (int k = 0; k < indices.length; k++) {
+      pr += values[k]*weights[indices[k] + 1];
+    }
+    return pr;
+  }
+
+  /* The indices of a SparseExample are increasing and not negative, so the last one is checked. */
+  private void checkIndices(SparseExample example) {
+    int[] indices = example.indices;
+    if (indices.length > 0 && indices[indices.length - 1] >= weights.length - 1) {
+      throw new IllegalArgumentException(
+          "The example has feature " + indices[indices.length - 1] + ", the perceptron "
+              + (weights.length - 1) + " features");
+    }
+  }
+
+  /**
+   * Chooses how update(double[], int[], int) treats a batch. In the default standard mode the
+   * result is the same as updating with every example in order. In mini-batch mode all examples of
+   * a batch are predicted with the same weights, which lets the predictions use vector
+   * instructions, but gives a (slightly) different model.
+   *
+   * @param miniBatch true for mini-batch mode
+   */
+  public void setMiniBatch(boolean miniBatch) {
+    this.miniBatch = miniBatch;
+  }
+
+  /** @return the number of features of the model */
+  @Override
+  public int getNbFeatures() {
+    return weights.length - 1;
+  }
+
+  /** @return the bytes of the weights and of the mini-batch buffer */
+  @Override
+  public long getMemoryUsage() {
+    return 32 + 8L * (weights.length + batchErrors.length);
+  }
+
+  /** @return the weights themselves (not a copy), the bias first */
+  double[] getWeights() {
+    return weights;
+  }
+
+  /** @return the learning rate */
+  public double getLearningRate() {
+    return learningRate;
+  }
+
+  /* Same as makePrediction(double[]), for the row that starts at offset. */
+  private double makePrediction(double[] rows, int offset) {
+    double pr = weights[0];
+    for (int i = 1; i < weights.length; i++){
+      pr += rows[offset + i - 1]*weights[i];
+    }
+    return pr;
+  }
+
+  /* The update of update(double[], int), for the row that starts at offset. */
+  private void applyError(double error, double[] rows, int offset) {
+    weights[0] -= learningRate*error;
+    // a zero error does not change the weights of finite features
+    if (error != 0) {
+      if (Metrics.ENABLED) MISTAKES.increment();
+      DenseKernel.get().subtractScaled(
+          weights, 1, rows, offset, weights.length - 1, error, learningRate);
+    }
+  }
+
   /**
    * Uses the current model to calculate the likelihood that an attributeValues belongs to class
    * "1";
@@ -80,6 +297,33 @@ public class Perceptron extends IncrementalLearner<Double> {
     return pr;
   }
 
+  /**
+   * Same as makePrediction(Double[]), for an example in primitive form.
+   *
+   * @param example is a test attributeValues
+   * @return the likelihood that attributeValues belongs to class "1"
+   */
+  public double makePrediction(double[] example) {
+    double pr = weights[0];
+    for (int i = 1; i < weights.length; i++){
+      pr += example[i-1]*weights[i];
+    }
+    return pr;
+  }
+
+  /**
+   * Predicts the rows with the DenseKernel, like the mini-batch update. With the vector kernel the
+   * sum can differ from makePrediction(double[]) in the last bits.
+   */
+  @Override
+  void predictRows(double[] rows, int from, int to, double[] predictions) {
+    DenseKernel kernel = DenseKernel.get();
+    int n = weights.length - 1;
+    for (int r = from; r < to; r++) {
+      predictions[r] = weights[0] + kernel.dot(weights, 1, rows, r * n, n);
+    }
+  }
+
   /**
    * Writes the current model to a file.
    *
@@ -92,6 +336,7 @@ public class Perceptron extends IncrementalLearner<Double> {
    */
   @Override
   public void writeModel(String path) throws IOException {
+    long start = Metrics.ENABLED ? System.nanoTime() : 0;
     //https://www.w3schools.com/java/java_files_create.asp
     File modelFile = new File(path);
     modelFile.createNewFile();
@@ -107,12 +352,15 @@ public class Perceptron extends IncrementalLearner<Double> {
     FileWriter writer = new FileWriter(path);
     writer.write(model.toString());
     writer.close();
+    if (Metrics.ENABLED) WRITE_MODEL.recordSince(start);
   }
 
   /**
    * Reads in the model in the file and sets it as the current model. Sets the number of examples
    * processed.
    *
+   * <p>Both the text format of writeModel and the binary format of writeBinaryModel are read.
+   *
    * <p>THIS METHOD IS REQUIRED
    *
    * @param path the path to the model file
@@ -122,12 +370,45 @@ public class Perceptron extends IncrementalLearner<Double> {
    */
   @Override
   public void readModel(String path, int nbExamplesProcessed) throws IOException {
+    if (BinaryModel.isBinary(path)) {
+      readBinaryModel(path);
+      super.readModel(path, nbExamplesProcessed);
+      return;
+    }
     super.readModel(path, nbExamplesProcessed);
     String[] content = Files.readString(Paths.get(path), StandardCharsets.US_ASCII).split(" ");
     for (int i = 0; i < weights.length; i++){
       weights[i] = Double.parseDouble(content[i]);
     }
   }
+  @Override
+  void writeBinary(DataOutputStream out) throws IOException {
+    writeWeights(out, weights);
+  }
+
+  /* The number of weights, then the weights. */
+  private static void writeWeights(DataOutputStream out, double[] weights) throws IOException {
+    out.writeInt(weights.length);
+    for (double weight : weights) out.writeDouble(weight);
+  }
+
+  /* The weights are copied, O(number of features). */
+  @Override
+  BinaryModel.Snapshot snapshot() {
+    double[] copy = weights.clone();
+    return out -> writeWeights(out, copy);
+  }
+
+  @Override
+  void readBinary(DataInputStream in) throws IOException {
+    int nbWeights = in.readInt();
+    if (nbWeights != weights.length) {
+      throw new IOException(
+          "The model has " + (nbWeights - 1) + " features, expected " + (weights.length - 1));
+    }
+    for (int i = 0; i < weights.length; i++) weights[i] = in.readDouble();
+  }
+
 
   /**
    * This runs your code to generate the required output for the assignment.
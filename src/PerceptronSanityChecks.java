@@ -5,7 +5,13 @@
 import static org.junit.Assert.*;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
 import org.junit.*;
 
 public class PerceptronSanityChecks {
@@ -72,4 +78,196 @@ public class PerceptronSanityChecks {
           0.0000001);
     }
   }
+
+  @Test
+  public void batchUpdateMatchesSequentialUpdates() throws Exception {
+    Random random = new Random(4);
+    int nbRows = 301;
+    double[] rows = new double[nbRows * 3];
+    double[][] rowArrays = new double[nbRows][];
+    int[] classValues = new int[nbRows];
+    Perceptron sequential = new Perceptron(3, 0.001);
+    for (int r = 0; r < nbRows; r++) {
+      for (int i = 0; i < 3; i++) rows[3 * r + i] = random.nextDouble() - 0.3;
+      rowArrays[r] = Arrays.copyOfRange(rows, 3 * r, 3 * r + 3);
+      classValues[r] = rows[3 * r] + rows[3 * r + 2] > 0.4 ? 1 : 0;
+      sequential.update(rowArrays[r], classValues[r]);
+    }
+    Perceptron block = new Perceptron(3, 0.001);
+    block.update(rows, classValues, nbRows);
+    Perceptron arrays = new Perceptron(3, 0.001);
+    arrays.update(rowArrays, classValues);
+    assertEquals("All examples should be counted", nbRows, block.nbExamplesProcessed);
+    for (double[] probe : new double[][] {{1, 0, 0}, {0, 1, 0}, {0, 0, 1}, {0, 0, 0}}) {
+      assertEquals(
+          "A batch should give exactly the same model as sequential updates",
+          sequential.makePrediction(probe), block.makePrediction(probe), 0);
+      assertEquals(
+          "A batch should give exactly the same model as sequential updates",
+          sequential.makePrediction(probe), arrays.makePrediction(probe), 0);
+    }
+  }
+
+  @Test
+  public void miniBatchUsesWeightsFromBeforeTheBatch() throws Exception {
+    double[] rows = {0.5, 0.0, 1.0, 0.5, 0.0, 1.0};
+    int[] classValues = {1, 1};
+    learner.update(rows, classValues, 2);
+    // the first example fixes the prediction of the second one
+    assertEquals("Only the first example should update", 0.001, learner.makePrediction(
+        new double[] {0, 0, 0}), 0.0000001);
+
+    Perceptron miniBatch = new Perceptron(3, 0.001);
+    miniBatch.setMiniBatch(true);
+    miniBatch.update(rows, classValues, 2);
+    assertEquals("Both examples should update", 0.002, miniBatch.makePrediction(
+        new double[] {0, 0, 0}), 0.0000001);
+  }
+
+  @Test
+  public void parallelTraining() throws Exception {
+    Path dir = Files.createTempDirectory("pcSanity");
+    Random random = new Random(6);
+    StringBuilder csv = new StringBuilder();
+    Perceptron sequential = new Perceptron(3, 0.001);
+    for (int r = 0; r < 2000; r++) {
+      double[] x = {random.nextDouble(), random.nextDouble(), random.nextDouble()};
+      int c = x[0] + x[1] > 1 ? 1 : 0;
+      csv.append(x[0]).append(',').append(x[1]).append(',').append(x[2]).append(',');
+      csv.append(c).append('\n');
+      sequential.update(x, c);
+    }
+    Files.write(dir.resolve("a.csv"), csv.toString().getBytes(StandardCharsets.US_ASCII));
+    PrimitiveData data = new PrimitiveData(dir.toString(), ",");
+
+    Perceptron hogwild = new Perceptron(3, 0.001);
+    new ParallelPerceptron(1, 0).train(hogwild, data);
+    double[] probe = {0.3, 0.9, 0.5};
+    assertEquals(
+        "Hogwild with one thread should be the same as sequential training",
+        sequential.makePrediction(probe), hogwild.makePrediction(probe), 0);
+
+    for (int mergeInterval : new int[] {0, 100}) {
+      Perceptron parallel = new Perceptron(3, 0.001);
+      new ParallelPerceptron(4, mergeInterval).train(parallel, data);
+      assertEquals("All examples should be counted", 2000, parallel.nbExamplesProcessed);
+      assertTrue(
+          "The parallel model should separate the classes",
+          parallel.makePrediction(new double[] {0.9, 0.9, 0.5}) > 0
+              && parallel.makePrediction(new double[] {0.1, 0.1, 0.5}) <= 0);
+    }
+    for (File f : dir.toFile().listFiles()) f.delete();
+    dir.toFile().delete();
+  }
+
+  @Test
+  public void predictBatch() {
+    Random random = new Random(7);
+    Perceptron perceptron = new Perceptron(3, 0.01);
+    // more rows than one chunk, so that the parallel mode really splits the batch
+    int nbRows = 2 * IncrementalLearner.BATCH_CHUNK + 5;
+    double[] rows = new double[3 * nbRows];
+    for (int i = 0; i < rows.length; i++) rows[i] = random.nextGaussian();
+    for (int r = 0; r < 100; r++) {
+      perceptron.update(Arrays.copyOfRange(rows, 3 * r, 3 * r + 3), rows[3 * r] > 0 ? 1 : 0);
+    }
+    for (boolean parallel : new boolean[] {false, true}) {
+      double[] predictions = new double[nbRows];
+      perceptron.predictBatch(rows, nbRows, predictions, parallel);
+      for (int r = 0; r < nbRows; r++) {
+        double[] row = Arrays.copyOfRange(rows, 3 * r, 3 * r + 3);
+        assertEquals(
+            "predictBatch should give the predictions of makePrediction",
+            perceptron.makePrediction(row), predictions[r], 1e-12);
+      }
+    }
+  }
+
+  @Test
+  public void binaryModelRoundTrip() throws Exception {
+    Random random = new Random(15);
+    Perceptron perceptron = new Perceptron(3, 0.01);
+    for (int r = 0; r < 1000; r++) {
+      double[] x = {random.nextGaussian(), random.nextGaussian(), random.nextGaussian()};
+      perceptron.update(x, x[0] + x[1] > 0 ? 1 : 0);
+    }
+    for (boolean compress : new boolean[] {false, true}) {
+      perceptron.writeBinaryModel("output/lrSanityBinary.model", compress);
+      Perceptron read = new Perceptron(3, 0.01);
+      read.readBinaryModel("output/lrSanityBinary.model");
+      assertEquals("The number of examples should be kept", 1000, read.nbExamplesProcessed);
+      assertArrayEquals(
+          "The binary model should keep the weights exactly",
+          perceptron.getWeights(), read.getWeights(), 0);
+      Perceptron detected = new Perceptron(3, 0.01);
+      detected.readModel("output/lrSanityBinary.model", 5);
+      assertEquals("readModel should set nbExamplesProcessed", 5, detected.nbExamplesProcessed);
+      assertArrayEquals(perceptron.getWeights(), detected.getWeights(), 0);
+    }
+  }
+
+  @Test
+  public void checkpointAndResume() throws Exception {
+    Random random = new Random(19);
+    double[][] rows = new double[3000][];
+    for (int r = 0; r < rows.length; r++) {
+      rows[r] = new double[] {random.nextGaussian(), random.nextGaussian(), random.nextGaussian()};
+    }
+    String path = "output/lrSanity.checkpoint";
+    new File(path).delete();
+    Perceptron perceptron = new Perceptron(3, 0.01);
+    Checkpointer checkpointer = new Checkpointer(perceptron, path, 1000, 0, false);
+    for (int r = 0; r < 2500; r++) perceptron.update(rows[r], rows[r][0] > rows[r][1] ? 1 : 0);
+    checkpointer.flush();
+
+    Perceptron resumed = new Perceptron(3, 0.01);
+    assertTrue("There should be a checkpoint", Checkpointer.restore(resumed, path));
+    assertEquals("The checkpoint has 2000 examples", 2000, resumed.nbExamplesProcessed);
+    for (int r = 2000; r < rows.length; r++) {
+      resumed.update(rows[r], rows[r][0] > rows[r][1] ? 1 : 0);
+    }
+    for (int r = 2500; r < rows.length; r++) {
+      perceptron.update(rows[r], rows[r][0] > rows[r][1] ? 1 : 0);
+    }
+    checkpointer.close();
+    assertArrayEquals(
+        "Resuming from a checkpoint should give the same model",
+        perceptron.getWeights(), resumed.getWeights(), 0);
+  }
+
+  @Test
+  public void prequentialEvaluatorMatchesLearningCurve() throws Exception {
+    Random random = new Random(23);
+    StringBuilder csv = new StringBuilder();
+    for (int r = 0; r < 3000; r++) {
+      double a = random.nextGaussian();
+      double b = random.nextGaussian();
+      csv.append(a).append(',').append(b).append(',').append(a > b ? 1 : 0).append('\n');
+    }
+    Path dir = Files.createTempDirectory("lrPrequential");
+    Files.write(dir.resolve("data.csv"), csv.toString().getBytes(StandardCharsets.US_ASCII));
+
+    String curve = dir.resolve("curve").toString();
+    new Perceptron(2, 0.01)
+        .makeLearningCurve(Data.doubles(dir.toString(), ","), 0, curve, 400, false);
+    String evaluated = dir.resolve("evaluated").toString();
+    PrequentialEvaluator.Result result =
+        PrequentialEvaluator.of(new Perceptron(2, 0.01))
+            .evaluate(
+                new PrimitiveData(dir.toString(), ","),
+                0,
+                evaluated,
+                400,
+                PrequentialEvaluator.Predictions.TEXT);
+    assertEquals(
+        "The evaluator should write the same learning curve",
+        new String(Files.readAllBytes(Path.of(curve + ".acc")), StandardCharsets.US_ASCII),
+        new String(Files.readAllBytes(Path.of(evaluated + ".acc")), StandardCharsets.US_ASCII));
+    assertEquals(3000, result.nbExamples);
+    assertEquals(
+        "All but the first 10 examples and the skipped 11th are tested",
+        2989, Files.readAllLines(Path.of(evaluated + ".probs")).size());
+    for (File file : dir.toFile().listFiles()) file.delete();
+    dir.toFile().delete();
+  }
 }
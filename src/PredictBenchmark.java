@@ -0,0 +1,102 @@
+import java.util.Random;
+
+/**
+ * Compares predicting one boxed row at a time with makePrediction to predictBatch, sequentially
+ * and in parallel, for a Perceptron and a Vfdt trained on random in-memory data.
+ */
+public class PredictBenchmark {
+
+  public static void main(String[] args) {
+    int nbFeatures = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+    int nbRows = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+    int repetitions = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+    Random random = new Random(11);
+    int[] nbFeatureValues = new int[nbFeatures];
+    int[] intRows = new int[nbRows * nbFeatures];
+    double[] rows = new double[intRows.length];
+    for (int i = 0; i < nbFeatures; i++) nbFeatureValues[i] = 4;
+    for (int i = 0; i < intRows.length; i++) {
+      intRows[i] = random.nextInt(4);
+      rows[i] = intRows[i];
+    }
+    Perceptron perceptron = new Perceptron(nbFeatures, 0.01);
+    Vfdt vfdt = new Vfdt(nbFeatureValues, 1e-7, 0.05, 200);
+    int[] example = new int[nbFeatures];
+    double[] doubleExample = new double[nbFeatures];
+    for (int r = 0; r < nbRows; r++) {
+      System.arraycopy(intRows, r * nbFeatures, example, 0, nbFeatures);
+      System.arraycopy(rows, r * nbFeatures, doubleExample, 0, nbFeatures);
+      int c = (example[0] + example[1] + example[2] > 4) != (random.nextInt(10) == 0) ? 1 : 0;
+      perceptron.update(doubleExample, c);
+      vfdt.update(example, c);
+    }
+
+    System.out.printf(
+        "%d rows, %d features%n%-12s %14s %14s %14s %14s%n",
+        nbRows, nbFeatures, "", "boxed ex/s", "batch ex/s", "parallel ex/s", "int[] ex/s");
+    report("perceptron", perceptron, rows, null, nbRows, repetitions);
+    report("vfdt", vfdt, rows, intRows, nbRows, repetitions);
+  }
+
+  private static <T extends Number> void report(
+      String name,
+      IncrementalLearner<T> learner,
+      double[] rows,
+      int[] intRows,
+      int nbRows,
+      int repetitions) {
+    int n = learner.getNbFeatures();
+    double[] predictions = new double[nbRows];
+    double boxed = 0;
+    double batch = 0;
+    double parallel = 0;
+    double ints = 0;
+    for (int rep = 0; rep < repetitions; rep++) {
+      long start = System.nanoTime();
+      for (int r = 0; r < nbRows; r++) {
+        predictions[r] = learner.makePrediction(box(learner, rows, r * n, n));
+      }
+      boxed = rate(nbRows, start);
+
+      start = System.nanoTime();
+      learner.predictBatch(rows, nbRows, predictions, false);
+      batch = rate(nbRows, start);
+
+      start = System.nanoTime();
+      learner.predictBatch(rows, nbRows, predictions, true);
+      parallel = rate(nbRows, start);
+
+      if (intRows != null) {
+        start = System.nanoTime();
+        ((Vfdt) learner).predictBatch(intRows, nbRows, predictions, false);
+        ints = rate(nbRows, start);
+      }
+    }
+    System.out.printf(
+        "%-12s %14.0f %14.0f %14.0f %14s%n",
+        name,
+        boxed,
+        batch,
+        parallel,
+        intRows != null ? String.format("%.0f", ints) : "-");
+  }
+
+  /* Boxes one row the way the Data classes hand it to makePrediction. */
+  @SuppressWarnings("unchecked")
+  private static <T extends Number> T[] box(
+      IncrementalLearner<T> learner, double[] rows, int offset, int n) {
+    if (learner instanceof Vfdt) {
+      Integer[] row = new Integer[n];
+      for (int i = 0; i < n; i++) row[i] = (int) rows[offset + i];
+      return (T[]) row;
+    }
+    Double[] row = new Double[n];
+    for (int i = 0; i < n; i++) row[i] = rows[offset + i];
+    return (T[]) row;
+  }
+
+  private static double rate(int nbRows, long start) {
+    return nbRows / ((System.nanoTime() - start) / 1e9);
+  }
+}
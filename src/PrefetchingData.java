@@ -0,0 +1,152 @@
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * This class wraps other Data and reads it on a background thread, so that reading and parsing
+ * overlap with learning.
+ *
+ * <p>The background thread parses batches of batchSize examples into a bounded ring buffer of
+ * capacity batches. When the buffer is full the reader waits for the learner (back-pressure), so
+ * at most (capacity + 2) * batchSize examples are in memory at any time.
+ *
+ * <p>Every call to iterator() starts a new background thread. The thread stops at the end of the
+ * data, or when the iterator is closed; in both cases the data file it was reading is closed.
+ */
+public class PrefetchingData<T> extends Data<T> {
+
+  private final Data<T> source;
+  private final int batchSize;
+  private final int capacity;
+
+  /**
+   * @param source the data to read in the background
+   * @param batchSize the number of examples that are handed over at once
+   * @param capacity the number of batches that can be read ahead
+   */
+  public PrefetchingData(Data<T> source, int batchSize, int capacity) {
+    super(source.getDataFiles(), null);
+    if (batchSize < 1 || capacity < 1) {
+      throw new IllegalArgumentException("batchSize and capacity must be positive");
+    }
+    this.source = source;
+    this.batchSize = batchSize;
+    this.capacity = capacity;
+  }
+
+  @Override
+  protected T parseAttribute(String attrString) {
+    return source.parseAttribute(attrString);
+  }
+
+  @Override
+  protected T[] emptyAttributes(int i) {
+    return source.emptyAttributes(i);
+  }
+
+  @Override
+  public int getNbFeatures() {
+    return source.getNbFeatures();
+  }
+
+  /**
+   * Returns an iterator over all examples, which are read on a background thread.
+   *
+   * @return iterator over all examples
+   */
+  @Override
+  public ExampleIterator<T> iterator() {
+    return stepLikeCsv(new PrefetchingIterator());
+  }
+
+  /* Marks the end of the data in the ring buffer. */
+  private static final Example<?>[] END = new Example<?>[0];
+
+  private class PrefetchingIterator implements ExampleIterator<T>, Runnable {
+
+    private final BlockingQueue<Example<?>[]> ringBuffer =
+        new ArrayBlockingQueue<Example<?>[]>(capacity);
+    private final Thread reader;
+    private volatile boolean closed = false;
+    private volatile RuntimeException failure = null;
+
+    private Example<?>[] batch = null;
+    private int index = 0;
+
+    PrefetchingIterator() {
+      reader = new Thread(this, "data-prefetcher");
+      reader.setDaemon(true);
+      reader.start();
+    }
+
+    /** Reads batches from the source until the end of the data or until closed. */
+    @Override
+    public void run() {
+      ExampleIterator<T> iterator = source.iterator();
+      try {
+        while (!closed) {
+          Example<?>[] next = new Example<?>[batchSize];
+          int n = 0;
+          while (n < batchSize && iterator.hasNext()) next[n++] = iterator.next();
+          if (n > 0) ringBuffer.put(n < batchSize ? Arrays.copyOf(next, n) : next);
+          if (n < batchSize) break;
+        }
+      } catch (InterruptedException e) {
+        // closed while waiting for space in the ring buffer
+      } catch (RuntimeException e) {
+        failure = e;
+      } finally {
+        iterator.close();
+        if (!closed) {
+          try {
+            ringBuffer.put(END);
+          } catch (InterruptedException e) {
+            // closed while waiting for space in the ring buffer
+          }
+        }
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (closed) return false;
+      if (batch != null && index < batch.length) return true;
+      if (batch == END) return false;
+      try {
+        batch = ringBuffer.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        close();
+        return false;
+      }
+      index = 0;
+      if (batch == END && failure != null) throw failure;
+      return batch != END;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Example<T> next() {
+      if (!hasNext()) throw new NoSuchElementException();
+      Example<T> example = (Example<T>) batch[index];
+      batch[index++] = null;
+      return example;
+    }
+
+    /** Stops the background thread, which closes the opened data file (if any). */
+    @Override
+    public void close() {
+      if (closed) return;
+      closed = true;
+      reader.interrupt();
+      ringBuffer.clear();
+      try {
+        reader.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      ringBuffer.clear();
+    }
+  }
+}
@@ -0,0 +1,434 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+/**
+ * This class makes learning curves like IncrementalLearner.makeLearningCurve, from the primitive
+ * rows of a RowCursor instead of from Examples.
+ *
+ * <p>By default every example is tested one period before it is trained on, exactly like
+ * makeLearningCurve, and the .acc file is the same; the 11th example is skipped like it is there.
+ * The rows that are tested but not trained on yet are copied into a ring buffer of primitive rows
+ * that is allocated once, so the memory does not depend on the number of examples and nothing is
+ * allocated per example or per period. With setInterleaved(true) every example is tested and then
+ * trained on right away, and the ring buffer holds a single row.
+ *
+ * <p>Besides the accuracy of every period, the .acc file can have the accuracy over a sliding
+ * window of the last tested examples and a fading-factor accuracy (sum of alpha^k correct_k over
+ * sum of alpha^k, k examples ago), as extra columns in that order. The predictions are written
+ * through a buffer, as text like makeLearningCurve or as binary records of a double and a byte.
+ */
+public abstract class PrequentialEvaluator {
+
+  /** How the predictions are written. */
+  public enum Predictions {
+    /** no predictions */
+    NONE,
+    /** out.probs, with lines "prediction <tab> class", like makeLearningCurve */
+    TEXT,
+    /** out.probs.bin, with a big-endian double and a class byte per prediction */
+    BINARY
+  }
+
+  private final IncrementalLearner<?> learner;
+  private boolean interleaved = false;
+  private int windowSize = 0;
+  private double fadingFactor = 0;
+
+  /* the class values of the rows in the ring buffer */
+  private int[] classValues = new int[0];
+
+  /* the sliding window of the last windowSize tested examples (1 if correct) */
+  private byte[] window;
+  private int windowNext;
+  private int windowFill;
+  private int windowCorrect;
+  private double fadingCorrect;
+  private double fadingTotal;
+
+  private PrequentialEvaluator(IncrementalLearner<?> learner) {
+    this.learner = learner;
+  }
+
+  /** @return an evaluator of the Vfdt, which reads int rows */
+  public static PrequentialEvaluator of(Vfdt vfdt) {
+    return new PrequentialEvaluator(vfdt) {
+      private int[][] rows = new int[0][];
+
+      @Override
+      RowCursor cursor(PrimitiveData data) {
+        return data.intCursor();
+      }
+
+      @Override
+      void allocate(int capacity, int nbFeatures) {
+        if (rows.length < capacity) rows = new int[capacity][nbFeatures];
+      }
+
+      @Override
+      void store(RowCursor cursor, int slot) {
+        System.arraycopy(cursor.intRow(), 0, rows[slot], 0, rows[slot].length);
+      }
+
+      @Override
+      double predict(int slot) {
+        return vfdt.makePrediction(rows[slot]);
+      }
+
+      @Override
+      void train(int slot, int classValue) {
+        vfdt.update(rows[slot], classValue);
+      }
+    };
+  }
+
+  /** @return an evaluator of the Perceptron, which reads double rows */
+  public static PrequentialEvaluator of(Perceptron perceptron) {
+    return new PrequentialEvaluator(perceptron) {
+      private double[][] rows = new double[0][];
+
+      @Override
+      RowCursor cursor(PrimitiveData data) {
+        return data.doubleCursor();
+      }
+
+      @Override
+      void allocate(int capacity, int nbFeatures) {
+        if (rows.length < capacity) rows = new double[capacity][nbFeatures];
+      }
+
+      @Override
+      void store(RowCursor cursor, int slot) {
+        System.arraycopy(cursor.doubleRow(), 0, rows[slot], 0, rows[slot].length);
+      }
+
+      @Override
+      double predict(int slot) {
+        return perceptron.makePrediction(rows[slot]);
+      }
+
+      @Override
+      void train(int slot, int classValue) {
+        perceptron.update(rows[slot], classValue);
+      }
+    };
+  }
+
+  /** @return a new cursor over the data, with the rows the learner needs */
+  abstract RowCursor cursor(PrimitiveData data);
+
+  /** Makes sure the ring buffer holds at least capacity rows. */
+  abstract void allocate(int capacity, int nbFeatures);
+
+  /** Copies the features of the current row of the cursor into the ring buffer. */
+  abstract void store(RowCursor cursor, int slot);
+
+  /** @return the prediction of the learner for the row in the ring buffer */
+  abstract double predict(int slot);
+
+  /** Trains the learner on the row in the ring buffer. */
+  abstract void train(int slot, int classValue);
+
+  /**
+   * @param interleaved true to test and train every example right away, false (the default) to
+   *     train one period later, like makeLearningCurve
+   */
+  public void setInterleaved(boolean interleaved) {
+    this.interleaved = interleaved;
+  }
+
+  /** @param windowSize the size of the sliding window, or 0 for no window accuracy */
+  public void setWindowSize(int windowSize) {
+    if (windowSize < 0) throw new IllegalArgumentException("Invalid window size " + windowSize);
+    this.windowSize = windowSize;
+  }
+
+  /** @param fadingFactor alpha in (0, 1), or 0 for no fading accuracy */
+  public void setFadingFactor(double fadingFactor) {
+    if (fadingFactor < 0 || fadingFactor >= 1) {
+      throw new IllegalArgumentException("The fading factor should be in [0, 1)");
+    }
+    this.fadingFactor = fadingFactor;
+  }
+
+  /**
+   * Same as evaluate on a new cursor over the data.
+   *
+   * @return the result of the evaluation
+   */
+  public Result evaluate(
+      PrimitiveData data, double thresh, String out, int reportingPeriod, Predictions predictions)
+      throws IOException {
+    try (RowCursor cursor = cursor(data)) {
+      return evaluate(cursor, thresh, out, reportingPeriod, predictions);
+    }
+  }
+
+  /**
+   * Writes the learning curve of the learner on the rows of the cursor to out.acc, with lines
+   * "nbExamplesProcessed <tab> accuracy [<tab> window accuracy] [<tab> fading accuracy]". The
+   * periods start at 10 examples and double until they reach the reporting period.
+   *
+   * <p>The accuracy of a period is divided by one less than the number of tested examples in the
+   * default mode, as makeLearningCurve does, so that the curves can be compared. The interleaved
+   * mode divides by the number of tested examples.
+   *
+   * @param cursor the rows, in int mode for a Vfdt and in double mode for a Perceptron
+   * @param thresh the threshold for labeling an example as belonging to class "1"
+   * @param out the stem of the output files
+   * @param reportingPeriod the largest period
+   * @param predictions how to write the predictions
+   * @return the result of the evaluation
+   * @throws IOException
+   */
+  public Result evaluate(
+      RowCursor cursor, double thresh, String out, int reportingPeriod, Predictions predictions)
+      throws IOException {
+    if (reportingPeriod < 1) throw new IllegalArgumentException("The period must be positive");
+    int capacity = interleaved ? 1 : Math.max(10, reportingPeriod) + reportingPeriod;
+    allocate(capacity, learner.getNbFeatures());
+    if (classValues.length < capacity) classValues = new int[capacity];
+    window = new byte[windowSize];
+    windowNext = windowFill = windowCorrect = 0;
+    fadingCorrect = fadingTotal = 0;
+
+    System.out.println(out);
+    long start = System.nanoTime();
+    long nbRows = 0;
+    try (PrintWriter accuracyWriter = new PrintWriter(out + ".acc");
+        PredictionWriter predictionWriter = PredictionWriter.open(out, predictions)) {
+      int nbToTest = 10;
+      int head = 0; /* the slot of the first row that is not trained on yet */
+      int nbBuffered = 0;
+
+      boolean hasNext = cursor.next();
+      while (!interleaved && hasNext && nbBuffered < nbToTest) {
+        classValues[nbBuffered] = cursor.classValue();
+        store(cursor, nbBuffered++);
+        hasNext = cursor.next();
+      }
+      nbRows += nbBuffered;
+      // makeLearningCurve skips the example after its first buffer, see Data.stepLikeCsv
+      if (nbBuffered == nbToTest && hasNext) {
+        nbRows++;
+        hasNext = cursor.next();
+      }
+
+      while (hasNext) {
+        nbToTest = Math.min(reportingPeriod, nbToTest * 2);
+        int first = (head + nbBuffered) % capacity;
+        int i = 0;
+        double accuracy = 0;
+        while (hasNext && i < nbToTest) {
+          int slot = (first + i) % capacity;
+          int classValue = cursor.classValue();
+          classValues[slot] = classValue;
+          store(cursor, slot);
+          i++;
+          double prob = predict(slot);
+          boolean correct = ((prob > thresh) ? 1 : 0) == classValue;
+          if (correct) accuracy += 1;
+          record(correct);
+          if (predictionWriter != null) predictionWriter.write(prob, classValue);
+          if (interleaved) train(slot, classValue);
+          hasNext = cursor.next();
+        }
+        nbRows += i;
+
+        double periodAccuracy = accuracy / (interleaved ? i : i - 1);
+        StringBuilder line = new StringBuilder();
+        line.append(learner.nbExamplesProcessed).append('\t').append(periodAccuracy);
+        if (windowSize > 0) line.append('\t').append(getWindowAccuracy());
+        if (fadingFactor > 0) line.append('\t').append(getFadingAccuracy());
+        accuracyWriter.println(line);
+        accuracyWriter.flush();
+        System.out.printf(
+            "trained with: %d\taccuracy: %s\t%.0f examples/s\t%s%n",
+            learner.nbExamplesProcessed,
+            periodAccuracy,
+            nbRows * 1e9 / Math.max(1, System.nanoTime() - start),
+            learner.getInfo());
+
+        if (!interleaved) {
+          // train on the rows that were tested in the previous period
+          for (int b = 0; b < nbBuffered; b++) {
+            int slot = (head + b) % capacity;
+            train(slot, classValues[slot]);
+          }
+          head = first;
+          nbBuffered = i;
+        }
+      }
+    }
+    return new Result(nbRows, System.nanoTime() - start, getWindowAccuracy(), getFadingAccuracy());
+  }
+
+  /* Adds a tested example to the window and fading accuracies. */
+  private void record(boolean correct) {
+    if (windowSize > 0) {
+      if (windowFill == windowSize) windowCorrect -= window[windowNext];
+      else windowFill++;
+      window[windowNext] = (byte) (correct ? 1 : 0);
+      windowCorrect += window[windowNext];
+      windowNext = (windowNext + 1) % windowSize;
+    }
+    if (fadingFactor > 0) {
+      fadingCorrect = fadingFactor * fadingCorrect + (correct ? 1 : 0);
+      fadingTotal = fadingFactor * fadingTotal + 1;
+    }
+  }
+
+  /* The accuracy over the last windowSize tested examples, or NaN. */
+  private double getWindowAccuracy() {
+    return windowFill == 0 ? Double.NaN : (double) windowCorrect / windowFill;
+  }
+
+  /* The fading-factor accuracy, or NaN. */
+  private double getFadingAccuracy() {
+    return fadingTotal == 0 ? Double.NaN : fadingCorrect / fadingTotal;
+  }
+
+  /** The outcome of an evaluation. */
+  public static final class Result {
+
+    /** the number of rows that were read */
+    public final long nbExamples;
+    /** the time of the evaluation */
+    public final long nanos;
+    /** the accuracy over the last window at the end, or NaN without a window */
+    public final double windowAccuracy;
+    /** the fading-factor accuracy at the end, or NaN without a fading factor */
+    public final double fadingAccuracy;
+
+    Result(long nbExamples, long nanos, double windowAccuracy, double fadingAccuracy) {
+      this.nbExamples = nbExamples;
+      this.nanos = nanos;
+      this.windowAccuracy = windowAccuracy;
+      this.fadingAccuracy = fadingAccuracy;
+    }
+
+    /** @return the number of examples per second, testing and training included */
+    public double getExamplesPerSecond() {
+      return nbExamples * 1e9 / Math.max(1, nanos);
+    }
+  }
+
+  /* Writes the predictions through a buffer, as text or as binary records. */
+  private abstract static class PredictionWriter implements Closeable {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    abstract void write(double prob, int classValue) throws IOException;
+
+    /* Returns null for Predictions.NONE. */
+    static PredictionWriter open(String out, Predictions predictions) throws IOException {
+      switch (predictions) {
+        case TEXT:
+          BufferedWriter text = new BufferedWriter(new FileWriter(out + ".probs"), BUFFER_SIZE);
+          return new PredictionWriter() {
+            @Override
+            void write(double prob, int classValue) throws IOException {
+              text.write(Double.toString(prob));
+              text.write('\t');
+              text.write(Integer.toString(classValue));
+              text.newLine();
+            }
+
+            @Override
+            public void close() throws IOException {
+              text.close();
+            }
+          };
+        case BINARY:
+          DataOutputStream binary =
+              new DataOutputStream(
+                  new BufferedOutputStream(
+                      new FileOutputStream(out + ".probs.bin"), BUFFER_SIZE));
+          return new PredictionWriter() {
+            @Override
+            void write(double prob, int classValue) throws IOException {
+              binary.writeDouble(prob);
+              binary.writeByte(classValue);
+            }
+
+            @Override
+            public void close() throws IOException {
+              binary.close();
+            }
+          };
+        default:
+          return null;
+      }
+    }
+  }
+
+  /**
+   * Runs the experiments of the main methods of Vfdt and Perceptron with the evaluator. Options:
+   * -interleaved, -window=size, -fading=alpha, -writeOutAllPredictions[=binary].
+   */
+  public static void main(String[] args) throws IOException {
+    int nbPositional = 0;
+    while (nbPositional < args.length && !args[nbPositional].startsWith("-")) nbPositional++;
+    String[] options = Arrays.copyOfRange(args, nbPositional, args.length);
+
+    PrequentialEvaluator evaluator;
+    PrimitiveData data;
+    double thresh;
+    String out;
+    int reportingPeriod;
+    if (args.length > 0 && args[0].equals("vfdt") && nbPositional == 8) {
+      Vfdt vfdt =
+          new Vfdt(
+              NbFeatureValues.parse(args[5]),
+              Double.parseDouble(args[1]),
+              Double.parseDouble(args[2]),
+              Integer.parseInt(args[3]));
+      evaluator = of(vfdt);
+      data = new PrimitiveData(args[4], ",");
+      thresh = 0.5;
+      out = args[6] + ".vfdt";
+      reportingPeriod = Integer.parseInt(args[7]);
+    } else if (args.length > 0 && args[0].equals("pc") && nbPositional == 5) {
+      data = new PrimitiveData(args[2], ",");
+      evaluator = of(new Perceptron(data.getNbFeatures(), Double.parseDouble(args[1])));
+      thresh = 0;
+      out = args[3] + ".pc";
+      reportingPeriod = Integer.parseInt(args[4]);
+    } else {
+      System.err.println(
+          "Usage: java PrequentialEvaluator vfdt <delta> <tau> <nmin> <data set>"
+              + " <nbFeatureValues> <output file> <reportingPeriod> [options]\n"
+              + "       java PrequentialEvaluator pc <learningRate> <data set> <output file>"
+              + " <reportingPeriod> [options]\n"
+              + "Options: -interleaved -window=<size> -fading=<alpha>"
+              + " -writeOutAllPredictions[=binary]");
+      throw new Error("Unexpected arguments.");
+    }
+
+    Predictions predictions = Predictions.NONE;
+    for (String option : options) {
+      if (option.equals("-interleaved")) {
+        evaluator.setInterleaved(true);
+      } else if (option.startsWith("-window=")) {
+        evaluator.setWindowSize(Integer.parseInt(option.substring(8)));
+      } else if (option.startsWith("-fading=")) {
+        evaluator.setFadingFactor(Double.parseDouble(option.substring(8)));
+      } else if (option.contains("writeOutAllPredictions")) {
+        predictions = option.endsWith("=binary") ? Predictions.BINARY : Predictions.TEXT;
+      } else {
+        throw new Error("Unknown option " + option);
+      }
+    }
+
+    Result result = evaluator.evaluate(data, thresh, out, reportingPeriod, predictions);
+    System.out.printf(
+        "%d examples in %.1f s: %.0f examples/s%n",
+        result.nbExamples, result.nanos / 1e9, result.getExamplesPerSecond());
+  }
+}
@@ -0,0 +1,131 @@
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This class reads the same csv files as Data, but without allocating anything per example.
+ *
+ * <p>Rows are scanned from bytes into reusable int[] or double[] buffers by a RowCursor. The
+ * learners consume these rows through their primitive update and makePrediction overloads:
+ *
+ * <pre>
+ * RowCursor cursor = data.intCursor();
+ * while (cursor.next()) vfdt.update(cursor.intRow(), cursor.classValue());
+ * </pre>
+ *
+ * <p>The files are read in alphabetical order, like Data does.
+ */
+public class PrimitiveData {
+
+  private final File[] dataFiles;
+  private final byte sep;
+  private final boolean memoryMapped;
+
+  /**
+   * @param dataDir the directory with the csv files
+   * @param sep the separator, which must be a single ASCII character
+   */
+  public PrimitiveData(String dataDir, String sep) throws FileNotFoundException {
+    this(dataDir, sep, false);
+  }
+
+  /**
+   * @param dataDir the directory with the csv files
+   * @param sep the separator, which must be a single ASCII character
+   * @param memoryMapped true to memory-map the files (see MappedData) instead of reading them
+   */
+  public PrimitiveData(String dataDir, String sep, boolean memoryMapped)
+      throws FileNotFoundException {
+    this.memoryMapped = memoryMapped;
+    if (sep.length() != 1 || sep.charAt(0) > 127) {
+      throw new IllegalArgumentException("The separator must be a single ASCII character");
+    }
+    this.sep = (byte) sep.charAt(0);
+    dataFiles = Data.listDataFiles(dataDir);
+  }
+
+  /** @return a new cursor that parses the features to an int[] */
+  public RowCursor intCursor() {
+    return cursor(false);
+  }
+
+  /** @return a new cursor that parses the features to a double[] */
+  public RowCursor doubleCursor() {
+    return cursor(true);
+  }
+
+  private RowCursor cursor(boolean parseDoubles) {
+    if (memoryMapped) {
+      return new MappedRowCursor(dataFiles, sep, parseDoubles, MappedData.DEFAULT_WINDOW_SIZE);
+    }
+    return new StreamRowCursor(dataFiles, sep, parseDoubles);
+  }
+
+  /**
+   * Get the number of features, based on the first line of data
+   *
+   * @return number of features
+   */
+  public int getNbFeatures() throws IOException {
+    try (RowCursor cursor = doubleCursor()) {
+      return cursor.next() ? cursor.nbFeatures() : 0;
+    }
+  }
+}
+
+/** A RowCursor that reads the files through a FileChannel into one reusable heap buffer. */
+class StreamRowCursor extends RowCursor {
+
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  private final File[] dataFiles;
+  private int currentFileIndex = -1;
+  private FileChannel currentFile = null;
+  private ByteBuffer readBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+  StreamRowCursor(File[] dataFiles, byte sep, boolean parseDoubles) {
+    super(sep, parseDoubles);
+    this.dataFiles = dataFiles;
+  }
+
+  @Override
+  protected boolean openNextFile() throws IOException {
+    close();
+    if (currentFileIndex + 1 >= dataFiles.length) return false;
+    currentFileIndex++;
+    currentFile = FileChannel.open(dataFiles[currentFileIndex].toPath(), StandardOpenOption.READ);
+    readBuffer.clear();
+    readBuffer.flip();
+    buffer = readBuffer;
+    return true;
+  }
+
+  @Override
+  protected boolean refill() throws IOException {
+    if (readBuffer.position() == 0 && readBuffer.limit() == readBuffer.capacity()) {
+      // a single line does not fit in the buffer
+      ByteBuffer larger = ByteBuffer.allocate(readBuffer.capacity() * 2);
+      larger.put(readBuffer);
+      readBuffer = larger;
+    } else {
+      readBuffer.compact();
+    }
+    int read = 0;
+    while (read == 0) read = currentFile.read(readBuffer);
+    readBuffer.flip();
+    buffer = readBuffer;
+    return read > 0;
+  }
+
+  /** Closes the opened data file (if any). */
+  @Override
+  public void close() throws IOException {
+    if (currentFile != null) {
+      currentFile.close();
+      currentFile = null;
+    }
+  }
+}
@@ -0,0 +1,273 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class scans csv rows straight from bytes into reusable primitive buffers.
+ *
+ * <p>Contrary to the iterator of Data, no String, boxed value or Example is allocated per row. The
+ * row returned by intRow() or doubleRow() is overwritten by every call to next(), so copy it if
+ * it has to be kept.
+ *
+ * <p>All rows must have the same number of fields as the first row. The last value of a row is
+ * the class value, all other values are features. Subclasses decide where the bytes come from.
+ */
+public abstract class RowCursor implements Closeable {
+
+  private static final double[] POW10 = {
+    1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16,
+    1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+  };
+
+  private final byte sep;
+  private final boolean parseDoubles;
+
+  /**
+   * The bytes of the current file that are not parsed yet start at buffer.position() and end at
+   * buffer.limit().
+   */
+  protected ByteBuffer buffer;
+
+  private int[] intRow;
+  private double[] doubleRow;
+  private int nbFeatures = -1;
+  private int classValue;
+  private long rowNumber;
+
+  /**
+   * @param sep the separator between the values of a row
+   * @param parseDoubles true if the features should be parsed to doubleRow(), false if they
+   *     should be parsed to intRow()
+   */
+  protected RowCursor(byte sep, boolean parseDoubles) {
+    this.sep = sep;
+    this.parseDoubles = parseDoubles;
+  }
+
+  /**
+   * Makes buffer point to the bytes of the next file.
+   *
+   * @return false if there are no files left
+   */
+  protected abstract boolean openNextFile() throws IOException;
+
+  /**
+   * Makes more bytes of the current file available. The bytes from buffer.position() up to
+   * buffer.limit() have not been parsed yet and must stay available at the new buffer.position().
+   *
+   * @return false if the end of the current file was reached
+   */
+  protected abstract boolean refill() throws IOException;
+
+  /**
+   * Moves the cursor to the next row.
+   *
+   * @return true if there was a next row
+   */
+  public boolean next() {
+    try {
+      while (true) {
+        if (buffer == null) {
+          if (!openNextFile()) return false;
+          continue;
+        }
+        int start = buffer.position();
+        int end = indexOfNewline(start, buffer.limit());
+        if (end < 0) {
+          if (refill()) continue;
+          // end of file: the remaining bytes (if any) form the last line of the file
+          ByteBuffer last = buffer;
+          buffer = null;
+          if (parseLine(last, last.position(), last.limit())) return true;
+          continue;
+        }
+        buffer.position(end + 1);
+        if (parseLine(buffer, start, end)) return true;
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private int indexOfNewline(int from, int to) {
+    ByteBuffer b = buffer;
+    for (int i = from; i < to; i++) {
+      if (b.get(i) == '\n') return i;
+    }
+    return -1;
+  }
+
+  /**
+   * Parses the bytes [from, to) of b into the row buffers.
+   *
+   * @return false if the line was empty
+   */
+  private boolean parseLine(ByteBuffer b, int from, int to) {
+    if (to > from && b.get(to - 1) == '\r') to--;
+    if (to <= from) return false;
+    if (nbFeatures < 0) initRow(b, from, to);
+
+    int field = 0;
+    int start = from;
+    for (int i = from; i <= to; i++) {
+      if (i == to || b.get(i) == sep) {
+        if (field < nbFeatures) {
+          if (parseDoubles) doubleRow[field] = parseDouble(b, start, i);
+          else intRow[field] = parseInt(b, start, i);
+        } else if (field == nbFeatures) {
+          classValue = parseInt(b, start, i);
+        } else {
+          throw new IllegalStateException(
+              "Row " + rowNumber + " has more than " + (nbFeatures + 1) + " fields");
+        }
+        field++;
+        start = i + 1;
+      }
+    }
+    if (field != nbFeatures + 1) {
+      throw new IllegalStateException(
+          "Row " + rowNumber + " has " + field + " fields instead of " + (nbFeatures + 1));
+    }
+    rowNumber++;
+    return true;
+  }
+
+  private void initRow(ByteBuffer b, int from, int to) {
+    int nbFields = 1;
+    for (int i = from; i < to; i++) {
+      if (b.get(i) == sep) nbFields++;
+    }
+    nbFeatures = nbFields - 1;
+    if (parseDoubles) doubleRow = new double[nbFeatures];
+    else intRow = new int[nbFeatures];
+  }
+
+  /** @return the number of features, or -1 if no row was read yet */
+  public int nbFeatures() {
+    return nbFeatures;
+  }
+
+  /** @return the features of the current row (only in int mode) */
+  public int[] intRow() {
+    return intRow;
+  }
+
+  /** @return the features of the current row (only in double mode) */
+  public double[] doubleRow() {
+    return doubleRow;
+  }
+
+  /** @return the class value of the current row */
+  public int classValue() {
+    return classValue;
+  }
+
+  /** @return the number of rows read so far */
+  public long rowNumber() {
+    return rowNumber;
+  }
+
+  /**
+   * Parses an integer in [from, to) without allocating.
+   *
+   * @throws NumberFormatException if the bytes are not an integer
+   */
+  static int parseInt(ByteBuffer b, int from, int to) {
+    int i = from;
+    boolean negative = false;
+    if (i < to && (b.get(i) == '-' || b.get(i) == '+')) {
+      negative = b.get(i) == '-';
+      i++;
+    }
+    if (i == to) throw numberFormatException(b, from, to);
+    long value = 0;
+    for (; i < to; i++) {
+      int d = b.get(i) - '0';
+      if (d < 0 || d > 9) throw numberFormatException(b, from, to);
+      value = value * 10 + d;
+      if (value > (long) Integer.MAX_VALUE + 1) throw numberFormatException(b, from, to);
+    }
+    value = negative ? -value : value;
+    if (value > Integer.MAX_VALUE) throw numberFormatException(b, from, to);
+    return (int) value;
+  }
+
+  /**
+   * Parses a double in [from, to).
+   *
+   * <p>Plain decimal numbers with at most 15 significant digits and a small exponent are converted
+   * with a single correctly rounded multiplication or division, which gives exactly the same
+   * result as Double.parseDouble. Everything else falls back to Double.parseDouble.
+   */
+  static double parseDouble(ByteBuffer b, int from, int to) {
+    int i = from;
+    boolean negative = false;
+    if (i < to && (b.get(i) == '-' || b.get(i) == '+')) {
+      negative = b.get(i) == '-';
+      i++;
+    }
+    long mantissa = 0;
+    int nbDigits = 0;
+    int significantDigits = 0;
+    int exponent = 0;
+    for (; i < to; i++) {
+      int d = b.get(i) - '0';
+      if (d < 0 || d > 9) break;
+      mantissa = mantissa * 10 + d;
+      nbDigits++;
+      if (mantissa != 0) significantDigits++;
+    }
+    if (i < to && b.get(i) == '.') {
+      for (i++; i < to; i++) {
+        int d = b.get(i) - '0';
+        if (d < 0 || d > 9) break;
+        mantissa = mantissa * 10 + d;
+        nbDigits++;
+        if (mantissa != 0) significantDigits++;
+        exponent--;
+      }
+    }
+    if (i < to && (b.get(i) == 'e' || b.get(i) == 'E')) {
+      i++;
+      boolean negativeExponent = false;
+      if (i < to && (b.get(i) == '-' || b.get(i) == '+')) {
+        negativeExponent = b.get(i) == '-';
+        i++;
+      }
+      int e = 0;
+      int nbExponentDigits = 0;
+      for (; i < to && nbExponentDigits < 5; i++, nbExponentDigits++) {
+        int d = b.get(i) - '0';
+        if (d < 0 || d > 9) break;
+        e = e * 10 + d;
+      }
+      if (nbExponentDigits == 0) return slowParseDouble(b, from, to);
+      exponent += negativeExponent ? -e : e;
+    }
+    if (i != to || nbDigits == 0 || significantDigits > 15) return slowParseDouble(b, from, to);
+
+    double value = mantissa;
+    if (mantissa != 0 && exponent != 0) {
+      if (exponent < 0 && exponent >= -22) value = value / POW10[-exponent];
+      else if (exponent > 0 && exponent <= 22) value = value * POW10[exponent];
+      else return slowParseDouble(b, from, to);
+    }
+    return negative ? -value : value;
+  }
+
+  private static double slowParseDouble(ByteBuffer b, int from, int to) {
+    return Double.parseDouble(asString(b, from, to));
+  }
+
+  private static NumberFormatException numberFormatException(ByteBuffer b, int from, int to) {
+    return new NumberFormatException("For input string: \"" + asString(b, from, to) + "\"");
+  }
+
+  private static String asString(ByteBuffer b, int from, int to) {
+    byte[] bytes = new byte[to - from];
+    for (int i = from; i < to; i++) bytes[i - from] = b.get(i);
+    return new String(bytes, StandardCharsets.US_ASCII);
+  }
+}
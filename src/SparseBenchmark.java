@@ -0,0 +1,53 @@
+import java.util.Random;
+
+/**
+ * Compares dense and sparse training of the Perceptron on random in-memory data with a growing
+ * fraction of zero features. Both models are checked to be identical.
+ */
+public class SparseBenchmark {
+
+  public static void main(String[] args) {
+    int nbFeatures = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+    int nbExamples = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+    int repetitions = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+
+    System.out.printf(
+        "%d features, %d examples%n%10s %14s %14s %8s%n",
+        nbFeatures, nbExamples, "zeros", "dense ex/s", "sparse ex/s", "speedup");
+    for (double sparsity : new double[] {0, 0.5, 0.9, 0.99, 0.999}) {
+      Random random = new Random(5);
+      double[][] dense = new double[nbExamples][nbFeatures];
+      SparseExample[] sparse = new SparseExample[nbExamples];
+      for (int r = 0; r < nbExamples; r++) {
+        for (int i = 0; i < nbFeatures; i++) {
+          if (random.nextDouble() >= sparsity) dense[r][i] = random.nextGaussian();
+        }
+        sparse[r] = SparseExample.fromDense(dense[r], dense[r][0] > 0 ? 1 : 0);
+      }
+
+      double denseRate = 0;
+      double sparseRate = 0;
+      Perceptron densePerceptron = null;
+      Perceptron sparsePerceptron = null;
+      for (int rep = 0; rep < repetitions; rep++) {
+        densePerceptron = new Perceptron(nbFeatures, 0.01);
+        long start = System.nanoTime();
+        for (int r = 0; r < nbExamples; r++) densePerceptron.update(dense[r], sparse[r].classValue);
+        denseRate = nbExamples / ((System.nanoTime() - start) / 1e9);
+
+        sparsePerceptron = new Perceptron(nbFeatures, 0.01);
+        start = System.nanoTime();
+        for (int r = 0; r < nbExamples; r++) sparsePerceptron.update(sparse[r]);
+        sparseRate = nbExamples / ((System.nanoTime() - start) / 1e9);
+      }
+      for (int r = 0; r < 100; r++) {
+        double expected = densePerceptron.makePrediction(dense[r]);
+        if (expected != sparsePerceptron.makePrediction(sparse[r])) {
+          throw new AssertionError("The dense and sparse models differ");
+        }
+      }
+      System.out.printf(
+          "%10s %14.0f %14.0f %8.2f%n", sparsity, denseRate, sparseRate, sparseRate / denseRate);
+    }
+  }
+}
@@ -0,0 +1,178 @@
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * This class reads the data files of a directory as SparseExamples, keeping only the non-zero
+ * feature values. Two file formats are accepted, also mixed in one directory:
+ *
+ * <ul>
+ *   <li>.csv files, as read by DoubleData: the feature values followed by the class;
+ *   <li>.svm or .libsvm files: the class followed by index:value pairs with increasing 1-based
+ *       indices. A class of 0 or less (e.g. -1) is class 0, any other class is class 1.
+ * </ul>
+ *
+ * <p>The files are read in alphabetical order.
+ */
+public class SparseData implements Iterable<SparseExample> {
+
+  private final File[] dataFiles;
+  private final String sep;
+
+  /**
+   * @param dataDir the directory with the data files
+   * @param sep the separator of the csv lines
+   */
+  public SparseData(String dataDir, String sep) {
+    this.sep = sep;
+    dataFiles =
+        new File(dataDir)
+            .listFiles(
+                (file, s) -> s.endsWith(".csv") || s.endsWith(".svm") || s.endsWith(".libsvm"));
+    if (dataFiles == null) throw new IllegalArgumentException(dataDir + " is not a directory");
+    Arrays.sort(dataFiles);
+  }
+
+  /** An iterator over the examples that can be closed before the end of the data. */
+  public interface SparseIterator extends Iterator<SparseExample>, Closeable {
+    /** Closes the opened data file (if any). */
+    @Override
+    void close();
+  }
+
+  /**
+   * Parses one line of data.
+   *
+   * @param line a csv or libsvm line
+   * @param sep the separator of a csv line
+   * @param libsvm whether the line is in libsvm format
+   * @return the example
+   * @throws IllegalArgumentException if the line is not valid, with the line in the message
+   */
+  static SparseExample parseLine(String line, String sep, boolean libsvm) {
+    int[] indices = new int[16];
+    double[] values = new double[16];
+    int nnz = 0;
+    int classValue;
+    if (libsvm) {
+      String[] tokens = line.trim().split("\\s+");
+      classValue = Double.parseDouble(tokens[0]) > 0 ? 1 : 0;
+      int last = 0; /* the last 1-based index */
+      for (int t = 1; t < tokens.length; t++) {
+        int colon = tokens[t].indexOf(':');
+        if (colon < 1) throw invalid(line, "expected index:value, got " + tokens[t]);
+        int index;
+        double value;
+        try {
+          index = Integer.parseInt(tokens[t].substring(0, colon));
+          value = Double.parseDouble(tokens[t].substring(colon + 1));
+        } catch (NumberFormatException e) {
+          throw invalid(line, "expected index:value, got " + tokens[t]);
+        }
+        // index 0 would be the bias of the Perceptron
+        if (index <= last) {
+          throw invalid(line, "expected an index above " + last + ", got " + index);
+        }
+        last = index;
+        if (value == 0) continue;
+        if (nnz == indices.length) {
+          indices = Arrays.copyOf(indices, 2 * nnz);
+          values = Arrays.copyOf(values, 2 * nnz);
+        }
+        indices[nnz] = index - 1;
+        values[nnz++] = value;
+      }
+    } else {
+      String[] tokens = line.split(sep);
+      classValue = Integer.parseInt(tokens[tokens.length - 1].trim());
+      for (int i = 0; i < tokens.length - 1; i++) {
+        double value = Double.parseDouble(tokens[i]);
+        if (value == 0) continue;
+        if (nnz == indices.length) {
+          indices = Arrays.copyOf(indices, 2 * nnz);
+          values = Arrays.copyOf(values, 2 * nnz);
+        }
+        indices[nnz] = i;
+        values[nnz++] = value;
+      }
+    }
+    return new SparseExample(
+        Arrays.copyOf(indices, nnz), Arrays.copyOf(values, nnz), classValue);
+  }
+
+  private static IllegalArgumentException invalid(String line, String reason) {
+    return new IllegalArgumentException("Invalid libsvm line \"" + line + "\": " + reason);
+  }
+
+  /**
+   * Returns an iterator over all examples
+   *
+   * @return iterator over all examples
+   */
+  @Override
+  public SparseIterator iterator() {
+    return new SparseIterator() {
+
+      private int fileIndex = 0;
+      private BufferedReader reader = null;
+      private boolean libsvm = false;
+      private String nextLine = null;
+
+      @Override
+      public boolean hasNext() {
+        if (nextLine != null) return true;
+        try {
+          while (true) {
+            if (reader == null) {
+              if (fileIndex == dataFiles.length) return false;
+              libsvm = !dataFiles[fileIndex].getName().endsWith(".csv");
+              reader = new BufferedReader(new FileReader(dataFiles[fileIndex++]));
+            }
+            nextLine = reader.readLine();
+            if (nextLine == null) {
+              closeReader();
+            } else if (!nextLine.trim().isEmpty()) {
+              return true;
+            } else {
+              nextLine = null;
+            }
+          }
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }
+
+      @Override
+      public SparseExample next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        String line = nextLine;
+        nextLine = null;
+        return parseLine(line, sep, libsvm);
+      }
+
+      @Override
+      public void close() {
+        closeReader();
+        fileIndex = dataFiles.length;
+        nextLine = null;
+      }
+
+      private void closeReader() {
+        if (reader != null) {
+          try {
+            reader.close();
+          } catch (IOException e) {
+            // nothing to do, the file was only read
+          }
+          reader = null;
+        }
+      }
+    };
+  }
+}
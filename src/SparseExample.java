@@ -0,0 +1,53 @@
+
+/**
+ * An example that only stores its non-zero feature values. indices[k] is the (0-based) feature of
+ * values[k], and the indices are strictly increasing.
+ */
+public class SparseExample {
+
+  public final int[] indices;
+  public final double[] values;
+  public final int classValue;
+
+  public SparseExample(int[] indices, double[] values, int classValue) {
+    if (indices.length != values.length) {
+      throw new IllegalArgumentException("indices and values should have the same length");
+    }
+    if (indices.length > 0 && indices[0] < 0) {
+      throw new IllegalArgumentException("The indices should not be negative");
+    }
+    for (int k = 1; k < indices.length; k++) {
+      if (indices[k] <= indices[k - 1]) {
+        throw new IllegalArgumentException("The indices should be strictly increasing");
+      }
+    }
+    this.indices = indices;
+    this.values = values;
+    this.classValue = classValue;
+  }
+
+  /**
+   * @param attributeValues the dense feature values
+   * @param classValue the class
+   * @return the example with only the non-zero values of attributeValues
+   */
+  public static SparseExample fromDense(double[] attributeValues, int classValue) {
+    int nnz = 0;
+    for (double v : attributeValues) if (v != 0) nnz++;
+    int[] indices = new int[nnz];
+    double[] values = new double[nnz];
+    int k = 0;
+    for (int i = 0; i < attributeValues.length; i++) {
+      if (attributeValues[i] != 0) {
+        indices[k] = i;
+        values[k++] = attributeValues[i];
+      }
+    }
+    return new SparseExample(indices, values, classValue);
+  }
+
+  /** @return the number of non-zero values */
+  public int getNbNonZeros() {
+    return indices.length;
+  }
+}
@@ -0,0 +1,72 @@
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures the latency of one round of split evaluation of a VFDT leaf, sequentially and with a
+ * SplitEvaluator, for a growing number of features. The row where the speedup passes 1 is the
+ * break-even point, which is a good value for the threshold of the SplitEvaluator.
+ */
+public class SplitBenchmark {
+
+  public static void main(String[] args) {
+    int nbValues = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+    int maxFeatures = args.length > 1 ? Integer.parseInt(args[1]) : 4096;
+    int parallelism =
+        args.length > 2 ? Integer.parseInt(args[2]) : ForkJoinPool.commonPool().getParallelism();
+
+    ForkJoinPool pool = new ForkJoinPool(parallelism);
+    System.out.printf(
+        "%d values per feature, %d threads%n%10s %10s %14s %14s %8s%n",
+        nbValues, parallelism, "features", "counts", "sequential us", "parallel us", "speedup");
+    for (int nbFeatures = 8; nbFeatures <= maxFeatures; nbFeatures *= 2) {
+      VfdtNode node = randomLeaf(nbFeatures, nbValues);
+      int counts = node.getNijkOffsets()[nbFeatures];
+      // chunks of about 1/4 of the work per thread, but always in parallel
+      SplitEvaluator parallel =
+          new SplitEvaluator(pool, Math.max(1, counts / (4 * parallelism)));
+      double sequentialTime = time(node, null);
+      double parallelTime = time(node, parallel);
+      System.out.printf(
+          "%10d %10d %14.2f %14.2f %8.2f%n",
+          nbFeatures, counts, sequentialTime, parallelTime, sequentialTime / parallelTime);
+    }
+    pool.shutdown();
+  }
+
+  private static VfdtNode randomLeaf(int nbFeatures, int nbValues) {
+    int[] nbFeatureValues = new int[nbFeatures];
+    int[] possibleFeatures = new int[nbFeatures];
+    for (int i = 0; i < nbFeatures; i++) {
+      nbFeatureValues[i] = nbValues;
+      possibleFeatures[i] = i;
+    }
+    VfdtNode node = new VfdtNode(nbFeatureValues, possibleFeatures);
+    Random random = new Random(nbFeatures);
+    int[] x = new int[nbFeatures];
+    for (int n = 0; n < 2000; n++) {
+      for (int i = 0; i < nbFeatures; i++) x[i] = random.nextInt(nbValues);
+      node.addExample(x, random.nextInt(2));
+    }
+    return node;
+  }
+
+  /* @return the average time of one round in microseconds */
+  private static double time(VfdtNode node, SplitEvaluator evaluator) {
+    double checksum = 0;
+    int rounds = 0;
+    long start = 0;
+    // the first half of the rounds is warm-up
+    for (int r = 0; r < 2000; r++) {
+      if (r == 1000) start = System.nanoTime();
+      SplitEvaluator.Result result =
+          evaluator == null
+              ? SplitEvaluator.sequential(node, SplitCriterion.ENTROPY)
+              : evaluator.evaluate(node, SplitCriterion.ENTROPY);
+      checksum += result.best;
+      if (r >= 1000) rounds++;
+    }
+    double micros = (System.nanoTime() - start) / 1e3 / rounds;
+    if (checksum < 0) System.out.println(checksum);
+    return micros;
+  }
+}
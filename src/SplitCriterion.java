@@ -0,0 +1,110 @@
+
+/**
+ * This interface defines the impurity measure a VFDT uses to choose split features.
+ *
+ * <p>A criterion gives the impurity of a set of examples multiplied by the size of the set. The
+ * gain of a split is then (W(S) - sum_j W(S_j)) / |S|, where W is weightedImpurity and S_j are the
+ * subsets of the values of the feature. The range R of the gain is used in the Hoeffding bound
+ * epsilon = sqrt(R^2 ln(1/delta) / (2n)).
+ */
+public interface SplitCriterion {
+
+  /** Information gain, the criterion of the original VFDT. */
+  SplitCriterion ENTROPY = new Entropy();
+
+  /** Gini impurity, which needs no logarithms. */
+  SplitCriterion GINI = new Gini();
+
+  /** Misclassification error. */
+  SplitCriterion MISCLASSIFICATION = new Misclassification();
+
+  /**
+   * @param zeros the number of examples of class 0
+   * @param ones the number of examples of class 1
+   * @return the impurity of the set times its size
+   */
+  double weightedImpurity(int zeros, int ones);
+
+  /** @return the range R of the gain, for two classes */
+  double range();
+
+  /**
+   * @param name entropy, gini or misclassification
+   * @return the criterion with the given name
+   */
+  static SplitCriterion forName(String name) {
+    switch (name.toLowerCase()) {
+      case "entropy":
+      case "infogain":
+        return ENTROPY;
+      case "gini":
+        return GINI;
+      case "misclassification":
+      case "error":
+        return MISCLASSIFICATION;
+      default:
+        throw new IllegalArgumentException("Unknown split criterion " + name);
+    }
+  }
+
+  /** n * H = n log2 n - sum_k n_k log2 n_k, with the n log n table of VfdtNode. */
+  final class Entropy implements SplitCriterion {
+    private Entropy() {}
+
+    @Override
+    public double weightedImpurity(int zeros, int ones) {
+      return VfdtNode.nlogn(zeros + ones) - VfdtNode.nlogn(zeros) - VfdtNode.nlogn(ones);
+    }
+
+    @Override
+    public double range() {
+      return 1; // log2 of the number of classes
+    }
+
+    @Override
+    public String toString() {
+      return "entropy";
+    }
+  }
+
+  /** n * (1 - p0^2 - p1^2) = 2 * n0 * n1 / n. */
+  final class Gini implements SplitCriterion {
+    private Gini() {}
+
+    @Override
+    public double weightedImpurity(int zeros, int ones) {
+      int n = zeros + ones;
+      return n == 0 ? 0 : 2.0 * zeros * ones / n;
+    }
+
+    @Override
+    public double range() {
+      return 0.5; // 1 - 1 / number of classes
+    }
+
+    @Override
+    public String toString() {
+      return "gini";
+    }
+  }
+
+  /** n * (1 - max_k p_k) = min(n0, n1). */
+  final class Misclassification implements SplitCriterion {
+    private Misclassification() {}
+
+    @Override
+    public double weightedImpurity(int zeros, int ones) {
+      return Math.min(zeros, ones);
+    }
+
+    @Override
+    public double range() {
+      return 0.5; // 1 - 1 / number of classes
+    }
+
+    @Override
+    public String toString() {
+      return "misclassification";
+    }
+  }
+}
@@ -0,0 +1,167 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * This class finds the best and second best split feature of a VFDT leaf, by evaluating the
+ * candidate features in parallel on a ForkJoin pool.
+ *
+ * <p>The work of a round is the number of counts that have to be scanned. Below the threshold the
+ * features are evaluated sequentially, above it they are split in chunks of about threshold counts
+ * that are evaluated in parallel and reduced to the top two. The result is the same as that of the
+ * sequential evaluation, including how ties are broken.
+ *
+ * <p>Use Vfdt.setSplitEvaluator to let a tree use it.
+ */
+public class SplitEvaluator {
+
+  /** The default number of counts below which a round stays sequential. */
+  public static final int DEFAULT_THRESHOLD = 1 << 14;
+
+  private final ForkJoinPool pool;
+  private final int threshold;
+
+  /**
+   * @param pool the pool that evaluates the features
+   * @param threshold the number of counts below which a round stays sequential
+   */
+  public SplitEvaluator(ForkJoinPool pool, int threshold) {
+    if (threshold < 1) throw new IllegalArgumentException("threshold must be positive");
+    this.pool = pool;
+    this.threshold = threshold;
+  }
+
+  /** Creates an evaluator on the common pool with the default threshold. */
+  public SplitEvaluator() {
+    this(ForkJoinPool.commonPool(), DEFAULT_THRESHOLD);
+  }
+
+  /** The best and second best information gain of one round. */
+  public static final class Result {
+    /** the best feature */
+    public final int feature;
+    /** the information gain of the best feature */
+    public final double best;
+    /** the second highest information gain */
+    public final double secondBest;
+
+    Result(int feature, double best, double secondBest) {
+      this.feature = feature;
+      this.best = best;
+      this.secondBest = secondBest;
+    }
+  }
+
+  /**
+   * Evaluates all possible split features of a leaf.
+   *
+   * @param node the leaf to evaluate
+   * @param criterion the impurity measure
+   * @return the best and second best feature
+   */
+  public Result evaluate(VfdtNode node, SplitCriterion criterion) {
+    int[] features = node.getPossibleSplitFeatures();
+    double parentInformation = node.parentInformation(criterion);
+    if (work(node, features, 0, features.length) < threshold) {
+      return sequential(node, criterion, features, 0, features.length, parentInformation);
+    }
+    return pool.invoke(
+        new EvaluationTask(node, criterion, features, 0, features.length, parentInformation));
+  }
+
+  /**
+   * Evaluates all possible split features of a leaf on the calling thread.
+   *
+   * @param node the leaf to evaluate
+   * @param criterion the impurity measure
+   * @return the best and second best feature
+   */
+  public static Result sequential(VfdtNode node, SplitCriterion criterion) {
+    int[] features = node.getPossibleSplitFeatures();
+    return sequential(
+        node, criterion, features, 0, features.length, node.parentInformation(criterion));
+  }
+
+  /* Evaluates features[from, to). */
+  private static Result sequential(
+      VfdtNode node,
+      SplitCriterion criterion,
+      int[] features,
+      int from,
+      int to,
+      double parentInformation) {
+    int a = features[from];
+    double ga = 0;
+    double gb = 0;
+    for (int i = from; i < to; i++) {
+      double g = node.splitEval(features[i], criterion, parentInformation);
+      if (ga < g) {
+        gb = ga;
+        ga = g;
+        a = features[i];
+      } else if (gb < g) {
+        gb = g;
+      }
+    }
+    return new Result(a, ga, gb);
+  }
+
+  /* @return the number of counts of features[from, to) */
+  private static long work(VfdtNode node, int[] features, int from, int to) {
+    int[] offsets = node.getNijkOffsets();
+    long work = 0;
+    for (int i = from; i < to; i++) work += offsets[features[i] + 1] - offsets[features[i]];
+    return work;
+  }
+
+  /**
+   * Combines the results of two adjacent ranges of features, left before right. As in the
+   * sequential loop, the first feature wins a tie.
+   */
+  private static Result merge(Result left, Result right) {
+    if (right.best > left.best) {
+      return new Result(right.feature, right.best, Math.max(left.best, right.secondBest));
+    }
+    return new Result(left.feature, left.best, Math.max(right.best, left.secondBest));
+  }
+
+  private class EvaluationTask extends RecursiveTask<Result> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final VfdtNode node;
+    private final SplitCriterion criterion;
+    private final int[] features;
+    private final int from;
+    private final int to;
+    private final double parentInformation;
+
+    EvaluationTask(
+        VfdtNode node,
+        SplitCriterion criterion,
+        int[] features,
+        int from,
+        int to,
+        double parentInformation) {
+      this.node = node;
+      this.criterion = criterion;
+      this.features = features;
+      this.from = from;
+      this.to = to;
+      this.parentInformation = parentInformation;
+    }
+
+    @Override
+    protected Result compute() {
+      if (to - from < 2 || work(node, features, from, to) <= threshold) {
+        return sequential(node, criterion, features, from, to, parentInformation);
+      }
+      int middle = (from + to) >>> 1;
+      EvaluationTask left =
+          new EvaluationTask(node, criterion, features, from, middle, parentInformation);
+      left.fork();
+      Result right =
+          new EvaluationTask(node, criterion, features, middle, to, parentInformation).compute();
+      return merge(left.join(), right);
+    }
+  }
+}
@@ -0,0 +1,336 @@
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class trains several learners in one pass over the data, for example a grid of
+ * hyperparameters.
+ *
+ * <p>The data is read and parsed once, by the thread that calls run. Every learner runs
+ * makeLearningCurve on a thread of its own, so the learners train in parallel on the available
+ * cores and each writes the same learning curve as when it is run alone on the data. The examples
+ * are handed over in batches of BATCH_SIZE through a bounded queue per learner. All learners share
+ * the same Example objects, which they only read. When a queue is full the reader waits, so the
+ * slowest learner sets the pace and at most (capacity + 2) * BATCH_SIZE examples per learner are
+ * in memory.
+ *
+ * <p>The lines that makeLearningCurve prints for the different learners are interleaved. run
+ * returns the throughput and the memory of every learner.
+ */
+public class SweepRunner<T> {
+
+  static final int BATCH_SIZE = 1024;
+
+  /* How long the reader waits for space in a queue before it checks whether the learner failed. */
+  private static final long POLL_MILLIS = 10;
+
+  /* Marks the end of the data in a queue. */
+  private static final Example<?>[] END = new Example<?>[0];
+
+  private final Data<T> data;
+  private final int capacity;
+  private final List<Lane> lanes = new ArrayList<Lane>();
+
+  /**
+   * @param data the data to read once for all learners
+   * @param capacity the number of batches that a learner can lag behind the reader
+   */
+  public SweepRunner(Data<T> data, int capacity) {
+    if (capacity < 1) throw new IllegalArgumentException("capacity must be positive");
+    this.data = data;
+    this.capacity = capacity;
+  }
+
+  /**
+   * Adds a learner to the sweep.
+   *
+   * @param learner the learner, which must not be trained by anything else during run
+   * @param thresh the threshold for labeling an example as belonging to class "1"
+   * @param out the stem of the output files of makeLearningCurve
+   */
+  public void add(IncrementalLearner<T> learner, double thresh, String out) {
+    lanes.add(new Lane(learner, thresh, out));
+  }
+
+  /**
+   * Reads the data once and makes the learning curve of every learner that was added. Returns when
+   * all learning curves are written. When a learner fails, the others still get all the data and
+   * the failure is thrown afterwards.
+   *
+   * @param reportingPeriod the reporting period of makeLearningCurve
+   * @param writeOutAllPredictions whether to write the predictions of every learner as well
+   * @return the result of every learner, in the order in which they were added
+   * @throws IOException
+   */
+  public List<Result> run(int reportingPeriod, boolean writeOutAllPredictions)
+      throws IOException {
+    if (lanes.isEmpty()) throw new IllegalStateException("There are no learners to run");
+    for (int i = 0; i < lanes.size(); i++) {
+      lanes.get(i).start("sweep-" + i, reportingPeriod, writeOutAllPredictions);
+    }
+    try {
+      try (Data.ExampleIterator<T> iterator = data.iterator()) {
+        while (true) {
+          Example<?>[] batch = new Example<?>[BATCH_SIZE];
+          int n = 0;
+          while (n < BATCH_SIZE && iterator.hasNext()) batch[n++] = iterator.next();
+          if (n > 0) publish(n < BATCH_SIZE ? Arrays.copyOf(batch, n) : batch);
+          if (n < BATCH_SIZE) break;
+        }
+      } finally {
+        // also when reading failed, so that the learners finish the curve of what they got
+        publish(END);
+        for (Lane lane : lanes) lane.thread.join();
+      }
+    } catch (InterruptedException e) {
+      for (Lane lane : lanes) lane.thread.interrupt();
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while reading the data");
+    }
+
+    List<Result> results = new ArrayList<Result>(lanes.size());
+    for (Lane lane : lanes) {
+      if (lane.failure instanceof FileNotFoundException) {
+        throw (FileNotFoundException) lane.failure;
+      } else if (lane.failure instanceof RuntimeException) {
+        throw (RuntimeException) lane.failure;
+      } else if (lane.failure != null) {
+        throw (Error) lane.failure;
+      }
+      results.add(
+          new Result(
+              lane.out,
+              lane.nbExamples,
+              lane.elapsedNanos - lane.waitingNanos,
+              lane.learner.getMemoryUsage()));
+    }
+    return results;
+  }
+
+  /* Hands a batch to every learner that is still running. */
+  private void publish(Example<?>[] batch) throws InterruptedException {
+    for (Lane lane : lanes) {
+      while (!lane.finished) {
+        if (lane.queue.offer(batch, POLL_MILLIS, TimeUnit.MILLISECONDS)) break;
+      }
+    }
+  }
+
+  /** The outcome of one learner of a sweep. */
+  public static final class Result {
+
+    /** the stem of the output files */
+    public final String out;
+    /** the number of examples the learner read */
+    public final long nbExamples;
+    /** the time the learner spent on the examples, without waiting for the reader */
+    public final long busyNanos;
+    /** the memory of the model at the end, see IncrementalLearner.getMemoryUsage */
+    public final long memoryUsage;
+
+    Result(String out, long nbExamples, long busyNanos, long memoryUsage) {
+      this.out = out;
+      this.nbExamples = nbExamples;
+      this.busyNanos = busyNanos;
+      this.memoryUsage = memoryUsage;
+    }
+
+    /** @return the number of examples per second the learner handled while busy */
+    public double getExamplesPerSecond() {
+      return nbExamples * 1e9 / Math.max(1, busyNanos);
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "%s\t%d examples\t%.0f examples/s\t%.1f s\t%.1f KiB",
+          out, nbExamples, getExamplesPerSecond(), busyNanos / 1e9, memoryUsage / 1024.0);
+    }
+  }
+
+  /* One learner, its queue and the thread that makes its learning curve. */
+  private class Lane implements Runnable {
+
+    final IncrementalLearner<T> learner;
+    final double thresh;
+    final String out;
+    final BlockingQueue<Example<?>[]> queue = new ArrayBlockingQueue<Example<?>[]>(capacity);
+
+    Thread thread;
+    int reportingPeriod;
+    boolean writeOutAllPredictions;
+
+    /* written by the thread of the lane, read after join */
+    volatile boolean finished = false;
+    Throwable failure = null;
+    long nbExamples = 0;
+    long waitingNanos = 0;
+    long elapsedNanos = 0;
+
+    Lane(IncrementalLearner<T> learner, double thresh, String out) {
+      this.learner = learner;
+      this.thresh = thresh;
+      this.out = out;
+    }
+
+    void start(String name, int reportingPeriod, boolean writeOutAllPredictions) {
+      this.reportingPeriod = reportingPeriod;
+      this.writeOutAllPredictions = writeOutAllPredictions;
+      thread = new Thread(this, name);
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    @Override
+    public void run() {
+      long start = System.nanoTime();
+      try {
+        learner.makeLearningCurve(view, thresh, out, reportingPeriod, writeOutAllPredictions);
+      } catch (FileNotFoundException | RuntimeException | Error e) {
+        failure = e;
+      } finally {
+        elapsedNanos = System.nanoTime() - start;
+        finished = true;
+        queue.clear();
+      }
+    }
+
+    /* The data as the learner sees it: the batches in the queue. It can be iterated once. */
+    final Data<T> view =
+        new Data<T>(new File[0], null) {
+          @Override
+          protected T parseAttribute(String attrString) {
+            return data.parseAttribute(attrString);
+          }
+
+          @Override
+          protected T[] emptyAttributes(int i) {
+            return data.emptyAttributes(i);
+          }
+
+          @Override
+          public int getNbFeatures() {
+            return data.getNbFeatures();
+          }
+
+          @Override
+          public ExampleIterator<T> iterator() {
+            return stepLikeCsv(new QueueIterator());
+          }
+        };
+
+    private class QueueIterator implements Data.ExampleIterator<T> {
+
+      private Example<?>[] batch = null;
+      private int index = 0;
+
+      @Override
+      public boolean hasNext() {
+        if (batch != null && index < batch.length) return true;
+        if (batch == END) return false;
+        long start = System.nanoTime();
+        try {
+          batch = queue.take();
+        } catch (InterruptedException e) {
+          // the sweep was interrupted
+          Thread.currentThread().interrupt();
+          batch = END;
+        }
+        waitingNanos += System.nanoTime() - start;
+        index = 0;
+        return batch != END;
+      }
+
+      @Override
+      @SuppressWarnings("unchecked")
+      public Example<T> next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        nbExamples++;
+        // the batch is shared with the other lanes, so it is not cleared
+        return (Example<T>) batch[index++];
+      }
+
+      @Override
+      public void close() {
+        // the reader stops handing batches to this lane when its learner is finished
+      }
+    }
+  }
+
+  /* Whether path is a cache file of BinaryData rather than a directory with csv files. */
+  private static boolean isCache(String path) {
+    return new File(path).isFile();
+  }
+
+  /**
+   * Runs a hyperparameter sweep. Every parameter is a comma-separated list of values and every
+   * combination of values is trained, on one pass over the data. The learning curve of a
+   * combination is written to the output file followed by the values, e.g. out.eta0.01.pc.acc.
+   * The data set is a directory with csv files or a cache file written by BinaryData.
+   */
+  public static void main(String[] args) throws IOException {
+    boolean writeOutAllPredictions = false;
+    int capacity = 16;
+    List<String> positional = new ArrayList<String>();
+    for (String arg : args) {
+      if (arg.contains("writeOutAllPredictions")) writeOutAllPredictions = true;
+      else if (arg.startsWith("-capacity=")) capacity = Integer.parseInt(arg.substring(10));
+      else positional.add(arg);
+    }
+    String[] a = positional.toArray(new String[0]);
+
+    List<Result> results;
+    long start = System.nanoTime();
+    if (a.length == 8 && a[0].equals("vfdt")) {
+      Data<Integer> data = isCache(a[4]) ? BinaryData.ints(a[4]) : Data.ints(a[4], ",");
+      int[] nbFeatureValues = NbFeatureValues.parse(a[5]);
+      SweepRunner<Integer> sweep = new SweepRunner<Integer>(data, capacity);
+      for (String delta : a[1].split(",")) {
+        for (String tau : a[2].split(",")) {
+          for (String nmin : a[3].split(",")) {
+            Vfdt vfdt =
+                new Vfdt(
+                    nbFeatureValues,
+                    Double.parseDouble(delta),
+                    Double.parseDouble(tau),
+                    Integer.parseInt(nmin));
+            String out = a[6] + ".delta" + delta + ".tau" + tau + ".nmin" + nmin + ".vfdt";
+            sweep.add(vfdt, 0.5, out);
+          }
+        }
+      }
+      results = sweep.run(Integer.parseInt(a[7]), writeOutAllPredictions);
+    } else if (a.length == 5 && a[0].equals("pc")) {
+      Data<Double> data = isCache(a[2]) ? BinaryData.doubles(a[2]) : Data.doubles(a[2], ",");
+      int nbFeatures = data.getNbFeatures();
+      SweepRunner<Double> sweep = new SweepRunner<Double>(data, capacity);
+      for (String eta : a[1].split(",")) {
+        Perceptron perceptron = new Perceptron(nbFeatures, Double.parseDouble(eta));
+        sweep.add(perceptron, 0, a[3] + ".eta" + eta + ".pc");
+      }
+      results = sweep.run(Integer.parseInt(a[4]), writeOutAllPredictions);
+    } else {
+      System.err.println(
+          "Usage: java SweepRunner vfdt <deltas> <taus> <nmins> <data set> <nbFeatureValues>"
+              + " <output file> <reportingPeriod> [-writeOutAllPredictions] [-capacity=batches]\n"
+              + "       java SweepRunner pc <learningRates> <data set> <output file>"
+              + " <reportingPeriod> [-writeOutAllPredictions] [-capacity=batches]");
+      throw new Error("Unexpected arguments.");
+    }
+
+    System.out.printf(
+        "%d configurations on %d cores in %.1f s%n",
+        results.size(),
+        Runtime.getRuntime().availableProcessors(),
+        (System.nanoTime() - start) / 1e9);
+    for (Result result : results) System.out.println(result);
+  }
+}
@@ -0,0 +1,43 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The DenseKernel that uses the jdk.incubator.vector API. It has to be compiled and run with
+ * --add-modules jdk.incubator.vector; DenseKernel.get() only loads it when the module is there.
+ */
+class VectorKernel extends DenseKernel {
+
+  private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+  @Override
+  double dot(double[] x, int xOffset, double[] y, int yOffset, int n) {
+    DoubleVector sum = DoubleVector.zero(SPECIES);
+    int i = 0;
+    for (int bound = SPECIES.loopBound(n); i < bound; i += SPECIES.length()) {
+      DoubleVector vx = DoubleVector.fromArray(SPECIES, x, xOffset + i);
+      DoubleVector vy = DoubleVector.fromArray(SPECIES, y, yOffset + i);
+      sum = vx.fma(vy, sum);
+    }
+    double result = sum.reduceLanes(VectorOperators.ADD);
+    for (; i < n; i++) result += x[xOffset + i] * y[yOffset + i];
+    return result;
+  }
+
+  @Override
+  void subtractScaled(double[] y, int yOffset, double[] x, int xOffset, int n, double a, double b) {
+    int i = 0;
+    for (int bound = SPECIES.loopBound(n); i < bound; i += SPECIES.length()) {
+      DoubleVector vx = DoubleVector.fromArray(SPECIES, x, xOffset + i);
+      DoubleVector vy = DoubleVector.fromArray(SPECIES, y, yOffset + i);
+      // no fma: (a * x) * b is rounded twice, as in the scalar code
+      vy.sub(vx.mul(a).mul(b)).intoArray(y, yOffset + i);
+    }
+    for (; i < n; i++) y[yOffset + i] -= a * x[xOffset + i] * b;
+  }
+
+  @Override
+  String name() {
+    return "vector " + SPECIES;
+  }
+}
@@ -3,10 +3,14 @@
  * without permission. Written by Pieter Robberechts, 2021
  */
 import java.io.*;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.List;
 
 import static java.lang.Math.log;
@@ -16,12 +20,66 @@ import static java.lang.Math.sqrt;
 public class Vfdt extends IncrementalLearner<Integer> {
 
   private int[] nbFeatureValues;
+  private int[] nijkOffsets;
   private double delta;
   private double tau;
   private double nmin;
   private int nbSplits;
+  private SplitCriterion criterion;
 
-  private VfdtNode root;
+  /*
+   * Replaced by readModel while other threads may predict, so it is volatile. See VfdtNode.children
+   * for how splits are published.
+   */
+  private volatile VfdtNode root;
+
+  private LeafStore leafStore; /* keeps the counts of the leaves, or null for the heap */
+
+  private SplitEvaluator splitEvaluator; /* evaluates splits in parallel, if not null */
+
+  private boolean concurrentUpdates = false; /* see setConcurrentUpdates */
+
+  /* The buffer of every thread that updates in concurrent mode, see setConcurrentUpdates. */
+  private volatile ThreadLocal<UpdateBuffer> updateBuffer = newUpdateBuffers();
+  private final Queue<UpdateBuffer> updateBuffers = new ConcurrentLinkedQueue<UpdateBuffer>();
+
+  private long memoryBudget = 0; /* in bytes, 0 for no budget, see setMemoryBudget */
+  private int memoryCheckPeriod;
+
+  private boolean adaptiveGracePeriod = false; /* see setAdaptiveGracePeriod */
+  // see getNbSplitEvaluations, leaves can be evaluated concurrently, see setConcurrentUpdates
+  private final LongAdder nbSplitEvaluations = new LongAdder();
+  private final LongAdder nbSkippedEvaluations = new LongAdder();
+
+  /* An estimate of the bytes of a node without its counts, with its own arrays and objects. */
+  static final int NODE_BYTES = 128;
+
+  private FrozenVfdt.Compiler freezer; /* compiles freeze, each time extending the last one */
+
+  private static final Metrics.Histogram UPDATE = Metrics.timer("vfdt.update");
+  private static final Metrics.Histogram SPLIT_CHECK = Metrics.timer("vfdt.splitCheck");
+  private static final Metrics.Counter GAINS = Metrics.counter("vfdt.informationGain");
+  private static final Metrics.Counter NO_SPLITS = Metrics.counter("vfdt.splits.failed");
+  private static final Metrics.Counter HOEFFDING_SPLITS = Metrics.counter("vfdt.splits.hoeffding");
+  private static final Metrics.Counter TIE_SPLITS = Metrics.counter("vfdt.splits.tie");
+  private static final Metrics.Counter SKIPPED_SPLITS = Metrics.counter("vfdt.splits.skipped");
+  private static final Metrics.Counter SAVED_GAINS = Metrics.counter("vfdt.informationGain.saved");
+  private static final Metrics.Histogram SPLIT_EXAMPLES =
+      Metrics.histogram("vfdt.splitExamples", "examples");
+  private static final Metrics.Histogram WRITE_MODEL = Metrics.timer("vfdt.writeModel");
+  private final Object freezeLock = new Object();
+
+  private static final VarHandle NB_EXAMPLES_PROCESSED;
+
+  static {
+    try {
+      NB_EXAMPLES_PROCESSED =
+          MethodHandles.lookup()
+              .findVarHandle(IncrementalLearner.class, "nbExamplesProcessed", int.class);
+    } catch (ReflectiveOperationException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
 
   /**
    * Vfdt constructor
@@ -35,16 +93,32 @@ public class Vfdt extends IncrementalLearner<Integer> {
    * @param nmin is the parameter that is used to limit the G computations
    */
   public Vfdt(int[] nbFeatureValues, double delta, double tau, int nmin) {
+    this(nbFeatureValues, delta, tau, nmin, SplitCriterion.ENTROPY);
+  }
+
+  /**
+   * Vfdt constructor with another split criterion than information gain.
+   *
+   * @param nbFeatureValues are nb of values of each feature.
+   * @param delta is the parameter used for the Hoeffding bound
+   * @param tau is the parameter that is used to deal with ties
+   * @param nmin is the parameter that is used to limit the G computations
+   * @param criterion is the impurity measure used to choose split features
+   */
+  public Vfdt(int[] nbFeatureValues, double delta, double tau, int nmin, SplitCriterion criterion) {
     this.nbFeatureValues = nbFeatureValues;
+    this.criterion = criterion;
     this.delta = delta;
     this.tau = tau;
     this.nmin = nmin;
     nbSplits = 1;
 
+    nijkOffsets = VfdtNode.nijkOffsets(nbFeatureValues);
+
     nbExamplesProcessed = 0;
     int[] possibleFeatures = new int[nbFeatureValues.length];
     for (int i = 0; i < nbFeatureValues.length; i++) possibleFeatures[i] = i;
-    root = new VfdtNode(nbFeatureValues, possibleFeatures);
+    root = new VfdtNode(nbFeatureValues, nijkOffsets, possibleFeatures);
   }
 
   /**
@@ -56,72 +130,380 @@ public class Vfdt extends IncrementalLearner<Integer> {
    */
   @Override
   public void update(Example<Integer> example) {
+    if (concurrentUpdates) {
+      int[] attributeValues = new int[example.attributeValues.length];
+      for (int i = 0; i < attributeValues.length; i++) {
+        attributeValues[i] = example.attributeValues[i];
+      }
+      update(attributeValues, example.classValue);
+      return;
+    }
+    long start = Metrics.ENABLED ? System.nanoTime() : 0;
     super.update(example);
 
     // Step 1: add example to right node
     VfdtNode node = root.sortExample(example.attributeValues);
-    int[][][] nijk = node.getNijk();
-    node.update(example.classValue);
-    if(example.attributeValues.length > 0){
-      for(int i = 0; i < example.attributeValues.length ; i++){
-        nijk[i][example.attributeValues[i]][example.classValue] += 1;
-      }
-    }
+    node.addExample(example.attributeValues, example.classValue);
 
     // Step 2: check if update is necessary
-    // Step 2.1: check size requirement
-    if (node.getPossibleSplitFeatures().length > 0) {
-      int sizeNijk = node.getNijkSize();
-      if(sizeNijk % nmin == 0 && sizeNijk > 0){
-        double deltaG;
-        int a;
-        // Step 2.2: check Hoeffding bound
-        double Ga = 0;
-        if(node.getPossibleSplitFeatures().length > 1){
-          int[] possibleSplitFeatures = node.getPossibleSplitFeatures();
-          a = 0;
-          double Gb = 0;
-          for(int i:possibleSplitFeatures){
-            double G = node.splitEval(i);
-            if(Ga < G){
-              Gb = Ga;
-              Ga = G; a = i;
-            }else if (Gb < G){
-              Gb = G;
+    attemptSplit(node);
+    if (memoryBudget > 0 && nbExamplesProcessed % memoryCheckPeriod == 0) manageMemory();
+    if (Metrics.ENABLED) UPDATE.recordSince(start);
+  }
+
+  /**
+   * Updates the model with an example in primitive form, without any boxing. This gives the same
+   * model as update(Example).
+   *
+   * @param attributeValues are the feature values of the training example
+   * @param classValue is the class of the training example
+   */
+  public void update(int[] attributeValues, int classValue) {
+    if (concurrentUpdates) {
+      updateConcurrently(attributeValues, classValue);
+      return;
+    }
+    long start = Metrics.ENABLED ? System.nanoTime() : 0;
+    countExample();
+
+    VfdtNode node = root.sortExample(attributeValues);
+    node.addExample(attributeValues, classValue);
+    attemptSplit(node);
+    if (memoryBudget > 0 && nbExamplesProcessed % memoryCheckPeriod == 0) manageMemory();
+    if (Metrics.ENABLED) UPDATE.recordSince(start);
+  }
+
+  /* The examples that one thread gave to update in concurrent mode and that are not added yet. */
+  private static final class UpdateBuffer {
+    final int[][] rows;
+    final int[] classValues;
+    final VfdtNode[] leaves; /* the leaf every example was sorted to */
+    final int[] next; /* the next example sorted to the same leaf, or -1 */
+    final int[] firsts; /* the first example of every leaf */
+    final int[] pending; /* the examples that still have to be added */
+    final Map<VfdtNode, Integer> last = new IdentityHashMap<VfdtNode, Integer>();
+    int size = 0;
+
+    UpdateBuffer(int capacity, int nbFeatures) {
+      rows = new int[capacity][nbFeatures];
+      classValues = new int[capacity];
+      leaves = new VfdtNode[capacity];
+      next = new int[capacity];
+      firsts = new int[capacity];
+      pending = new int[capacity];
+    }
+  }
+
+  private ThreadLocal<UpdateBuffer> newUpdateBuffers() {
+    return ThreadLocal.withInitial(
+        () -> {
+          UpdateBuffer buffer =
+              new UpdateBuffer((int) Math.max(1, nmin), nbFeatureValues.length);
+          updateBuffers.add(buffer);
+          return buffer;
+        });
+  }
+
+  /* The update of setConcurrentUpdates(true). */
+  private void updateConcurrently(int[] attributeValues, int classValue) {
+    UpdateBuffer buffer = updateBuffer.get();
+    System.arraycopy(attributeValues, 0, buffer.rows[buffer.size], 0, attributeValues.length);
+    buffer.classValues[buffer.size++] = classValue;
+    if (buffer.size == buffer.rows.length) flush(buffer);
+  }
+
+  /*
+   * Adds the examples of a buffer to the tree. The examples are sorted without a lock, and then
+   * added to every leaf in one go, under the lock of the leaf, in the order of the buffer. The lock
+   * is also held while the leaf is split, so when a leaf turns out to be split by another thread,
+   * or by one of the examples, its remaining examples are sorted again to the new children.
+   */
+  private void flush(UpdateBuffer buffer) {
+    NB_EXAMPLES_PROCESSED.getAndAdd(this, buffer.size);
+    int nbPending = buffer.size;
+    for (int e = 0; e < nbPending; e++) buffer.pending[e] = e;
+    while (nbPending > 0) {
+      int nbLeaves = 0;
+      buffer.last.clear();
+      for (int p = 0; p < nbPending; p++) {
+        int e = buffer.pending[p];
+        VfdtNode leaf = root.sortExample(buffer.rows[e]);
+        Integer previous = buffer.last.put(leaf, e);
+        if (previous == null) buffer.firsts[nbLeaves++] = e;
+        else buffer.next[previous] = e;
+        buffer.leaves[e] = leaf;
+        buffer.next[e] = -1;
+      }
+      nbPending = 0;
+      for (int l = 0; l < nbLeaves; l++) {
+        VfdtNode leaf = buffer.leaves[buffer.firsts[l]];
+        synchronized (leaf) {
+          for (int e = buffer.firsts[l]; e >= 0; e = buffer.next[e]) {
+            if (leaf.getChildren() != null) {
+              buffer.pending[nbPending++] = e;
+            } else {
+              leaf.addExample(buffer.rows[e], buffer.classValues[e]);
+              attemptSplit(leaf);
             }
           }
-          deltaG = Ga - Gb;
-        }else{
-          Ga = 1;
-          a = node.getPossibleSplitFeatures()[0];
-          deltaG = node.splitEval(a);
         }
-        double epsilon = sqrt(log(1/delta)/ (2*sizeNijk));
-        if((epsilon < tau || deltaG > epsilon) && Ga > 0){
-          // Create all possible features for child nodes.
-          Boolean skipped = false;
-          node.setSplitFeature(a);
-          int[] possibleFeatures = new int[node.getPossibleSplitFeatures().length-1];
-          if (possibleFeatures.length != 0) {
-            for (int i = 0; i < node.getPossibleSplitFeatures().length; i++){
-              if (a != node.getPossibleSplitFeatures()[i]) {
-                if(!skipped){
-                    possibleFeatures[i] = node.getPossibleSplitFeatures()[i];
-                }else{possibleFeatures[i-1] = node.getPossibleSplitFeatures()[i]; }
-              }else{skipped = true;}
-            }
-          }
-          // Create all child nodes.
-          int n = nbFeatureValues[a];
-          VfdtNode[] children = new VfdtNode[n];
-          for (int i = 0; i < n; i++){
-            children[i] = new VfdtNode(this.nbFeatureValues,possibleFeatures);
-          }
-          node.addChildren(a, children);
-          nbSplits += children.length;
+      }
+    }
+    buffer.last.clear();
+    buffer.size = 0;
+  }
+
+  /**
+   * Adds the examples that are still buffered by the threads that updated in concurrent mode, see
+   * setConcurrentUpdates. Call it when no thread is updating, for example after joining them.
+   */
+  public void flushUpdates() {
+    for (UpdateBuffer buffer : updateBuffers) {
+      if (buffer.size > 0) flush(buffer);
+    }
+    // forget the buffers of threads that may not update anymore
+    updateBuffers.clear();
+    updateBuffer = newUpdateBuffers();
+  }
+
+  /**
+   * Lets several threads call update at the same time, while other threads predict.
+   *
+   * <p>Every thread then buffers its examples, and adds them to the tree when it has nmin of them.
+   * The examples of one buffer are added to a leaf under the lock of that leaf, which is also held
+   * while the leaf is checked for a split, so threads only wait for each other when they add to
+   * the same leaf at the same time. Examples that reach a leaf that was split in the meantime are
+   * sorted again to its children, so no example is lost. Examples that are still buffered are not
+   * in the tree or in nbExamplesProcessed: call flushUpdates when the threads have finished, before
+   * the model is read or written. Switching the mode off flushes them as well.
+   *
+   * <p>The examples of different threads are interleaved differently from run to run, so the tree
+   * can differ slightly from a sequential one. With a single thread the tree is the same once the
+   * examples are flushed. This cannot be combined with a LeafStore.
+   *
+   * <p>Switch the mode while no thread is updating.
+   *
+   * @param concurrentUpdates true to allow concurrent updates
+   */
+  public void setConcurrentUpdates(boolean concurrentUpdates) {
+    if (concurrentUpdates && leafStore != null) {
+      throw new IllegalStateException("Concurrent updates do not work with a LeafStore");
+    }
+    if (concurrentUpdates && checkpointer != null) {
+      throw new IllegalStateException("A Vfdt with concurrent updates cannot be checkpointed");
+    }
+    if (concurrentUpdates && memoryBudget > 0) {
+      throw new IllegalStateException("Concurrent updates do not work with a memory budget");
+    }
+    if (!concurrentUpdates) flushUpdates();
+    this.concurrentUpdates = concurrentUpdates;
+  }
+
+  /**
+   * Keeps the counts of all leaves in the given store instead of on the Java heap, so that the tree
+   * can grow beyond -Xmx. The counts of the current leaves are moved to the store. Passing null
+   * moves them back to the heap.
+   *
+   * @param store a store with slots of getLeafStatisticsSize() counts, or null
+   */
+  public void setLeafStore(LeafStore store) {
+    if (store != null && concurrentUpdates) {
+      throw new IllegalStateException("Concurrent updates do not work with a LeafStore");
+    }
+    if (store != null && store.getSlotSize() != getLeafStatisticsSize()) {
+      throw new IllegalArgumentException(
+          "The store has slots of " + store.getSlotSize() + " counts, a leaf has "
+              + getLeafStatisticsSize());
+    }
+    LeafStore old = leafStore;
+    leafStore = store;
+    moveLeaves(root);
+    if (old != null) old.clear();
+  }
+
+  /** @return the root of the tree */
+  VfdtNode getRoot() {
+    return root;
+  }
+
+  /** @return the impurity measure used to choose split features */
+  public SplitCriterion getSplitCriterion() {
+    return criterion;
+  }
+
+  /**
+   * Lets the given evaluator find the best split feature of a leaf, for example to evaluate trees
+   * with many features in parallel. Passing null evaluates the features sequentially.
+   *
+   * @param splitEvaluator the evaluator, or null
+   */
+  public void setSplitEvaluator(SplitEvaluator splitEvaluator) {
+    this.splitEvaluator = splitEvaluator;
+  }
+
+  /** @return the store that keeps the counts of the leaves, or null if they are on the heap */
+  public LeafStore getLeafStore() {
+    return leafStore;
+  }
+
+  /** @return the number of counts (nijk) that every leaf keeps */
+  public int getLeafStatisticsSize() {
+    return nijkOffsets[nbFeatureValues.length];
+  }
+
+  private void moveLeaves(VfdtNode node) {
+    VfdtNode[] children = node.getChildren();
+    if (children == null) {
+      node.moveTo(leafStore);
+    } else {
+      for (VfdtNode child : children) moveLeaves(child);
+    }
+  }
+
+  /**
+   * Splits the leaf if enough examples were seen and the Hoeffding bound is satisfied.
+   *
+   * @param node the leaf the last example was added to
+   */
+  private void attemptSplit(VfdtNode node) {
+    // Step 2.1: check size requirement
+    if (node.getPossibleSplitFeatures().length > 0 && node.isActive()) {
+      int sizeNijk = node.getNijkSize();
+      if(sizeNijk % nmin == 0 && sizeNijk > 0 && !postponed(node, sizeNijk)){
+        split(node, sizeNijk);
+      }
+    }
+  }
+
+  /* Whether the split evaluation that is due at sizeNijk is skipped, and counts it if so. */
+  private boolean postponed(VfdtNode node, int sizeNijk) {
+    if (!adaptiveGracePeriod || sizeNijk >= node.getNextEvaluation()) return false;
+    nbSkippedEvaluations.increment();
+    if (Metrics.ENABLED) {
+      SKIPPED_SPLITS.increment();
+      SAVED_GAINS.add(node.getPossibleSplitFeatures().length);
+    }
+    return true;
+  }
+
+  /*
+   * Postpones the next evaluation of a leaf that was not split to the first multiple of nmin at
+   * which epsilon drops below the observed deltaG, or below tau if that comes first. Before then
+   * the bound can only be satisfied if deltaG grows. deltaG is noisy in a young leaf, so the leaf
+   * is evaluated again at the latest when its number of examples has doubled.
+   */
+  private void postpone(VfdtNode node, int sizeNijk, double R, double deltaG) {
+    double target = Math.max(deltaG, tau);
+    double due = 2.0 * sizeNijk;
+    if (target > 0) due = Math.min(due, R * R * log(1 / delta) / (2 * target * target));
+    due = Math.max(sizeNijk + nmin, Math.ceil(due / nmin) * nmin);
+    node.setNextEvaluation((int) Math.min(Integer.MAX_VALUE, due));
+  }
+
+  /**
+   * Postpones the split evaluations of a leaf that cannot be split yet. When a leaf is evaluated
+   * and not split, the Hoeffding bound tells how many examples it needs before epsilon is smaller
+   * than the observed difference in gain (or than tau), and the evaluations every nmin examples
+   * before that are skipped. The tree can differ slightly from the one with a fixed grace period
+   * of nmin, because the difference in gain changes as more examples arrive.
+   *
+   * <p>A binary model, and so a checkpoint, keeps the size at which every leaf is evaluated next.
+   * When a model is read from a text file, its leaves are evaluated at the next multiple of nmin.
+   *
+   * @param adaptiveGracePeriod true to postpone evaluations, false to evaluate every nmin examples
+   */
+  public void setAdaptiveGracePeriod(boolean adaptiveGracePeriod) {
+    this.adaptiveGracePeriod = adaptiveGracePeriod;
+  }
+
+  /** @return the number of times a leaf was evaluated for a split */
+  public long getNbSplitEvaluations() {
+    return nbSplitEvaluations.sum();
+  }
+
+  /** @return the number of evaluations that were skipped, see setAdaptiveGracePeriod */
+  public long getNbSkippedSplitEvaluations() {
+    return nbSkippedEvaluations.sum();
+  }
+
+  /**
+   * Splits the leaf if the Hoeffding bound is satisfied.
+   *
+   * @param node a leaf with possible split features
+   * @param sizeNijk the number of examples in the leaf
+   */
+  private void split(VfdtNode node, int sizeNijk) {
+    long start = Metrics.ENABLED ? System.nanoTime() : 0;
+    Metrics.SplitEvent event = Metrics.SPLIT_EVENTS.isEnabled() ? new Metrics.SplitEvent() : null;
+    if (event != null) event.begin();
+    if (Metrics.ENABLED) GAINS.add(node.getPossibleSplitFeatures().length);
+    nbSplitEvaluations.increment();
+    double deltaG;
+    int a;
+    // Step 2.2: check Hoeffding bound
+    double Ga = 0;
+    if(node.getPossibleSplitFeatures().length > 1){
+      SplitEvaluator.Result best =
+          splitEvaluator != null
+              ? splitEvaluator.evaluate(node, criterion)
+              : SplitEvaluator.sequential(node, criterion);
+      a = best.feature;
+      Ga = best.best;
+      double Gb = best.secondBest;
+      deltaG = Ga - Gb;
+    }else{
+      Ga = 1;
+      a = node.getPossibleSplitFeatures()[0];
+      deltaG = node.splitEval(a, criterion);
+    }
+    // R is the range of the gain of the criterion
+    double R = criterion.range();
+    double epsilon = sqrt(R * R * log(1/delta)/ (2*sizeNijk));
+    boolean splits = (epsilon < tau || deltaG > epsilon) && Ga > 0;
+    if (Metrics.ENABLED) {
+      if (!splits) NO_SPLITS.increment();
+      else if (deltaG > epsilon) HOEFFDING_SPLITS.increment();
+      else TIE_SPLITS.increment();
+    }
+    if (!splits && adaptiveGracePeriod) postpone(node, sizeNijk, R, deltaG);
+    if(splits){
+      // Create all possible features for child nodes.
+      Boolean skipped = false;
+      node.setSplitFeature(a);
+      int[] possibleFeatures = new int[node.getPossibleSplitFeatures().length-1];
+      if (possibleFeatures.length != 0) {
+        for (int i = 0; i < node.getPossibleSplitFeatures().length; i++){
+          if (a != node.getPossibleSplitFeatures()[i]) {
+            if(!skipped){
+                possibleFeatures[i] = node.getPossibleSplitFeatures()[i];
+            }else{possibleFeatures[i-1] = node.getPossibleSplitFeatures()[i]; }
+          }else{skipped = true;}
         }
       }
+      // Create all child nodes.
+      int n = nbFeatureValues[a];
+      VfdtNode[] children = new VfdtNode[n];
+      for (int i = 0; i < n; i++){
+        children[i] =
+            new VfdtNode(this.nbFeatureValues, nijkOffsets, possibleFeatures, leafStore);
+      }
+      node.addChildren(a, children);
+      synchronized (this) {
+        // leaves of different nodes can be split at the same time, see setConcurrentUpdates
+        nbSplits += children.length;
+      }
+      if (event != null && event.shouldCommit()) {
+        event.feature = a;
+        event.nbExamples = sizeNijk;
+        event.gain = Ga;
+        event.deltaGain = deltaG;
+        event.epsilon = epsilon;
+        event.tie = deltaG <= epsilon;
+        event.commit();
+      }
+      if (Metrics.ENABLED) SPLIT_EXAMPLES.record(sizeNijk);
     }
+    if (Metrics.ENABLED) SPLIT_CHECK.recordSince(start);
   }
 
 
@@ -136,7 +518,214 @@ public class Vfdt extends IncrementalLearner<Integer> {
    */
   @Override
   public double makePrediction(Integer[] example) {
-    VfdtNode node = root.sortExample(example);
+    return leafProbability(root.sortExample(example));
+  }
+
+  /**
+   * Same as makePrediction(Integer[]), for an example in primitive form.
+   *
+   * <p>Both makePrediction methods can be called by any number of threads while one other thread
+   * calls update. They never block, and they see every split either completely or not at all.
+   *
+   * @param example is a the test instance to classify
+   * @return the probability that attributeValues belongs to class "1"
+   */
+  public double makePrediction(int[] example) {
+    return leafProbability(root.sortExample(example));
+  }
+
+  /**
+   * Same as predictBatch(double[], int, double[], boolean), for feature values that are already
+   * ints. This avoids converting the rows.
+   *
+   * @param rows the feature values of nbRows examples, row after row
+   * @param nbRows the number of examples
+   * @param predictions receives the prediction of every example
+   * @param parallel whether to predict the chunks in parallel
+   */
+  public void predictBatch(int[] rows, int nbRows, double[] predictions, boolean parallel) {
+    checkBatch(rows.length, nbRows, predictions);
+    VfdtNode top = root;
+    forEachChunk(
+        nbRows,
+        parallel,
+        from -> route(top, rows, from, Math.min(nbRows, from + BATCH_CHUNK), predictions, from));
+  }
+
+  @Override
+  void predictRows(double[] rows, int from, int to, double[] predictions) {
+    int n = nbFeatureValues.length;
+    int[] chunk = new int[(to - from) * n];
+    for (int i = 0; i < chunk.length; i++) chunk[i] = (int) rows[from * n + i];
+    route(root, chunk, 0, to - from, predictions, from);
+  }
+
+  /**
+   * Sorts rows from to to of a batch down the tree one level at a time: every round moves all rows
+   * that are not in a leaf yet one node down, so the nodes of a level are visited together instead
+   * of once per root-to-leaf path.
+   *
+   * @param top the root of the tree
+   * @param rows the feature values, row after row
+   * @param from the first row
+   * @param to the row after the last row
+   * @param predictions receives the predictions
+   * @param offset the index in predictions of row from
+   */
+  private void route(
+      VfdtNode top, int[] rows, int from, int to, double[] predictions, int offset) {
+    int n = nbFeatureValues.length;
+    int nbRows = to - from;
+    VfdtNode[] nodes = new VfdtNode[nbRows];
+    int[] active = new int[nbRows]; /* the rows that are not in a leaf yet */
+    for (int r = 0; r < nbRows; r++) {
+      nodes[r] = top;
+      active[r] = r;
+    }
+    int nbActive = nbRows;
+    while (nbActive > 0) {
+      int kept = 0;
+      for (int a = 0; a < nbActive; a++) {
+        int r = active[a];
+        VfdtNode node = nodes[r];
+        // children before splitFeature, as in VfdtNode.sortExample
+        VfdtNode[] children = node.getChildren();
+        if (children == null) continue;
+        nodes[r] = children[rows[(from + r) * n + node.getSplitFeature()]];
+        active[kept++] = r;
+      }
+      nbActive = kept;
+    }
+    for (int r = 0; r < nbRows; r++) predictions[offset + r] = leafProbability(nodes[r]);
+  }
+
+  /**
+   * Limits the memory of the tree by deactivating the least promising leaves, as in the VFDT
+   * paper. Every checkPeriod examples the leaves are ranked by their promise (see
+   * VfdtNode.getPromise) and only as many leaves as fit in the budget keep their counts. The other
+   * leaves are deactivated: they still predict with their class totals and track their promise,
+   * but cannot be split. A deactivated leaf that ranks among the most promising leaves again is
+   * reactivated with empty counts.
+   *
+   * <p>Inactive leaves are written to a model file without counts. A binary model keeps their
+   * class totals and that they are inactive; the text format of writeModel has neither, so there
+   * they come back as active leaves without examples.
+   *
+   * @param maxBytes the budget in bytes as estimated by getMemoryUsage, or 0 for no budget
+   * @param checkPeriod the number of examples between checks of the budget
+   */
+  public void setMemoryBudget(long maxBytes, int checkPeriod) {
+    if (maxBytes < 0 || checkPeriod < 1) throw new IllegalArgumentException("Invalid budget");
+    if (maxBytes > 0 && concurrentUpdates) {
+      throw new IllegalStateException("Concurrent updates do not work with a memory budget");
+    }
+    memoryBudget = maxBytes;
+    memoryCheckPeriod = checkPeriod;
+  }
+
+  /**
+   * Returns an estimate of the memory of the tree: NODE_BYTES per node plus the counts of the
+   * active leaves, on the heap or in the LeafStore. Walks the tree.
+   *
+   * @return the estimated number of bytes
+   */
+  @Override
+  public long getMemoryUsage() {
+    int[] counts = new int[3];
+    countNodes(root, counts);
+    return (long) counts[0] * NODE_BYTES + counts[2] * getLeafStatisticsBytes();
+  }
+
+  /** @return the number of leaves that were deactivated to stay within the memory budget */
+  public int getNbInactiveLeaves() {
+    int[] counts = new int[3];
+    countNodes(root, counts);
+    return counts[1] - counts[2];
+  }
+
+  /* The counts of one active leaf: the int array and its header. */
+  private long getLeafStatisticsBytes() {
+    return 16 + 4L * getLeafStatisticsSize();
+  }
+
+  /* Adds the number of nodes, leaves and active leaves below node to counts. */
+  private static void countNodes(VfdtNode node, int[] counts) {
+    counts[0]++;
+    VfdtNode[] children = node.getChildren();
+    if (children == null) {
+      counts[1]++;
+      if (node.isActive()) counts[2]++;
+    } else {
+      for (VfdtNode child : children) countNodes(child, counts);
+    }
+  }
+
+  /* Keeps the most promising leaves that fit in the budget active, see setMemoryBudget. */
+  private void manageMemory() {
+    ArrayList<VfdtNode> leaves = new ArrayList<VfdtNode>();
+    int nbNodes = collectLeaves(root, leaves);
+    long available = memoryBudget - (long) nbNodes * NODE_BYTES;
+    int maxActive =
+        (int) Math.max(0, Math.min(leaves.size(), available / getLeafStatisticsBytes()));
+    int nbActive = 0;
+    for (VfdtNode leaf : leaves) {
+      if (leaf.isActive()) nbActive++;
+    }
+    if (nbActive == leaves.size() && nbActive <= maxActive) return;
+    leaves.sort((a, b) -> Integer.compare(b.getPromise(), a.getPromise()));
+    // deactivate first, so that a LeafStore can reuse the freed slots
+    for (int i = maxActive; i < leaves.size(); i++) leaves.get(i).deactivate();
+    for (int i = 0; i < maxActive; i++) leaves.get(i).activate(leafStore);
+  }
+
+  /* Adds the leaves below node to leaves and returns the number of nodes. */
+  private static int collectLeaves(VfdtNode node, List<VfdtNode> leaves) {
+    VfdtNode[] children = node.getChildren();
+    if (children == null) {
+      leaves.add(node);
+      return 1;
+    }
+    int nbNodes = 1;
+    for (VfdtNode child : children) nbNodes += collectLeaves(child, leaves);
+    return nbNodes;
+  }
+
+  /**
+   * Compiles the current tree into a read-only FrozenVfdt that predicts faster than the tree
+   * itself. After new splits, call freeze again: only the leaves that changed since the last freeze
+   * are compiled again. Can be called while one other thread calls update.
+   *
+   * @return a copy of the current tree for predictions
+   */
+  public FrozenVfdt freeze() {
+    synchronized (freezeLock) {
+      if (freezer == null) freezer = new FrozenVfdt.Compiler(nbFeatureValues);
+      return freezer.compile(root);
+    }
+  }
+
+  /**
+   * Writes the current tree to a prediction model file, which MappedVfdtModel maps for predictions
+   * without reading in the tree. Same as freeze().writePredictionModel(path).
+   *
+   * @param path the path to the file
+   * @throws IOException
+   */
+  public void writePredictionModel(String path) throws IOException {
+    freeze().writePredictionModel(path);
+  }
+
+  /** @return the number of features of an example */
+  @Override
+  public int getNbFeatures() {
+    return nbFeatureValues.length;
+  }
+
+  /**
+   * @param node the leaf an example was sorted to
+   * @return the fraction of examples in the leaf that belong to class "1"
+   */
+  static double leafProbability(VfdtNode node) {
     double totalOne = node.getTotalOnes();
     double totalZero = node.getTotalZeros();
     double prediction = 0;
@@ -174,6 +763,7 @@ public class Vfdt extends IncrementalLearner<Integer> {
    */
   @Override
   public void writeModel(String path) throws IOException {
+    long start = Metrics.ENABLED ? System.nanoTime() : 0;
     helperList = new String[nbSplits];
     int backup = nbSplits;
     getNodeStrings(root);
@@ -189,6 +779,7 @@ public class Vfdt extends IncrementalLearner<Integer> {
     FileWriter writer = new FileWriter(path);
     writer.write(model.toString());
     writer.close();
+    if (Metrics.ENABLED) WRITE_MODEL.recordSince(start);
   }
 
   /**
@@ -219,12 +810,12 @@ public class Vfdt extends IncrementalLearner<Integer> {
         nodeInfo.append(i).append(",");
       }
       nodeInfo.append("] nijk:[");
-      int[][][] nijk = node.getNijk();
-      for(int i = 0; i < nijk.length; i++){
-        for(int j = 0; j < nijk[i].length; j++){
-          for(int k = 0; k < nijk[i][j].length; k++){
-            if(nijk[i][j][k] != 0){
-              nodeInfo.append(i).append(":").append(j).append(":").append(k).append(":").append(nijk[i][j][k]).append(",");
+      for(int i = 0; i < nbFeatureValues.length; i++){
+        for(int j = 0; j < nbFeatureValues[i]; j++){
+          for(int k = 0; k < 2; k++){
+            int count = node.getCount(nijkOffsets[i] + 2 * j + k);
+            if(count != 0){
+              nodeInfo.append(i).append(":").append(j).append(":").append(k).append(":").append(count).append(",");
             }
           }
         }
@@ -236,6 +827,8 @@ public class Vfdt extends IncrementalLearner<Integer> {
    * Reads in the model in the file and sets it as the current model. Sets the number of examples
    * processed.
    *
+   * <p>Both the text format of writeModel and the binary format of writeBinaryModel are read.
+   *
    * <p>THIS METHOD IS REQUIRED
    *
    * @param path the path to the model file
@@ -245,6 +838,11 @@ public class Vfdt extends IncrementalLearner<Integer> {
    */
   @Override
   public void readModel(String path, int nbExamplesProcessed) throws IOException {
+    if (BinaryModel.isBinary(path)) {
+      readBinaryModel(path);
+      super.readModel(path, nbExamplesProcessed);
+      return;
+    }
     super.readModel(path, nbExamplesProcessed);
     String[] content = Files.readString(Paths.get(path), StandardCharsets.US_ASCII).split(System.lineSeparator());
     VfdtNode[] allNodes = new VfdtNode[content.length-1];
@@ -260,22 +858,22 @@ public class Vfdt extends IncrementalLearner<Integer> {
 
         // Get nijk
         String[] nijkString = nodeInfo[3].replaceAll("nijk:", "").replace("[","").replace("]","").split(",");
-        int maxSizeFeature = Arrays.stream(nbFeatureValues).max().getAsInt();
-        int[][][] nijk = new int[nbFeatureValues.length][maxSizeFeature][2];
+        int[] nijk = new int[nijkOffsets[nbFeatureValues.length]];
         for(int si = 0; si < nijkString.length; si++){
           String[] s = nijkString[si].split(":");
           if(s.length > 1) {
-            nijk[Integer.parseInt(s[0])][Integer.parseInt(s[1])][Integer.parseInt(s[2])] = Integer.parseInt(s[3]);
+            int index = nijkOffsets[Integer.parseInt(s[0])] + 2 * Integer.parseInt(s[1]) + Integer.parseInt(s[2]);
+            nijk[index] = Integer.parseInt(s[3]);
           }
         }
 
         // Put node in list
-        allNodes[n] = new VfdtNode(nbFeatureValues, possibleFeature);
+        allNodes[n] = new VfdtNode(nbFeatureValues, nijkOffsets, possibleFeature);
         allNodes[n].setID(Integer.parseInt(nodeInfo[0]));
         allNodes[n].setNijk(nijk);
       }else if(nodeInfo[1].equals("D")){
         // Set feature
-        allNodes[n] = new VfdtNode(nbFeatureValues, null);
+        allNodes[n] = new VfdtNode(nbFeatureValues, nijkOffsets, null);
         int feature = Integer.parseInt(nodeInfo[2].replaceAll("f:",""));
         allNodes[n].setSplitFeature(feature);
 
@@ -301,8 +899,213 @@ public class Vfdt extends IncrementalLearner<Integer> {
       }
       allNodes[n].setID(n);
     }
-    root = allNodes[allNodes.length-1];
-    nbSplits = allNodes.length;
+    setTree(allNodes[allNodes.length-1], allNodes.length);
+  }
+
+  @Override
+  void setCheckpointer(Checkpointer checkpointer) {
+    if (checkpointer != null && concurrentUpdates) {
+      throw new IllegalStateException("A Vfdt with concurrent updates cannot be checkpointed");
+    }
+    super.setCheckpointer(checkpointer);
+  }
+
+  /* Replaces the tree by a tree that was read in. */
+  private void setTree(VfdtNode newRoot, int nbNodes) {
+    root = newRoot;
+    nbSplits = nbNodes;
+    if (leafStore != null) {
+      // the leaves of the old tree are gone
+      leafStore.clear();
+      moveLeaves(root);
+    }
+  }
+
+  /*
+   * The number of values of every feature, then the nodes in pre-order. A split node is the byte 1
+   * and its split feature, followed by its children. A leaf is the byte 0, its possible split
+   * features, whether it is active (see setMemoryBudget), its class totals and the part of them
+   * from before its last activation, the size at which it is evaluated next (see
+   * setAdaptiveGracePeriod), and for an active leaf the number of non-zero counts and (index in
+   * nijk, count) for each of them.
+   */
+  @Override
+  void writeBinary(DataOutputStream out) throws IOException {
+    out.writeInt(nbFeatureValues.length);
+    for (int values : nbFeatureValues) out.writeInt(values);
+    writeBinary(out, root);
+  }
+
+  private void writeBinary(DataOutputStream out, VfdtNode node) throws IOException {
+    VfdtNode[] children = node.getChildren();
+    if (children != null) {
+      out.writeByte(1);
+      out.writeInt(node.getSplitFeature());
+      for (VfdtNode child : children) writeBinary(out, child);
+      return;
+    }
+    int[] counts = nonZeroCounts(node, getLeafStatisticsSize());
+    writeLeaf(out, node.getPossibleSplitFeatures(), counts, leafState(node));
+  }
+
+  /*
+   * The non-zero counts of a leaf as (index in nijk, count) pairs, wherever they are kept, or null
+   * if the leaf is inactive.
+   */
+  private static int[] nonZeroCounts(VfdtNode leaf, int size) {
+    if (!leaf.isActive()) return null;
+    int nonZero = 0;
+    for (int index = 0; index < size; index++) {
+      if (leaf.getCount(index) != 0) nonZero++;
+    }
+    int[] pairs = new int[2 * nonZero];
+    int p = 0;
+    for (int index = 0; index < size && p < pairs.length; index++) {
+      int count = leaf.getCount(index);
+      if (count != 0) {
+        pairs[p++] = index;
+        pairs[p++] = count;
+      }
+    }
+    return pairs;
+  }
+
+  /*
+   * The class totals of a leaf, the part of them from before its last activation and the size at
+   * which it is evaluated next.
+   */
+  private static int[] leafState(VfdtNode leaf) {
+    return new int[] {
+      (int) leaf.getTotalZeros(),
+      (int) leaf.getTotalOnes(),
+      leaf.getInactiveZeros(),
+      leaf.getInactiveOnes(),
+      leaf.getNextEvaluation()
+    };
+  }
+
+  /* Writes a leaf with the pairs of nonZeroCounts, without counts if they are null. */
+  private static void writeLeaf(
+      DataOutputStream out, int[] possibleFeatures, int[] counts, int[] state)
+      throws IOException {
+    out.writeByte(0);
+    out.writeInt(possibleFeatures.length);
+    for (int feature : possibleFeatures) out.writeInt(feature);
+    out.writeBoolean(counts != null);
+    for (int value : state) out.writeInt(value);
+    if (counts == null) return;
+    out.writeInt(counts.length / 2);
+    for (int count : counts) out.writeInt(count);
+  }
+
+  /*
+   * Copies the structure of the tree and the non-zero counts of the active leaves. Nothing of the
+   * copy is kept in the tree, so it is garbage once the Checkpointer has written it.
+   */
+  @Override
+  BinaryModel.Snapshot snapshot() {
+    int[] features = nbFeatureValues.clone();
+    NodeSnapshot top = new NodeSnapshot(root, getLeafStatisticsSize());
+    return out -> {
+      out.writeInt(features.length);
+      for (int values : features) out.writeInt(values);
+      top.write(out);
+    };
+  }
+
+  /* An immutable copy of a node and its subtree. */
+  private static final class NodeSnapshot {
+    private final int splitFeature;
+    private final NodeSnapshot[] children;
+    private final int[] possibleFeatures;
+    private final int[] counts; /* see nonZeroCounts */
+    private final int[] state;
+
+    NodeSnapshot(VfdtNode node, int leafSize) {
+      VfdtNode[] nodeChildren = node.getChildren();
+      if (nodeChildren != null) {
+        splitFeature = node.getSplitFeature();
+        children = new NodeSnapshot[nodeChildren.length];
+        for (int v = 0; v < children.length; v++) {
+          children[v] = new NodeSnapshot(nodeChildren[v], leafSize);
+        }
+        possibleFeatures = null;
+        counts = null;
+        state = null;
+      } else {
+        splitFeature = -1;
+        children = null;
+        possibleFeatures = node.getPossibleSplitFeatures();
+        counts = nonZeroCounts(node, leafSize);
+        state = leafState(node);
+      }
+    }
+
+    void write(DataOutputStream out) throws IOException {
+      if (children == null) {
+        writeLeaf(out, possibleFeatures, counts, state);
+        return;
+      }
+      out.writeByte(1);
+      out.writeInt(splitFeature);
+      for (NodeSnapshot child : children) child.write(out);
+    }
+  }
+
+  @Override
+  void readBinary(DataInputStream in) throws IOException {
+    int nbFeatures = in.readInt();
+    boolean sameFeatures = nbFeatures == nbFeatureValues.length;
+    for (int i = 0; i < nbFeatures; i++) {
+      if (in.readInt() != (sameFeatures ? nbFeatureValues[i] : -1)) sameFeatures = false;
+    }
+    if (!sameFeatures) throw new IOException("The model was trained with other features");
+    int[] nbNodes = {0};
+    VfdtNode newRoot = readBinary(in, nbNodes);
+    setTree(newRoot, nbNodes[0]);
+  }
+
+  private VfdtNode readBinary(DataInputStream in, int[] nbNodes) throws IOException {
+    nbNodes[0]++;
+    if (in.readByte() != 0) {
+      int feature = in.readInt();
+      if (feature < 0 || feature >= nbFeatureValues.length) {
+        throw new IOException("Invalid split feature " + feature);
+      }
+      VfdtNode[] children = new VfdtNode[nbFeatureValues[feature]];
+      for (int v = 0; v < children.length; v++) children[v] = readBinary(in, nbNodes);
+      VfdtNode node = new VfdtNode(nbFeatureValues, nijkOffsets, null);
+      node.addChildren(feature, children);
+      return node;
+    }
+    int[] possibleFeatures = new int[in.readInt()];
+    for (int i = 0; i < possibleFeatures.length; i++) possibleFeatures[i] = in.readInt();
+    boolean active = in.readBoolean();
+    int totalZeros = in.readInt();
+    int totalOnes = in.readInt();
+    int inactiveZeros = in.readInt();
+    int inactiveOnes = in.readInt();
+    int nextEvaluation = in.readInt();
+    if (inactiveZeros < 0 || inactiveZeros > totalZeros
+        || inactiveOnes < 0 || inactiveOnes > totalOnes) {
+      throw new IOException("Invalid class totals of a leaf");
+    }
+    int[] nijk = null;
+    if (active) {
+      nijk = new int[nijkOffsets[nbFeatureValues.length]];
+      int nonZero = in.readInt();
+      for (int c = 0; c < nonZero; c++) {
+        int index = in.readInt();
+        if (index < 0 || index >= nijk.length) {
+          throw new IOException("Invalid count index " + index);
+        }
+        nijk[index] = in.readInt();
+      }
+    }
+    VfdtNode node = new VfdtNode(nbFeatureValues, nijkOffsets, possibleFeatures);
+    node.setLeafState(nijk, totalZeros, totalOnes, inactiveZeros, inactiveOnes);
+    node.setNextEvaluation(nextEvaluation);
+    return node;
   }
 
 
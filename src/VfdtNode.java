@@ -11,16 +11,31 @@ import static java.lang.Math.log;
 /** This class is a stub for VFDT. */
 public class VfdtNode {
 
-  private VfdtNode[] children; /* child children (null if node is a leaf) */
+  /*
+   * child children (null if node is a leaf). A split is published by the single volatile write of
+   * a fully built array, after splitFeature was set. Threads that predict while another thread
+   * trains only follow children, so they see either the leaf or the complete split.
+   */
+  private volatile VfdtNode[] children;
 
   private final int[] possibleSplitFeatures; /* The features that this node can split on */
 
   private int splitFeature; /* splitting feature */
 
-  private int[][][] nijk; /* instance counts (see paper) */
+  /*
+   * Instance counts (see paper), flattened: the count of feature i, value j and class k is
+   * nijk[nijkOffsets[i] + 2 * j + k].
+   */
+  private int[] nijk;
 
   private int[] nbFeatureValues;
 
+  private final int[] nijkOffsets; /* start of every feature in nijk, shared by all nodes */
+
+  private LeafStore store; /* holds nijk instead of the heap, if not null */
+
+  private int slot = -1; /* the slot of this leaf in store */
+
   // Amount of one class values
   private int totalOnes;
 
@@ -30,6 +45,17 @@ public class VfdtNode {
   //Ids of all children
   private int[] childIDs = null;
 
+  /*
+   * The part of the totals that is not in nijk: the examples before the last activation, see
+   * activate.
+   */
+  private int inactiveZeros;
+  private int inactiveOnes;
+
+
+  /* getNijkSize() before which no split evaluation is due, see Vfdt.setAdaptiveGracePeriod */
+  private volatile int nextEvaluation;
+
   /* FILL IN HERE */
 
   /**
@@ -41,23 +67,150 @@ public class VfdtNode {
    *     values, then the values are [0:k-1].
    */
   public VfdtNode(int[] nbFeatureValues, int[] possibleSplitFeatures) {
+    this(nbFeatureValues, nijkOffsets(nbFeatureValues), possibleSplitFeatures);
+  }
+
+  /**
+   * Create and initialize a leaf node, reusing the offsets of the flattened nijk.
+   *
+   * @param nbFeatureValues are the nb of values for each feature in this node.
+   * @param nijkOffsets are the offsets computed by nijkOffsets(nbFeatureValues).
+   */
+  VfdtNode(int[] nbFeatureValues, int[] nijkOffsets, int[] possibleSplitFeatures) {
+    this(nbFeatureValues, nijkOffsets, possibleSplitFeatures, null);
+  }
+
+  /**
+   * Create and initialize a leaf node that keeps its counts in a LeafStore.
+   *
+   * @param nbFeatureValues are the nb of values for each feature in this node.
+   * @param nijkOffsets are the offsets computed by nijkOffsets(nbFeatureValues).
+   * @param store holds the counts, or null to keep them on the heap.
+   */
+  VfdtNode(int[] nbFeatureValues, int[] nijkOffsets, int[] possibleSplitFeatures, LeafStore store) {
     this.possibleSplitFeatures = possibleSplitFeatures;
     this.nbFeatureValues = nbFeatureValues;
+    this.nijkOffsets = nijkOffsets;
     splitFeature = -1;
     children = null;
-    int maxSizeFeature = Arrays.stream(nbFeatureValues).max().getAsInt();
-    nijk = new int[nbFeatureValues.length][maxSizeFeature][2];
+    if (store == null) {
+      nijk = new int[nijkOffsets[nbFeatureValues.length]];
+    } else {
+      this.store = store;
+      slot = store.allocate();
+    }
     totalZeros = 0; totalOnes = 0;
   }
 
   /**
-   * Returns nijk
-   * @return nijk
+   * Computes where the counts of every feature start in the flattened nijk. Feature i takes
+   * 2 * nbFeatureValues[i] entries (one per value and class), so no space is wasted on features
+   * with less values than the largest feature.
+   *
+   * @param nbFeatureValues are the nb of values for each feature.
+   * @return the offsets; the last element is the size of nijk.
+   */
+  static int[] nijkOffsets(int[] nbFeatureValues) {
+    int[] offsets = new int[nbFeatureValues.length + 1];
+    for (int i = 0; i < nbFeatureValues.length; i++) {
+      offsets[i + 1] = offsets[i] + 2 * nbFeatureValues[i];
+    }
+    return offsets;
+  }
+
+  /**
+   * Returns nijk, flattened as described at nijkOffsets.
+   * @return nijk, or null if the counts are kept in a LeafStore
    */
-  public int[][][] getNijk(){
+  public int[] getNijk(){
     return nijk;
   }
 
+  /**
+   * Returns one count of nijk, wherever it is kept.
+   * @param index the index in the flattened nijk
+   * @return the count
+   */
+  public int getCount(int index) {
+    if (nijk != null) return nijk[index];
+    // an inactive leaf has no counts
+    return store != null ? store.get(slot, index) : 0;
+  }
+
+  /**
+   * Adds an example to the counts of this leaf.
+   *
+   * @param example the feature values of the example
+   * @param c the class of the example
+   */
+  public void addExample(Integer[] example, int c) {
+    update(c);
+    int[] nijk = this.nijk;
+    if (nijk != null) {
+      for (int i = 0; i < example.length; i++) {
+        nijk[nijkOffsets[i] + 2 * example[i] + c] += 1;
+      }
+    } else if (store != null) {
+      for (int i = 0; i < example.length; i++) {
+        store.increment(slot, nijkOffsets[i] + 2 * example[i] + c);
+      }
+    }
+  }
+
+  /**
+   * Same as addExample(Integer[], int), for an example in primitive form.
+   *
+   * @param example the feature values of the example
+   * @param c the class of the example
+   */
+  public void addExample(int[] example, int c) {
+    update(c);
+    int[] nijk = this.nijk;
+    if (nijk != null) {
+      for (int i = 0; i < example.length; i++) {
+        nijk[nijkOffsets[i] + 2 * example[i] + c] += 1;
+      }
+    } else if (store != null) {
+      for (int i = 0; i < example.length; i++) {
+        store.increment(slot, nijkOffsets[i] + 2 * example[i] + c);
+      }
+    }
+  }
+
+  /**
+   * Moves the counts of this leaf to a LeafStore (or back to the heap if store is null).
+   *
+   * @param store the new place of the counts
+   */
+  void moveTo(LeafStore store) {
+    if (children != null || !isActive() || store == this.store) return;
+    int[] counts = nijk;
+    if (counts == null) {
+      counts = new int[nijkOffsets[nbFeatureValues.length]];
+      this.store.copy(slot, 0, counts.length, counts);
+      this.store.release(slot);
+    }
+    this.store = store;
+    if (store == null) {
+      nijk = counts;
+      slot = -1;
+    } else {
+      nijk = null;
+      slot = store.allocate();
+      for (int i = 0; i < counts.length; i++) {
+        if (counts[i] != 0) store.set(slot, i, counts[i]);
+      }
+    }
+  }
+
+  /**
+   * Returns the offsets of the features in the flattened nijk
+   * @return nijkOffsets
+   */
+  public int[] getNijkOffsets(){
+    return nijkOffsets;
+  }
+
   /**
    * Returns possible split features
    * @return possibleSplitFeatures
@@ -87,11 +240,18 @@ public class VfdtNode {
     // Add the feature on which was split.
     this.splitFeature = splitFeature;
     int n = nbFeatureValues[splitFeature];
-    children = new VfdtNode[n];
+    VfdtNode[] children = new VfdtNode[n];
     for (int i = 0; i < n; i++){
       children[i] = nodes[i];
     }
+    // publish the split
+    this.children = children;
     nijk = null;
+    if (store != null) {
+      store.release(slot);
+      store = null;
+      slot = -1;
+    }
   }
 
   /**
@@ -102,11 +262,25 @@ public class VfdtNode {
    * @param example is the test attributeValues to sort.
    */
   public VfdtNode sortExample(Integer[] example) {
-    if (splitFeature == -1){
-      return this;
-    }else{
-      return children[example[splitFeature]].sortExample(example);
+    VfdtNode node = this;
+    // children is read once per node, splitFeature is only valid when it is not null
+    for (VfdtNode[] c = node.children; c != null; c = node.children) {
+      node = c[example[node.splitFeature]];
+    }
+    return node;
+  }
+
+  /**
+   * Same as sortExample(Integer[]), for an example in primitive form.
+   *
+   * @param example is the test attributeValues to sort.
+   */
+  public VfdtNode sortExample(int[] example) {
+    VfdtNode node = this;
+    for (VfdtNode[] c = node.children; c != null; c = node.children) {
+      node = c[example[node.splitFeature]];
     }
+    return node;
   }
 
   /**
@@ -120,7 +294,57 @@ public class VfdtNode {
    * @param featureId is the feature to be considered.
    */
   public double splitEval(int featureId) {
-    return informationGain(featureId, nijk);
+    return splitEval(featureId, SplitCriterion.ENTROPY);
+  }
+
+  /**
+   * Evaluate a split with the given criterion.
+   *
+   * @param featureId the feature to evaluate
+   * @param criterion the impurity measure
+   * @return the gain of splitting this leaf on the feature
+   */
+  public double splitEval(int featureId, SplitCriterion criterion) {
+    return splitEval(featureId, criterion, parentInformation(criterion));
+  }
+
+  /**
+   * Returns N*I(S) of this leaf for an impurity I, computed from the cached class totals. This is
+   * the same for every feature, so it is computed once per round of split evaluations, see
+   * splitEval(int, SplitCriterion, double).
+   *
+   * @param criterion the impurity measure
+   * @return the impurity of the leaf times the number of examples in the leaf
+   */
+  public double parentInformation(SplitCriterion criterion) {
+    return criterion.weightedImpurity(totalZeros - inactiveZeros, totalOnes - inactiveOnes);
+  }
+
+  /**
+   * Computes the gain of a feature without allocating anything.
+   *
+   * @param featureId the feature to evaluate
+   * @param criterion the impurity measure
+   * @param parentInformation the result of parentInformation(criterion)
+   * @return the gain of splitting this leaf on the feature
+   */
+  public double splitEval(int featureId, SplitCriterion criterion, double parentInformation) {
+    int totalEx = getNijkSize();
+    if (totalEx == 0) return 0;
+    int from = nijkOffsets[featureId];
+    int to = nijkOffsets[featureId + 1];
+    double childInformation = 0;
+    int[] nijk = this.nijk;
+    if (nijk != null) {
+      for (int j = from; j < to; j += 2) {
+        childInformation += criterion.weightedImpurity(nijk[j], nijk[j + 1]);
+      }
+    } else {
+      for (int j = from; j < to; j += 2) {
+        childInformation += criterion.weightedImpurity(store.get(slot, j), store.get(slot, j + 1));
+      }
+    }
+    return gain(parentInformation, childInformation, totalEx);
   }
 
   /**
@@ -132,64 +356,86 @@ public class VfdtNode {
    * @param nijk are the instance counts.
    */
   public static double informationGain(int featureId, int[][][] nijk) {
-    double ig = 0;
-    // Step 1: find amount of examples and amount belonging to class c.
-    double totalEx = 0;
-    int amountOfClasses = nijk[0][0].length;
-    double[] amountPerClass = new double[amountOfClasses];
-    for(int j = 0; j < nijk[featureId].length; j++){
-      for(int k = 0; k < nijk[featureId][j].length; k++){
-        totalEx += nijk[featureId][j][k];
-        amountPerClass[k] += nijk[featureId][j][k];
+    // Flatten the counts and compute the information gain on the flat layout.
+    int[] nbFeatureValues = new int[nijk.length];
+    for (int i = 0; i < nijk.length; i++) nbFeatureValues[i] = nijk[i].length;
+    int[] offsets = nijkOffsets(nbFeatureValues);
+    int[] flat = new int[offsets[nijk.length]];
+    for (int i = 0; i < nijk.length; i++) {
+      for (int j = 0; j < nijk[i].length; j++) {
+        flat[offsets[i] + 2 * j] = nijk[i][j][0];
+        flat[offsets[i] + 2 * j + 1] = nijk[i][j][1];
       }
     }
+    return informationGain(featureId, flat, offsets);
+  }
+
+  /**
+   * Compute the information gain of a feature, given the flattened instance counts.
+   *
+   * @param featureId is the feature to be considered.
+   * @param nijk are the flattened instance counts.
+   * @param nijkOffsets are the offsets of the features in nijk.
+   */
+  public static double informationGain(int featureId, int[] nijk, int[] nijkOffsets) {
+    return informationGain(nijk, nijkOffsets[featureId], nijkOffsets[featureId + 1]);
+  }
+
+  /**
+   * Compute the information gain of the feature with the counts nijk[from, to).
+   *
+   * @param nijk are the flattened instance counts.
+   * @param from is the offset of the feature in nijk.
+   * @param to is the offset of the next feature in nijk.
+   */
+  private static double informationGain(int[] nijk, int from, int to) {
+    // Step 1: find amount of examples belonging to class c.
+    int amountZeros = 0;
+    int amountOnes = 0;
+    for(int j = from; j < to; j += 2){
+      amountZeros += nijk[j];
+      amountOnes += nijk[j + 1];
+    }
+    int totalEx = amountZeros + amountOnes;
     if(totalEx == 0){
       return 0;
     }
-    double currentEntropy = calculateEntropy(amountPerClass, totalEx);
-
-    // Step 2: Calculate the different distribution of class values in different values for featureID.
-    double[][] allClassesOfSubSets = new double[nijk[featureId].length][amountOfClasses];
-    for(int j = 0; j < nijk[featureId].length; j++){
-      for(int k = 0; k < nijk[featureId][j].length; k++){
-        if(nijk[featureId][j][k] != 0){
-          allClassesOfSubSets[j][k] += nijk[featureId][j][k];
-        }
-      }
-    }
+    double parentInformation = nlogn(totalEx) - nlogn(amountZeros) - nlogn(amountOnes);
 
-    // Step 3: calculate information gain
-    double entropySubsets = 0;
-    for (int i = 0; i < allClassesOfSubSets.length; i++){
-      int amountSubset = 0;
-      for(int o = 0; o < allClassesOfSubSets[i].length; o++){
-        amountSubset += allClassesOfSubSets[i][o];
-      }
-      double cei = calculateEntropy(allClassesOfSubSets[i], amountSubset);
-      entropySubsets += cei*(amountSubset/totalEx);
+    // Step 2: subtract the information of the subsets of the different values of featureId.
+    double childInformation = 0;
+    for (int j = from; j < to; j += 2){
+      childInformation += nlogn(nijk[j] + nijk[j + 1]) - nlogn(nijk[j]) - nlogn(nijk[j + 1]);
     }
-    ig = currentEntropy - entropySubsets;
-    return ig;
+    return gain(parentInformation, childInformation, totalEx);
+  }
+
+  /*
+   * The entropy of a set of n examples with counts n_k per class is
+   * H = log n - sum_k (n_k / n) log n_k, so n * H = n log n - sum_k n_k log n_k. Working with n * H
+   * turns the information gain into sums of x log x terms, which come from a table for small x.
+   */
+  private static final int NLOGN_TABLE_SIZE = 1 << 14;
+  private static final double[] NLOGN = new double[NLOGN_TABLE_SIZE];
+
+  static {
+    for (int x = 1; x < NLOGN_TABLE_SIZE; x++) NLOGN[x] = x * (log(x) / log(2));
+  }
+
+  /** @return x log2(x), with 0 log2(0) = 0 */
+  static double nlogn(int x) {
+    return x < NLOGN_TABLE_SIZE ? NLOGN[x] : x * (log(x) / log(2));
   }
 
   /**
-   * Calculates the information gain
-   *
-   * @param amountPerClass Distribution of different classes of a feature
-   * @param S Size of subset f
-   * @return the entropy of the subset
-   */
-  private static double calculateEntropy(double[] amountPerClass, double S) {
-    double ce = 0;
-    if(S > 0){
-      for (int i = 0; i < amountPerClass.length; i++){
-        double pi = amountPerClass[i]/S;
-        if(pi != 0){
-          ce -= pi* (log(pi)/log(2));
-        }
-      }
-    }
-    return ce;
+   * @param parentInformation N*H of the leaf
+   * @param childInformation the sum of n_j*H_j over the values of the feature
+   * @param totalEx the number of examples N in the leaf
+   * @return H - sum_j (n_j / N) H_j, or the same for another impurity than H
+   */
+  private static double gain(double parentInformation, double childInformation, int totalEx) {
+    // the gain is never negative, rounding errors could make it a tiny bit so
+    return Math.max(0, (parentInformation - childInformation) / totalEx);
   }
 
 
@@ -213,19 +459,73 @@ public class VfdtNode {
     }
   }
 
+  /**
+   * @return whether this node is a leaf that keeps counts, see deactivate
+   */
+  public boolean isActive() {
+    return children == null && (nijk != null || store != null);
+  }
+
+  /** @return the number of examples in nijk before which the leaf is not evaluated for a split */
+  int getNextEvaluation() {
+    return nextEvaluation;
+  }
+
+  /** @param nextEvaluation see getNextEvaluation */
+  void setNextEvaluation(int nextEvaluation) {
+    this.nextEvaluation = nextEvaluation;
+  }
+
+  /**
+   * Drops the counts of this leaf to save memory. The leaf keeps counting its class totals, so
+   * predictions and its promise still follow new examples, but it cannot be split until it is
+   * activated again.
+   */
+  void deactivate() {
+    if (!isActive()) return;
+    nijk = null;
+    if (store != null) {
+      store.release(slot);
+      store = null;
+      slot = -1;
+    }
+  }
+
+  /**
+   * Gives an inactive leaf new, empty counts. The split statistics of the leaf start over: the
+   * examples it saw before are only kept in its class totals.
+   *
+   * @param store the LeafStore for the counts, or null for the heap
+   */
+  void activate(LeafStore store) {
+    if (children != null || isActive()) return;
+    inactiveZeros = totalZeros;
+    inactiveOnes = totalOnes;
+    nextEvaluation = 0;
+    this.store = store;
+    if (store == null) {
+      nijk = new int[nijkOffsets[nbFeatureValues.length]];
+    } else {
+      slot = store.allocate();
+    }
+  }
+
+  /**
+   * @return the promise of this leaf: the number of examples in it that the majority class
+   *     misclassifies. Divided by the number of examples of the tree, this is the error rate of
+   *     the leaf times the fraction of examples that reach it.
+   */
+  public int getPromise() {
+    return Math.min(totalZeros, totalOnes);
+  }
+
   /**
    * Returns the size of nijk
    * @return size of nijk
    */
   public int getNijkSize() {
-    int f = possibleSplitFeatures[0];
-    int totalEx = 0;
-    for(int j = 0; j < nijk[0].length; j++){
-      for(int k = 0; k < nijk[0][j].length; k++){
-        totalEx += nijk[f][j][k];
-      }
-    }
-    return totalEx;
+    // every example is counted once for every feature, except those of an earlier activation
+    return totalZeros - inactiveZeros + totalOnes - inactiveOnes;
   }
 
   public int getSplitFeature() {
@@ -266,8 +566,55 @@ public class VfdtNode {
     return id;
   }
 
-  public void setNijk(int[][][] n) {
+  public void setNijk(int[] n) {
     nijk = n;
+    // the totals are not in a text model file, but every example was counted once for every
+    // feature; without features there is nothing to derive them from
+    totalZeros = 0; totalOnes = 0;
+    inactiveZeros = 0; inactiveOnes = 0;
+    if (nbFeatureValues.length > 0) {
+      for (int j = nijkOffsets[0]; j < nijkOffsets[1]; j += 2) {
+        totalZeros += n[j];
+        totalOnes += n[j + 1];
+      }
+    }
+    if (store != null) {
+      store.release(slot);
+      store = null;
+      slot = -1;
+    }
+  }
+
+  /** @return the part of the class totals from before the last activation, class 0 */
+  int getInactiveZeros() {
+    return inactiveZeros;
+  }
+
+  /** @return the part of the class totals from before the last activation, class 1 */
+  int getInactiveOnes() {
+    return inactiveOnes;
+  }
+
+  /**
+   * Sets the state of a leaf that was read from a binary model, see Vfdt.writeBinaryModel.
+   *
+   * @param n the counts, or null for a leaf that was deactivated, see deactivate
+   * @param totalZeros the number of examples of class 0 in the leaf
+   * @param totalOnes the number of examples of class 1 in the leaf
+   * @param inactiveZeros the examples of class 0 that are not in the counts, see activate
+   * @param inactiveOnes the examples of class 1 that are not in the counts
+   */
+  void setLeafState(int[] n, int totalZeros, int totalOnes, int inactiveZeros, int inactiveOnes) {
+    nijk = n;
+    this.totalZeros = totalZeros;
+    this.totalOnes = totalOnes;
+    this.inactiveZeros = inactiveZeros;
+    this.inactiveOnes = inactiveOnes;
+    if (store != null) {
+      store.release(slot);
+      store = null;
+      slot = -1;
+    }
   }
 
   public void setChildIDs(int[] c) {
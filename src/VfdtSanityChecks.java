@@ -5,11 +5,29 @@
 import static org.junit.Assert.*;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 import org.junit.*;
 
 public class VfdtSanityChecks {
@@ -163,4 +181,881 @@ public class VfdtSanityChecks {
         ig,
         0.0000001);
   }
+
+  @Test
+  public void flatNijkLayout() throws Exception {
+    VfdtNode node = new VfdtNode(new int[] {3, 3, 2}, new int[] {0, 1, 2});
+    assertArrayEquals(
+        "Every feature should take two counts per value", new int[] {0, 6, 12, 16},
+        node.getNijkOffsets());
+    assertEquals("The leaf should only store 16 counts", 16, node.getNijk().length);
+
+    learner.update(example1);
+    learner.update(example2);
+    learner.update(example3);
+    String path = "output/vfdtSanityFlat.model";
+    learner.writeModel(path);
+    Vfdt learner2 = new Vfdt(new int[] {3, 3, 2}, 0.05, 0.05, 1);
+    learner2.readModel(path, learner.nbExamplesProcessed);
+    learner2.writeModel("output/vfdtSanityFlat2.model");
+    assertEquals(
+        "Reading and writing a model should not change the counts",
+        new String(Files.readAllBytes(Paths.get(path)), StandardCharsets.US_ASCII),
+        new String(
+            Files.readAllBytes(Paths.get("output/vfdtSanityFlat2.model")),
+            StandardCharsets.US_ASCII));
+
+    VfdtNode empty = new VfdtNode(new int[0], new int[0]);
+    empty.setNijk(new int[0]);
+    assertEquals("A leaf without features has no totals", 0, empty.getTotalOnes(), 0);
+  }
+
+  @Test
+  public void leafStoreGivesSameModel() throws Exception {
+    int[] nbFeatureValues = new int[] {3, 3, 2};
+    Vfdt heap = new Vfdt(nbFeatureValues, 0.05, 0.05, 5);
+    Vfdt offHeap = new Vfdt(nbFeatureValues, 0.05, 0.05, 5);
+    Vfdt mapped = new Vfdt(nbFeatureValues, 0.05, 0.05, 5);
+    Random random = new Random(1);
+    for (int n = 0; n < 500; n++) {
+      int[] x = {random.nextInt(3), random.nextInt(3), random.nextInt(2)};
+      int c = (x[0] == 1 || x[2] == 1) ? 1 : 0;
+      heap.update(x, c);
+      // move the leaves half way, to also test converting an existing tree
+      if (n == 250) {
+        offHeap.setLeafStore(LeafStore.offHeap(offHeap.getLeafStatisticsSize()));
+        mapped.setLeafStore(
+            LeafStore.mapped(mapped.getLeafStatisticsSize(), "output/vfdtSanity.leaves"));
+      }
+      offHeap.update(x, c);
+      mapped.update(x, c);
+    }
+    heap.writeModel("output/vfdtSanityHeap.model");
+    offHeap.writeModel("output/vfdtSanityOffHeap.model");
+    mapped.writeModel("output/vfdtSanityMapped.model");
+    String expected =
+        new String(
+            Files.readAllBytes(Paths.get("output/vfdtSanityHeap.model")),
+            StandardCharsets.US_ASCII);
+    assertEquals(
+        "An off-heap leaf store should not change the model",
+        expected,
+        new String(
+            Files.readAllBytes(Paths.get("output/vfdtSanityOffHeap.model")),
+            StandardCharsets.US_ASCII));
+    assertEquals(
+        "A mapped leaf store should not change the model",
+        expected,
+        new String(
+            Files.readAllBytes(Paths.get("output/vfdtSanityMapped.model")),
+            StandardCharsets.US_ASCII));
+    int nbLeaves = 0;
+    for (String line : expected.split(System.lineSeparator())) if (line.contains(" L ")) nbLeaves++;
+    assertEquals(
+        "Every leaf should have exactly one slot", nbLeaves,
+        offHeap.getLeafStore().getNbSlotsInUse());
+    mapped.getLeafStore().close();
+
+    try {
+      LeafStore.offHeap(Integer.MAX_VALUE / 2);
+      fail("A slot larger than a buffer should be refused");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void splitEvalMatchesEntropyDefinition() throws Exception {
+    int[] nbFeatureValues = new int[] {4, 2};
+    VfdtNode node = new VfdtNode(nbFeatureValues, new int[] {0, 1});
+    Random random = new Random(2);
+    // enough examples to go beyond the n log n table
+    for (int n = 0; n < 40000; n++) {
+      int[] x = {random.nextInt(4), random.nextInt(2)};
+      node.addExample(x, random.nextInt(3) < x[0] ? 1 : 0);
+    }
+    assertEquals("The size should come from the class totals", 40000, node.getNijkSize());
+    int[] nijk = node.getNijk();
+    for (int f = 0; f < 2; f++) {
+      double n = node.getNijkSize();
+      double expected = entropy(node.getTotalZeros(), node.getTotalOnes());
+      for (int j = node.getNijkOffsets()[f]; j < node.getNijkOffsets()[f + 1]; j += 2) {
+        expected -= (nijk[j] + nijk[j + 1]) / n * entropy(nijk[j], nijk[j + 1]);
+      }
+      assertEquals(
+          "The information gain should match the definition", expected, node.splitEval(f), 1e-12);
+    }
+
+    // the totals are derived from the counts when a model is read
+    VfdtNode read = new VfdtNode(nbFeatureValues, new int[] {0, 1});
+    read.setNijk(nijk.clone());
+    assertEquals("The totals should be derived from nijk", node.getTotalOnes(),
+        read.getTotalOnes(), 0);
+    assertEquals("The totals should be derived from nijk", node.getTotalZeros(),
+        read.getTotalZeros(), 0);
+  }
+
+  private static double entropy(double zeros, double ones) {
+    double n = zeros + ones;
+    double h = 0;
+    if (zeros > 0) h -= zeros / n * Math.log(zeros / n) / Math.log(2);
+    if (ones > 0) h -= ones / n * Math.log(ones / n) / Math.log(2);
+    return h;
+  }
+
+  @Test
+  public void parallelSplitEvaluation() throws Exception {
+    int nbFeatures = 50;
+    int[] nbFeatureValues = new int[nbFeatures];
+    int[] possibleFeatures = new int[nbFeatures];
+    for (int i = 0; i < nbFeatures; i++) {
+      nbFeatureValues[i] = 3;
+      possibleFeatures[i] = i;
+    }
+    VfdtNode node = new VfdtNode(nbFeatureValues, possibleFeatures);
+    Random random = new Random(3);
+    int[] x = new int[nbFeatures];
+    for (int n = 0; n < 1000; n++) {
+      for (int i = 0; i < nbFeatures; i++) x[i] = random.nextInt(3);
+      // features 7 and 7 + 25 are identical, so they tie
+      x[32] = x[7];
+      node.addExample(x, x[7] == 0 || random.nextInt(4) == 0 ? 1 : 0);
+    }
+    SplitEvaluator.Result expected = SplitEvaluator.sequential(node, SplitCriterion.ENTROPY);
+    SplitEvaluator.Result actual =
+        new SplitEvaluator(ForkJoinPool.commonPool(), 1).evaluate(node, SplitCriterion.ENTROPY);
+    assertEquals("The first of two tied features should be the best", 7, expected.feature);
+    assertEquals("The parallel evaluator should find the same feature", 7, actual.feature);
+    assertEquals("The parallel evaluator should find the same gain", expected.best, actual.best, 0);
+    assertEquals(
+        "The parallel evaluator should find the same second gain",
+        expected.secondBest, actual.secondBest, 0);
+
+    Vfdt sequential = new Vfdt(nbFeatureValues, 0.05, 0.05, 20);
+    Vfdt parallel = new Vfdt(nbFeatureValues, 0.05, 0.05, 20);
+    parallel.setSplitEvaluator(
+        new SplitEvaluator(ForkJoinPool.commonPool(), 1));
+    for (int n = 0; n < 2000; n++) {
+      for (int i = 0; i < nbFeatures; i++) x[i] = random.nextInt(3);
+      int c = x[3] == 1 || x[9] == 2 ? 1 : 0;
+      sequential.update(x, c);
+      parallel.update(x, c);
+    }
+    assertEquals(
+        "A parallel evaluator should not change the tree",
+        sequential.getVisualization(), parallel.getVisualization());
+  }
+
+  @Test
+  public void splitCriteria() throws Exception {
+    // feature 0 separates the classes perfectly, feature 1 is useless
+    VfdtNode node = new VfdtNode(new int[] {2, 2}, new int[] {0, 1});
+    for (int n = 0; n < 8; n++) node.addExample(new int[] {n % 2, n / 4}, n % 2);
+    assertEquals(
+        "A perfect split should have the full range as gain",
+        SplitCriterion.ENTROPY.range(), node.splitEval(0, SplitCriterion.ENTROPY), 1e-12);
+    assertEquals(
+        "A perfect split should have the full range as gain",
+        SplitCriterion.GINI.range(), node.splitEval(0, SplitCriterion.GINI), 1e-12);
+    assertEquals(
+        "A perfect split should have the full range as gain",
+        SplitCriterion.MISCLASSIFICATION.range(),
+        node.splitEval(0, SplitCriterion.MISCLASSIFICATION), 1e-12);
+    for (SplitCriterion criterion :
+        new SplitCriterion[] {
+          SplitCriterion.ENTROPY, SplitCriterion.GINI, SplitCriterion.MISCLASSIFICATION
+        }) {
+      assertEquals(
+          "A useless split should have no gain", 0, node.splitEval(1, criterion), 1e-12);
+      assertEquals("The names should be parsed", criterion,
+          SplitCriterion.forName(criterion.toString()));
+    }
+
+    Vfdt gini = new Vfdt(new int[] {3, 3, 2}, 0.05, 0.05, 1, SplitCriterion.GINI);
+    gini.readModel("models/vfdtSanity1.model", 0);
+    gini.update(example1);
+    assertEquals("The criterion should be kept", SplitCriterion.GINI, gini.getSplitCriterion());
+  }
+
+  @Test
+  public void predictWhileTraining() throws Exception {
+    int nbFeatures = 12;
+    int[] nbFeatureValues = new int[nbFeatures];
+    Arrays.fill(nbFeatureValues, 4);
+    // nmin 1 and a large tau make the tree split as often as possible
+    Vfdt vfdt = new Vfdt(nbFeatureValues, 0.5, 1, 1);
+    AtomicBoolean training = new AtomicBoolean(true);
+    AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    Thread[] readers = new Thread[3];
+    for (int t = 0; t < readers.length; t++) {
+      final long seed = t;
+      readers[t] =
+          new Thread(
+              () -> {
+                Random random = new Random(seed);
+                int[] x = new int[nbFeatures];
+                Integer[] boxed = new Integer[nbFeatures];
+                try {
+                  while (training.get()) {
+                    for (int i = 0; i < nbFeatures; i++) boxed[i] = x[i] = random.nextInt(4);
+                    double p = vfdt.makePrediction(x);
+                    double q = vfdt.makePrediction(boxed);
+                    if (!(p >= 0 && p <= 1 && q >= 0 && q <= 1)) {
+                      throw new AssertionError("Invalid prediction " + p + " " + q);
+                    }
+                  }
+                } catch (Throwable e) {
+                  failure.compareAndSet(null, e);
+                }
+              });
+      readers[t].start();
+    }
+    Random random = new Random(7);
+    int[] x = new int[nbFeatures];
+    for (int n = 0; n < 100000 && failure.get() == null; n++) {
+      for (int i = 0; i < nbFeatures; i++) x[i] = random.nextInt(4);
+      vfdt.update(x, (x[0] + x[1] + x[2] + random.nextInt(2)) % 2);
+    }
+    training.set(false);
+    for (Thread reader : readers) reader.join();
+    if (failure.get() != null) throw new AssertionError("A reader failed", failure.get());
+    assertTrue("The tree should have split", vfdt.getVisualization().length() > 100);
+  }
+
+  @Test
+  public void concurrentUpdates() throws Exception {
+    int nbFeatures = 8;
+    int[] nbFeatureValues = new int[nbFeatures];
+    Arrays.fill(nbFeatureValues, 3);
+    Random random = new Random(9);
+    int nbRows = 40000;
+    int[][] rows = new int[nbRows][nbFeatures];
+    int[] classValues = new int[nbRows];
+    for (int r = 0; r < nbRows; r++) {
+      for (int i = 0; i < nbFeatures; i++) rows[r][i] = random.nextInt(3);
+      classValues[r] = rows[r][2] == 1 || rows[r][5] == 0 ? 1 : 0;
+    }
+
+    // with one thread, the concurrent mode should build the same tree
+    Vfdt sequential = new Vfdt(nbFeatureValues, 0.05, 0.05, 50);
+    Vfdt concurrent = new Vfdt(nbFeatureValues, 0.05, 0.05, 50);
+    concurrent.setConcurrentUpdates(true);
+    for (int r = 0; r < nbRows; r++) {
+      sequential.update(rows[r], classValues[r]);
+      concurrent.update(rows[r], classValues[r]);
+    }
+    concurrent.flushUpdates();
+    assertEquals(
+        "One thread should give the same tree",
+        sequential.getVisualization(), concurrent.getVisualization());
+
+    Vfdt shared = new Vfdt(nbFeatureValues, 0.05, 0.05, 50);
+    shared.setConcurrentUpdates(true);
+    Thread[] threads = new Thread[4];
+    AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    for (int t = 0; t < threads.length; t++) {
+      final int id = t;
+      threads[t] =
+          new Thread(
+              () -> {
+                try {
+                  for (int r = id; r < nbRows; r += threads.length) {
+                    shared.update(rows[r], classValues[r]);
+                  }
+                } catch (Throwable e) {
+                  failure.compareAndSet(null, e);
+                }
+              });
+      threads[t].start();
+    }
+    for (Thread thread : threads) thread.join();
+    if (failure.get() != null) throw new AssertionError("A writer failed", failure.get());
+    shared.flushUpdates();
+    assertEquals("No example should be lost", nbRows, shared.nbExamplesProcessed);
+    // every example is counted in the totals of the leaf it reached, also during a split
+    assertEquals("No example should be lost in a split", nbRows, countTotals(shared.getRoot()));
+    assertTrue(
+        "The shared tree should learn the concept",
+        shared.makePrediction(new int[] {0, 0, 1, 0, 0, 1, 0, 0}) > 0.5
+            && shared.makePrediction(new int[] {0, 0, 0, 0, 0, 1, 0, 0}) < 0.5);
+  }
+
+  /* The sum of the class totals of all nodes under node. */
+  private static long countTotals(VfdtNode node) {
+    long total = (long) (node.getTotalZeros() + node.getTotalOnes());
+    if (node.getChildren() != null) {
+      for (VfdtNode child : node.getChildren()) total += countTotals(child);
+    }
+    return total;
+  }
+
+  @Test
+  public void predictBatch() {
+    int[] nbFeatureValues = {3, 4, 2};
+    Random random = new Random(10);
+    Vfdt vfdt = new Vfdt(nbFeatureValues, 0.05, 0.05, 20);
+    int nbRows = 2 * IncrementalLearner.BATCH_CHUNK + 5;
+    int[] rows = new int[3 * nbRows];
+    double[] doubleRows = new double[rows.length];
+    for (int r = 0; r < nbRows; r++) {
+      for (int i = 0; i < 3; i++) rows[3 * r + i] = random.nextInt(nbFeatureValues[i]);
+    }
+    for (int i = 0; i < rows.length; i++) doubleRows[i] = rows[i];
+    for (int r = 0; r < nbRows; r++) {
+      int c = rows[3 * r + 1] >= 2 && rows[3 * r] != 0 ? 1 : 0;
+      vfdt.update(Arrays.copyOfRange(rows, 3 * r, 3 * r + 3), c);
+    }
+    assertTrue("The tree should have split", !vfdt.getVisualization().equals("Leaf\n"));
+
+    for (boolean parallel : new boolean[] {false, true}) {
+      double[] predictions = new double[nbRows];
+      double[] fromDoubles = new double[nbRows];
+      vfdt.predictBatch(rows, nbRows, predictions, parallel);
+      vfdt.predictBatch(doubleRows, nbRows, fromDoubles, parallel);
+      for (int r = 0; r < nbRows; r++) {
+        double expected = vfdt.makePrediction(Arrays.copyOfRange(rows, 3 * r, 3 * r + 3));
+        assertEquals(
+            "predictBatch(int[]) should route like makePrediction", expected, predictions[r], 0);
+        assertEquals(
+            "predictBatch(double[]) should route like makePrediction", expected, fromDoubles[r], 0);
+      }
+    }
+  }
+
+  @Test
+  public void freeze() {
+    int[] nbFeatureValues = {3, 4, 2, 3};
+    Random random = new Random(12);
+    int[][] rows = new int[30000][4];
+    int[] classValues = new int[rows.length];
+    for (int r = 0; r < rows.length; r++) {
+      for (int i = 0; i < 4; i++) rows[r][i] = random.nextInt(nbFeatureValues[i]);
+      classValues[r] = (rows[r][1] >= 2) != (rows[r][3] == 0) ? 1 : 0;
+    }
+    Vfdt vfdt = new Vfdt(nbFeatureValues, 0.05, 0.05, 20);
+    FrozenVfdt first = vfdt.freeze();
+    assertEquals("An empty tree should be one leaf", 1, first.getNbNodes());
+
+    FrozenVfdt previous = first;
+    for (int part = 0; part < 3; part++) {
+      for (int r = part * 10000; r < (part + 1) * 10000; r++) vfdt.update(rows[r], classValues[r]);
+      FrozenVfdt frozen = vfdt.freeze();
+      assertTrue("Freezing should follow the splits", frozen.getNbNodes() >= previous.getNbNodes());
+      double[] batch = new double[rows.length];
+      int[] flat = new int[4 * rows.length];
+      for (int r = 0; r < rows.length; r++) System.arraycopy(rows[r], 0, flat, 4 * r, 4);
+      frozen.predictBatch(flat, rows.length, batch);
+      for (int r = 0; r < rows.length; r++) {
+        double expected = vfdt.makePrediction(rows[r]);
+        assertEquals(
+            "The frozen tree should predict like the tree",
+            expected, frozen.makePrediction(rows[r]), 0);
+        assertEquals("predictBatch should predict like the tree", expected, batch[r], 0);
+      }
+      previous = frozen;
+    }
+    assertTrue("The tree should have split", previous.getNbNodes() > 1);
+    assertEquals("An earlier freeze should not change", 1, first.getNbNodes());
+    assertEquals("The empty tree predicts 0.5", 0.5, first.makePrediction(rows[0]), 0);
+
+    // a value out of range would land in the subtree of the next sibling
+    int[] outOfRange = {3, 4, 2, 3};
+    try {
+      previous.makePrediction(outOfRange);
+      fail("A value out of range should be refused");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void binaryModelRoundTrip() throws Exception {
+    int[] nbFeatureValues = {3, 4, 2};
+    Random random = new Random(14);
+    Vfdt vfdt = new Vfdt(nbFeatureValues, 0.05, 0.05, 20);
+    for (int n = 0; n < 5000; n++) {
+      int[] x = {random.nextInt(3), random.nextInt(4), random.nextInt(2)};
+      vfdt.update(x, (x[1] >= 2) != (x[2] == 1) ? 1 : 0);
+    }
+    vfdt.writeModel("output/vfdtSanityText.model");
+    String expected =
+        new String(
+            Files.readAllBytes(Paths.get("output/vfdtSanityText.model")),
+            StandardCharsets.US_ASCII);
+
+    for (boolean compress : new boolean[] {false, true}) {
+      vfdt.writeBinaryModel("output/vfdtSanityBinary.model", compress);
+      Vfdt read = new Vfdt(nbFeatureValues, 0.05, 0.05, 20);
+      read.readBinaryModel("output/vfdtSanityBinary.model");
+      assertEquals(
+          "The binary model should keep the number of examples", 5000, read.nbExamplesProcessed);
+      read.writeModel("output/vfdtSanityText2.model");
+      assertEquals(
+          "The binary model should give the same tree and counts",
+          expected,
+          new String(
+              Files.readAllBytes(Paths.get("output/vfdtSanityText2.model")),
+              StandardCharsets.US_ASCII));
+
+      // readModel recognises the binary format
+      Vfdt detected = new Vfdt(nbFeatureValues, 0.05, 0.05, 20);
+      detected.readModel("output/vfdtSanityBinary.model", 7);
+      assertEquals("readModel should set nbExamplesProcessed", 7, detected.nbExamplesProcessed);
+      assertEquals(vfdt.getVisualization(), detected.getVisualization());
+    }
+
+    new Perceptron(3, 0.1).writeBinaryModel("output/vfdtSanityBinary.model", false);
+    try {
+      new Vfdt(nbFeatureValues, 0.05, 0.05, 20).readBinaryModel("output/vfdtSanityBinary.model");
+      fail("A Perceptron model should not be read by a Vfdt");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void mappedPredictionModel() throws Exception {
+    int[] nbFeatureValues = {3, 4, 2, 3};
+    Random random = new Random(17);
+    Vfdt vfdt = new Vfdt(nbFeatureValues, 0.05, 0.05, 20);
+    int[][] rows = new int[20000][4];
+    for (int r = 0; r < rows.length; r++) {
+      for (int i = 0; i < 4; i++) rows[r][i] = random.nextInt(nbFeatureValues[i]);
+      vfdt.update(rows[r], (rows[r][1] >= 2) != (rows[r][3] == 0) ? 1 : 0);
+    }
+    vfdt.writePredictionModel("output/vfdtSanity.predict");
+    MappedVfdtModel mapped = MappedVfdtModel.open("output/vfdtSanity.predict");
+    assertEquals(vfdt.freeze().getNbNodes(), mapped.getNbNodes());
+    assertTrue("The tree should have split", mapped.getNbNodes() > 1);
+    int[] flat = new int[4 * rows.length];
+    for (int r = 0; r < rows.length; r++) System.arraycopy(rows[r], 0, flat, 4 * r, 4);
+    double[] batch = new double[rows.length];
+    mapped.predictBatch(flat, rows.length, batch);
+    for (int r = 0; r < rows.length; r++) {
+      double expected = vfdt.makePrediction(rows[r]);
+      assertEquals(
+          "The mapped model should predict like the tree",
+          expected, mapped.makePrediction(rows[r]), 0);
+      assertEquals("predictBatch should predict like the tree", expected, batch[r], 0);
+    }
+
+    // a value out of range would land in the subtree of the next sibling
+    try {
+      mapped.makePrediction(new int[] {3, 4, 2, 3});
+      fail("A value out of range should be refused");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+
+    // a root that is its own first child would never reach a leaf
+    try (RandomAccessFile file = new RandomAccessFile("output/vfdtSanity.predict", "rw")) {
+      file.seek(MappedVfdtModel.HEADER_BYTES + 4 * nbFeatureValues.length + 4);
+      file.write(new byte[4]);
+    }
+    try {
+      MappedVfdtModel.open("output/vfdtSanity.predict");
+      fail("A node whose children do not come after it should be refused");
+    } catch (IOException e) {
+      // expected
+    }
+
+    vfdt.writeBinaryModel("output/vfdtSanity.predict", false);
+    try {
+      MappedVfdtModel.open("output/vfdtSanity.predict");
+      fail("A binary model is not a prediction model");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void checkpointAndResume() throws Exception {
+    int[] nbFeatureValues = {3, 4, 2};
+    Random random = new Random(18);
+    int[][] rows = new int[5000][];
+    int[] classValues = new int[rows.length];
+    for (int r = 0; r < rows.length; r++) {
+      rows[r] = new int[] {random.nextInt(3), random.nextInt(4), random.nextInt(2)};
+      classValues[r] = (rows[r][1] >= 2) != (rows[r][2] == 1) ? 1 : 0;
+    }
+    String path = "output/vfdtSanity.checkpoint";
+    new File(path).delete();
+
+    Vfdt vfdt = new Vfdt(nbFeatureValues, 0.05, 0.05, 20);
+    Checkpointer checkpointer = new Checkpointer(vfdt, path, 1000, 0, true);
+    for (int r = 0; r < 3500; r++) vfdt.update(rows[r], classValues[r]);
+    checkpointer.flush();
+    assertEquals("A checkpoint every 1000 examples", 3, checkpointer.getNbCheckpoints());
+
+    // a crash after 3500 examples: resume from the checkpoint of 3000 examples
+    Vfdt resumed = new Vfdt(nbFeatureValues, 0.05, 0.05, 20);
+    assertTrue("There should be a checkpoint", Checkpointer.restore(resumed, path));
+    assertEquals("The checkpoint has 3000 examples", 3000, resumed.nbExamplesProcessed);
+    for (int r = 3000; r < rows.length; r++) resumed.update(rows[r], classValues[r]);
+    for (int r = 3500; r < rows.length; r++) vfdt.update(rows[r], classValues[r]);
+    checkpointer.close();
+
+    vfdt.writeModel("output/vfdtSanityCheckpoint1.model");
+    resumed.writeModel("output/vfdtSanityCheckpoint2.model");
+    assertEquals(
+        "Resuming from a checkpoint should give the same model",
+        new String(
+            Files.readAllBytes(Paths.get("output/vfdtSanityCheckpoint1.model")),
+            StandardCharsets.US_ASCII),
+        new String(
+            Files.readAllBytes(Paths.get("output/vfdtSanityCheckpoint2.model")),
+            StandardCharsets.US_ASCII));
+
+    // close wrote the final model
+    Vfdt last = new Vfdt(nbFeatureValues, 0.05, 0.05, 20);
+    Checkpointer.restore(last, path);
+    assertEquals(rows.length, last.nbExamplesProcessed);
+    assertEquals(vfdt.getVisualization(), last.getVisualization());
+  }
+
+  @Test
+  public void checkpointsKeepNoCopies() throws Exception {
+    int[] nbFeatureValues = {3, 4, 2, 5, 3};
+    Random random = new Random(19);
+    int[][] rows = new int[20000][5];
+    int[] classValues = new int[rows.length];
+    for (int r = 0; r < rows.length; r++) {
+      for (int i = 0; i < 5; i++) rows[r][i] = random.nextInt(nbFeatureValues[i]);
+      classValues[r] = (rows[r][1] >= 2) != (rows[r][3] == 0) ? 1 : 0;
+    }
+    String path = "output/vfdtSanityCopies.checkpoint";
+    for (boolean offHeap : new boolean[] {false, true}) {
+      Vfdt plain = new Vfdt(nbFeatureValues, 0.05, 0.05, 20);
+      Vfdt checkpointed = new Vfdt(nbFeatureValues, 0.05, 0.05, 20);
+      LeafStore plainStore = LeafStore.offHeap(plain.getLeafStatisticsSize());
+      LeafStore store = LeafStore.offHeap(checkpointed.getLeafStatisticsSize());
+      if (offHeap) {
+        plain.setLeafStore(plainStore);
+        checkpointed.setLeafStore(store);
+      }
+      new File(path).delete();
+      Checkpointer checkpointer = new Checkpointer(checkpointed, path, 500, 0, false);
+      for (int r = 0; r < rows.length; r++) {
+        plain.update(rows[r], classValues[r]);
+        checkpointed.update(rows[r], classValues[r]);
+      }
+      checkpointer.flush();
+      assertTrue("Checkpoints should have been written", checkpointer.getNbCheckpoints() > 10);
+      assertEquals(plain.getMemoryUsage(), checkpointed.getMemoryUsage());
+      assertEquals(plainStore.getNbSlotsInUse(), store.getNbSlotsInUse());
+      assertEquals(
+          "Checkpoints should not leave copies of the counts in the tree",
+          nodeInts(plain.getRoot()), nodeInts(checkpointed.getRoot()));
+      checkpointer.close();
+      plainStore.close();
+      store.close();
+    }
+  }
+
+  /* The number of ints in the arrays that the nodes under node refer to. */
+  private static long nodeInts(VfdtNode node) throws IllegalAccessException {
+    long ints = 0;
+    for (Field field : VfdtNode.class.getDeclaredFields()) {
+      if (field.getType() != int[].class || Modifier.isStatic(field.getModifiers())) continue;
+      field.setAccessible(true);
+      int[] array = (int[]) field.get(node);
+      if (array != null) ints += array.length;
+    }
+    if (node.getChildren() != null) {
+      for (VfdtNode child : node.getChildren()) ints += nodeInts(child);
+    }
+    return ints;
+  }
+
+  @Test
+  public void resumeWithBudgetAndAdaptiveGracePeriod() throws Exception {
+    int[] nbFeatureValues = {3, 3, 3, 3, 2, 2};
+    Random random = new Random(21);
+    int[][] rows = new int[40000][6];
+    int[] classValues = new int[rows.length];
+    for (int r = 0; r < rows.length; r++) {
+      for (int i = 0; i < 6; i++) rows[r][i] = random.nextInt(nbFeatureValues[i]);
+      classValues[r] = (rows[r][0] + rows[r][1] + rows[r][2]) % 2;
+      if (random.nextInt(10) == 0) classValues[r] = 1 - classValues[r];
+    }
+    String path = "output/vfdtSanityBudget.checkpoint";
+    new File(path).delete();
+    Vfdt vfdt = new Vfdt(nbFeatureValues, 0.05, 0.05, 50);
+    long budget = 40 * Vfdt.NODE_BYTES + 6 * (16 + 4 * vfdt.getLeafStatisticsSize());
+    vfdt.setMemoryBudget(budget, 1000);
+    vfdt.setAdaptiveGracePeriod(true);
+    Checkpointer checkpointer = new Checkpointer(vfdt, path, 5000, 0, false);
+    for (int r = 0; r < 15000; r++) vfdt.update(rows[r], classValues[r]);
+    long nbEvaluations = vfdt.getNbSplitEvaluations();
+    for (int r = 15000; r < 17500; r++) vfdt.update(rows[r], classValues[r]);
+    checkpointer.flush();
+    assertTrue("Leaves should have been deactivated", vfdt.getNbInactiveLeaves() > 0);
+    assertTrue("Evaluations should have been skipped", vfdt.getNbSkippedSplitEvaluations() > 0);
+
+    // a crash after 17500 examples: resume from the checkpoint of 15000 examples
+    Vfdt resumed = new Vfdt(nbFeatureValues, 0.05, 0.05, 50);
+    resumed.setMemoryBudget(budget, 1000);
+    resumed.setAdaptiveGracePeriod(true);
+    assertTrue("There should be a checkpoint", Checkpointer.restore(resumed, path));
+    assertEquals(15000, resumed.nbExamplesProcessed);
+    for (int r = 15000; r < rows.length; r++) resumed.update(rows[r], classValues[r]);
+    for (int r = 17500; r < rows.length; r++) vfdt.update(rows[r], classValues[r]);
+    checkpointer.close();
+
+    assertEquals(
+        "Resuming from a checkpoint should give the same tree",
+        vfdt.getVisualization(), resumed.getVisualization());
+    assertEquals(vfdt.getNbInactiveLeaves(), resumed.getNbInactiveLeaves());
+    assertEquals(
+        "The resumed tree should evaluate its leaves when the tree did",
+        vfdt.getNbSplitEvaluations() - nbEvaluations, resumed.getNbSplitEvaluations());
+    for (int r = 0; r < rows.length; r++) {
+      assertEquals(
+          "Resuming from a checkpoint should give the same predictions",
+          vfdt.makePrediction(rows[r]), resumed.makePrediction(rows[r]), 0);
+    }
+  }
+
+  @Test
+  public void memoryBudget() throws Exception {
+    int[] nbFeatureValues = {3, 3, 3, 3, 2, 2};
+    Random random = new Random(20);
+    int[][] rows = new int[40000][6];
+    int[] classValues = new int[rows.length];
+    for (int r = 0; r < rows.length; r++) {
+      for (int i = 0; i < 6; i++) rows[r][i] = random.nextInt(nbFeatureValues[i]);
+      classValues[r] = (rows[r][0] + rows[r][1] + rows[r][2]) % 2;
+    }
+    Vfdt unbounded = new Vfdt(nbFeatureValues, 0.05, 0.05, 50);
+    Vfdt generous = new Vfdt(nbFeatureValues, 0.05, 0.05, 50);
+    generous.setMemoryBudget(1L << 30, 1000);
+    Vfdt bounded = new Vfdt(nbFeatureValues, 0.05, 0.05, 50);
+    long budget = 40 * Vfdt.NODE_BYTES + 6 * (16 + 4 * bounded.getLeafStatisticsSize());
+    bounded.setMemoryBudget(budget, 1000);
+    for (int r = 0; r < rows.length; r++) {
+      unbounded.update(rows[r], classValues[r]);
+      generous.update(rows[r], classValues[r]);
+      bounded.update(rows[r], classValues[r]);
+    }
+    assertEquals(
+        "A budget that is never reached should not change the tree",
+        unbounded.getVisualization(), generous.getVisualization());
+    assertEquals(0, generous.getNbInactiveLeaves());
+    assertTrue("Leaves should have been deactivated", bounded.getNbInactiveLeaves() > 0);
+    assertTrue("The tree should stay within the budget", bounded.getMemoryUsage() <= budget);
+    assertTrue(
+        "The budget should save memory", bounded.getMemoryUsage() < unbounded.getMemoryUsage());
+    int correct = 0;
+    for (int r = 0; r < rows.length; r++) {
+      double prediction = bounded.makePrediction(rows[r]);
+      assertTrue(prediction >= 0 && prediction <= 1);
+      if ((prediction > 0.5 ? 1 : 0) == classValues[r]) correct++;
+    }
+    assertTrue("Inactive leaves should still predict", correct > 0.6 * rows.length);
+
+    // a binary model keeps the totals of every leaf and which leaves are inactive
+    bounded.writeBinaryModel("output/vfdtSanityBudget.model", false);
+    Vfdt read = new Vfdt(nbFeatureValues, 0.05, 0.05, 50);
+    read.setMemoryBudget(budget, 1000);
+    read.readBinaryModel("output/vfdtSanityBudget.model");
+    assertEquals(bounded.getNbInactiveLeaves(), read.getNbInactiveLeaves());
+    assertEquals(bounded.getMemoryUsage(), read.getMemoryUsage());
+    for (int r = 0; r < rows.length; r++) {
+      assertEquals(
+          "The read tree should predict like the tree",
+          bounded.makePrediction(rows[r]), read.makePrediction(rows[r]), 0);
+    }
+    for (int r = 0; r < rows.length; r++) {
+      bounded.update(rows[r], classValues[r]);
+      read.update(rows[r], classValues[r]);
+    }
+    assertEquals(
+        "The read tree should train like the tree",
+        bounded.getVisualization(), read.getVisualization());
+    for (int r = 0; r < rows.length; r++) {
+      assertEquals(bounded.makePrediction(rows[r]), read.makePrediction(rows[r]), 0);
+    }
+
+    // a larger budget reactivates the leaves at the next check
+    bounded.setMemoryBudget(1L << 30, 1000);
+    for (int r = 0; r < 1000; r++) bounded.update(rows[r], classValues[r]);
+    assertEquals("All leaves should be reactivated", 0, bounded.getNbInactiveLeaves());
+  }
+
+  @Test
+  public void sweepMatchesLearningCurve() throws Exception {
+    Random random = new Random(22);
+    StringBuilder csv = new StringBuilder();
+    for (int r = 0; r < 7000; r++) {
+      int a = random.nextInt(3);
+      int b = random.nextInt(4);
+      int c = random.nextInt(2);
+      int classValue = (b >= 2) != (c == 1) ? 1 : 0;
+      if (random.nextInt(10) == 0) classValue = 1 - classValue;
+      csv.append(a).append(',').append(b).append(',').append(c).append(',').append(classValue);
+      csv.append('\n');
+    }
+    Path dir = Files.createTempDirectory("vfdtSweep");
+    Files.write(dir.resolve("data.csv"), csv.toString().getBytes(StandardCharsets.US_ASCII));
+    int[] nbFeatureValues = {3, 4, 2};
+    double[] deltas = {0.05, 1e-7, 0.05};
+    int[] nmins = {20, 50, 200};
+
+    // capacity 1, so that the reader often waits for the learners
+    SweepRunner<Integer> sweep = new SweepRunner<Integer>(Data.ints(dir.toString(), ","), 1);
+    for (int c = 0; c < deltas.length; c++) {
+      Vfdt vfdt = new Vfdt(nbFeatureValues, deltas[c], 0.05, nmins[c]);
+      sweep.add(vfdt, 0.5, dir.resolve("sweep" + c).toString());
+    }
+    List<SweepRunner.Result> results = sweep.run(500, false);
+
+    for (int c = 0; c < deltas.length; c++) {
+      Vfdt alone = new Vfdt(nbFeatureValues, deltas[c], 0.05, nmins[c]);
+      String out = dir.resolve("alone" + c).toString();
+      alone.makeLearningCurve(Data.ints(dir.toString(), ","), 0.5, out, 500, false);
+      assertEquals(
+          "A sweep should give the same learning curve as a run of its own",
+          new String(Files.readAllBytes(Paths.get(out + ".acc")), StandardCharsets.US_ASCII),
+          new String(
+              Files.readAllBytes(dir.resolve("sweep" + c + ".acc")), StandardCharsets.US_ASCII));
+      assertEquals(7000, results.get(c).nbExamples);
+      assertEquals(alone.getMemoryUsage(), results.get(c).memoryUsage);
+    }
+    for (File file : dir.toFile().listFiles()) file.delete();
+    dir.toFile().delete();
+  }
+
+  @Test
+  public void prequentialEvaluator() throws Exception {
+    int[] nbFeatureValues = {3, 4, 2};
+    Random random = new Random(23);
+    int[][] rows = new int[6000][];
+    int[] classValues = new int[rows.length];
+    StringBuilder csv = new StringBuilder();
+    for (int r = 0; r < rows.length; r++) {
+      rows[r] = new int[] {random.nextInt(3), random.nextInt(4), random.nextInt(2)};
+      classValues[r] = (rows[r][1] >= 2) != (rows[r][2] == 1) ? 1 : 0;
+      if (random.nextInt(10) == 0) classValues[r] = 1 - classValues[r];
+      for (int value : rows[r]) csv.append(value).append(',');
+      csv.append(classValues[r]).append('\n');
+    }
+    Path dir = Files.createTempDirectory("vfdtPrequential");
+    Files.write(dir.resolve("data.csv"), csv.toString().getBytes(StandardCharsets.US_ASCII));
+    PrimitiveData data = new PrimitiveData(dir.toString(), ",");
+
+    // the default mode writes the same learning curve as makeLearningCurve
+    String curve = dir.resolve("curve").toString();
+    new Vfdt(nbFeatureValues, 0.05, 0.05, 50)
+        .makeLearningCurve(Data.ints(dir.toString(), ","), 0.5, curve, 1000, false);
+    String evaluated = dir.resolve("evaluated").toString();
+    PrequentialEvaluator.of(new Vfdt(nbFeatureValues, 0.05, 0.05, 50))
+        .evaluate(data, 0.5, evaluated, 1000, PrequentialEvaluator.Predictions.BINARY);
+    assertEquals(
+        "The evaluator should write the same learning curve",
+        new String(Files.readAllBytes(Paths.get(curve + ".acc")), StandardCharsets.US_ASCII),
+        new String(Files.readAllBytes(Paths.get(evaluated + ".acc")), StandardCharsets.US_ASCII));
+    // the first 10 examples are only trained on and the 11th is skipped
+    assertEquals(
+        "A double and a byte per tested example",
+        9 * (rows.length - 11), new File(evaluated + ".probs.bin").length());
+
+    // the interleaved mode tests and then trains every example
+    Vfdt vfdt = new Vfdt(nbFeatureValues, 0.05, 0.05, 50);
+    PrequentialEvaluator evaluator = PrequentialEvaluator.of(vfdt);
+    evaluator.setInterleaved(true);
+    evaluator.setWindowSize(500);
+    evaluator.setFadingFactor(0.999);
+    PrequentialEvaluator.Result result =
+        evaluator.evaluate(data, 0.5, evaluated, 1000, PrequentialEvaluator.Predictions.NONE);
+    Vfdt expected = new Vfdt(nbFeatureValues, 0.05, 0.05, 50);
+    int windowCorrect = 0;
+    double fadingCorrect = 0;
+    double fadingTotal = 0;
+    for (int r = 0; r < rows.length; r++) {
+      int correct = ((expected.makePrediction(rows[r]) > 0.5) ? 1 : 0) == classValues[r] ? 1 : 0;
+      if (r >= rows.length - 500) windowCorrect += correct;
+      fadingCorrect = 0.999 * fadingCorrect + correct;
+      fadingTotal = 0.999 * fadingTotal + 1;
+      expected.update(rows[r], classValues[r]);
+    }
+    assertEquals(rows.length, vfdt.nbExamplesProcessed);
+    assertEquals(expected.getVisualization(), vfdt.getVisualization());
+    assertEquals(windowCorrect / 500.0, result.windowAccuracy, 1e-12);
+    assertEquals(fadingCorrect / fadingTotal, result.fadingAccuracy, 1e-12);
+    for (String line : Files.readAllLines(Paths.get(evaluated + ".acc"))) {
+      assertEquals("Period, window and fading accuracy", 4, line.split("\t").length);
+    }
+    for (File file : dir.toFile().listFiles()) file.delete();
+    dir.toFile().delete();
+  }
+
+  @Test
+  public void metricsAndSplitEvents() throws Exception {
+    Metrics.Histogram histogram = Metrics.histogram("test.histogram", "ns");
+    for (int v = 1; v <= 1000; v++) histogram.record(v);
+    assertEquals(1000, histogram.getCount());
+    assertEquals(500500, histogram.getSum());
+    assertEquals(1000, histogram.getMax());
+    assertEquals("p50 is the bound of the bucket of 500", 511, histogram.getPercentile50());
+    assertEquals(1000, histogram.getPercentile99());
+
+    MBeanServer server = MBeanServerFactory.newMBeanServer();
+    Metrics.Counter counter = Metrics.counter("test.counter");
+    counter.add(42);
+    Metrics.register(server, "test.counter", counter);
+    ObjectName name = new ObjectName("bdap:type=Counter,name=" + ObjectName.quote("test.counter"));
+    assertEquals(42L, server.getAttribute(name, "Count"));
+
+    int[] nbFeatureValues = {3, 4, 2};
+    Random random = new Random(24);
+    Vfdt vfdt = new Vfdt(nbFeatureValues, 0.05, 0.05, 20);
+    Path dump = Files.createTempFile("vfdtSplits", ".jfr");
+    try (Recording recording = new Recording()) {
+      recording.enable("bdap.Split");
+      recording.start();
+      for (int r = 0; r < 5000; r++) {
+        int[] row = {random.nextInt(3), random.nextInt(4), random.nextInt(2)};
+        vfdt.update(row, (row[1] >= 2) != (row[2] == 1) ? 1 : 0);
+      }
+      recording.stop();
+      recording.dump(dump);
+    }
+    int nbChildren = 0;
+    for (RecordedEvent event : RecordingFile.readAllEvents(dump)) {
+      nbChildren += nbFeatureValues[event.getInt("feature")];
+      assertTrue(event.getInt("nbExamples") >= 20);
+    }
+    Files.delete(dump);
+    assertTrue("The tree should have split", nbChildren > 0);
+    assertEquals("An event per split", vfdt.freeze().getNbNodes() - 1, nbChildren);
+  }
+
+  @Test
+  public void adaptiveGracePeriod() {
+    int nbFeatures = 8;
+    int[] nbFeatureValues = new int[nbFeatures];
+    Arrays.fill(nbFeatureValues, 3);
+    Random random = new Random(25);
+    Vfdt fixed = new Vfdt(nbFeatureValues, 1e-7, 0.05, 50);
+    Vfdt adaptive = new Vfdt(nbFeatureValues, 1e-7, 0.05, 50);
+    adaptive.setAdaptiveGracePeriod(true);
+    int[] x = new int[nbFeatures];
+    for (int r = 0; r < 40000; r++) {
+      for (int i = 0; i < nbFeatures; i++) x[i] = random.nextInt(3);
+      int classValue = x[2] == 1 || x[5] == 0 ? 1 : 0;
+      if (random.nextInt(10) == 0) classValue = 1 - classValue;
+      fixed.update(x, classValue);
+      adaptive.update(x, classValue);
+    }
+
+    assertEquals(0, fixed.getNbSkippedSplitEvaluations());
+    assertTrue("Evaluations should be skipped", adaptive.getNbSkippedSplitEvaluations() > 0);
+    assertTrue(
+        "At least half of the evaluations should be saved",
+        2 * adaptive.getNbSplitEvaluations() < fixed.getNbSplitEvaluations());
+    assertTrue(
+        "The adaptive tree should learn the concept",
+        adaptive.makePrediction(new int[] {0, 0, 1, 0, 0, 1, 0, 0}) > 0.5
+            && adaptive.makePrediction(new int[] {0, 0, 0, 0, 0, 1, 0, 0}) < 0.5);
+  }
 }